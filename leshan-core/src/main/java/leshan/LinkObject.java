@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2013, Sierra Wireless
+ * Copyright (c) 2014, Sierra Wireless
  *
  * All rights reserved.
  *
@@ -29,29 +29,34 @@
  */
 package leshan;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import leshan.util.Charsets;
-import leshan.util.StringUtils;
 
 /**
  * A LwM2M path description given at the registration time by the client.
  */
 public class LinkObject {
 
+    private static final Map<String, Object> NO_ATTRIBUTES = Collections.emptyMap();
+
+    private static final LinkObject[] NO_LINKS = new LinkObject[0];
+
+    private static final int NO_ID = -1;
+
     private final String url;
 
     private final Map<String, Object> attributes;
 
-    private final Integer objectId;
+    private final int objectId;
 
-    private final Integer objectInstanceId;
+    private final int objectInstanceId;
 
-    private final Integer resourceId;
+    private final int resourceId;
 
     /**
      * Creates a new link object without attributes.
@@ -69,24 +74,43 @@ public class LinkObject {
      * @param attributes the object link attributes or <code>null</code> if the link has no attributes
      */
     public LinkObject(String url, Map<String, ?> attributes) {
-        this.url = url;
-        if (attributes != null) {
-            this.attributes = Collections.unmodifiableMap(new HashMap<String, Object>(attributes));
-        } else {
-            this.attributes = Collections.unmodifiableMap(new HashMap<String, Object>());
-        }
+        this(url, attributes == null || attributes.isEmpty() ? NO_ATTRIBUTES : Collections
+                .unmodifiableMap(new HashMap<String, Object>(attributes)), parseIds(url));
+    }
 
-        Matcher mat = Pattern.compile("(/(\\d+))(/(\\d+))?(/(\\d+))?").matcher(url);
+    /**
+     * @param attributes the unmodifiable attributes, used as is
+     * @param ids the object, object instance and resource ids
+     */
+    private LinkObject(String url, Map<String, Object> attributes, int[] ids) {
+        this.url = url;
+        this.attributes = attributes;
+        this.objectId = ids[0];
+        this.objectInstanceId = ids[1];
+        this.resourceId = ids[2];
+    }
 
-        if (mat.find()) {
-            objectId = mat.group(2) == null ? null : new Integer(mat.group(2));
-            objectInstanceId = mat.group(4) == null ? null : new Integer(mat.group(4));
-            resourceId = mat.group(6) == null ? null : new Integer(mat.group(6));
-        } else {
-            objectId = null;
-            objectInstanceId = null;
-            resourceId = null;
+    /**
+     * Looks for the first "/&lt;digits&gt;[/&lt;digits&gt;[/&lt;digits&gt;]]" sequence in the URL.
+     */
+    private static int[] parseIds(String url) {
+        int[] ids = { NO_ID, NO_ID, NO_ID };
+        int length = url.length();
+        for (int i = 0; i < length; i++) {
+            if (isIdStart(url, i)) {
+                int pos = i;
+                for (int group = 0; group < ids.length && isIdStart(url, pos); group++) {
+                    int end = pos + 1;
+                    while (end < length && isDigit(url.charAt(end))) {
+                        end++;
+                    }
+                    ids[group] = parseId(url, pos + 1, end);
+                    pos = end;
+                }
+                break;
+            }
         }
+        return ids;
     }
 
     public String getUrl() {
@@ -104,15 +128,15 @@ public class LinkObject {
 
     public String getPath() {
         StringBuilder sb = new StringBuilder("/");
-        if (objectId != null) {
+        if (objectId != NO_ID) {
             sb.append(objectId);
         }
 
-        if (objectInstanceId != null) {
+        if (objectInstanceId != NO_ID) {
             sb.append("/").append(objectInstanceId);
         }
 
-        if (resourceId != null) {
+        if (resourceId != NO_ID) {
             sb.append("/").append(resourceId);
         }
 
@@ -124,55 +148,220 @@ public class LinkObject {
         return String.format("LinkObject [url=%s, attributes=%s]", url, attributes);
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * url.hashCode() + attributes.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LinkObject)) {
+            return false;
+        }
+        LinkObject other = (LinkObject) obj;
+        return url.equals(other.url) && attributes.equals(other.attributes);
+    }
+
     public Integer getObjectId() {
-        return objectId;
+        return objectId == NO_ID ? null : Integer.valueOf(objectId);
     }
 
     public Integer getObjectInstanceId() {
-        return objectInstanceId;
+        return objectInstanceId == NO_ID ? null : Integer.valueOf(objectInstanceId);
     }
 
     public Integer getResourceId() {
-        return resourceId;
+        return resourceId == NO_ID ? null : Integer.valueOf(resourceId);
     }
 
+    /**
+     * Parses a CoRE link-format payload (RFC 6690) in a single pass over its bytes.
+     * <p>
+     * Links are separated by <code>','</code> and attributes by <code>';'</code>, except inside a quoted value or an
+     * URL enclosed in <code>'&lt;'</code> and <code>'&gt;'</code>. Blank links and blank attributes
+     * are ignored, URL, keys and values are trimmed. Attribute values made only of an optional sign and digits are
+     * returned as {@link Integer}, values enclosed in double quotes are unquoted and attributes without value are
+     * mapped to <code>null</code>. Attribute keys are interned as they come from a small and well-known set.
+     * </p>
+     * 
+     * @param content the link-format payload encoded in UTF-8
+     * @return the parsed links, never <code>null</code>
+     */
     public static LinkObject[] parse(byte[] content) {
-        String s = new String(content, Charsets.UTF_8);
-        String[] links = s.split(",");
-        LinkObject[] linksResult = new LinkObject[links.length];
-        int index = 0;
-        for (String link : links) {
-            String[] linkParts = link.split(";");
+        if (content == null || content.length == 0) {
+            return NO_LINKS;
+        }
+
+        List<LinkObject> links = new ArrayList<>();
+        int length = content.length;
+        int linkStart = 0;
+        while (linkStart < length) {
+            int linkEnd = indexOfSeparator(content, (byte) ',', linkStart, length);
+            int urlEnd = indexOfSeparator(content, (byte) ';', linkStart, linkEnd);
 
             // clean URL
-            String url = StringUtils.trim(linkParts[0]);
-            url = StringUtils.removeStart(StringUtils.removeEnd(url, ">"), "<");
+            int start = trimStart(content, linkStart, urlEnd);
+            int end = trimEnd(content, start, urlEnd);
+            if (end > start && content[end - 1] == '>') {
+                end--;
+            }
+            if (end > start && content[start] == '<') {
+                start++;
+            }
+            String url = new String(content, start, end - start, Charsets.UTF_8);
 
             // parse attributes
-            Map<String, Object> attributes = new HashMap<>();
-
-            if (linkParts.length > 1) {
-                for (int i = 1; i < linkParts.length; i++) {
-                    String[] attParts = linkParts[i].split("=");
-                    if (attParts.length > 0) {
-                        String key = attParts[0];
-                        Object value = null;
-                        if (attParts.length > 1) {
-                            String rawvalue = attParts[1];
-                            try {
-                                value = Integer.valueOf(rawvalue);
-                            } catch (NumberFormatException e) {
-
-                                value = rawvalue.replaceFirst("^\"(.*)\"$", "$1");
-                            }
-                        }
-                        attributes.put(key, value);
+            Map<String, Object> attributes = NO_ATTRIBUTES;
+            int attStart = urlEnd + 1;
+            while (attStart < linkEnd) {
+                int attEnd = indexOfSeparator(content, (byte) ';', attStart, linkEnd);
+                int keyEnd = indexOf(content, (byte) '=', attStart, attEnd);
+
+                start = trimStart(content, attStart, keyEnd);
+                end = trimEnd(content, start, keyEnd);
+                if (end > start || keyEnd < attEnd) {
+                    String key = new String(content, start, end - start, Charsets.UTF_8).intern();
+                    Object value = null;
+                    if (keyEnd < attEnd) {
+                        value = parseValue(content, keyEnd + 1, attEnd);
                     }
+                    if (attributes == NO_ATTRIBUTES) {
+                        attributes = new HashMap<>(4);
+                    }
+                    attributes.put(key, value);
+                }
+                attStart = attEnd + 1;
+            }
+
+            if (url.length() > 0 || attributes != NO_ATTRIBUTES) {
+                if (attributes != NO_ATTRIBUTES) {
+                    attributes = Collections.unmodifiableMap(attributes);
+                }
+                links.add(new LinkObject(url, attributes, parseIds(url)));
+            }
+            linkStart = linkEnd + 1;
+        }
+        return links.toArray(new LinkObject[links.size()]);
+    }
+
+    private static Object parseValue(byte[] content, int from, int to) {
+        int start = trimStart(content, from, to);
+        int end = trimEnd(content, start, to);
+        if (start == end) {
+            return null;
+        }
+
+        // integer value: optional sign followed by digits, fitting in an int
+        int pos = start;
+        boolean negative = content[pos] == '-';
+        if (negative || content[pos] == '+') {
+            pos++;
+        }
+        if (pos < end) {
+            long value = 0;
+            while (pos < end && isDigit((char) content[pos]) && value <= Integer.MAX_VALUE + 1L) {
+                value = value * 10 + (content[pos] - '0');
+                pos++;
+            }
+            if (pos == end) {
+                if (negative && value <= Integer.MAX_VALUE + 1L) {
+                    return Integer.valueOf((int) -value);
+                } else if (!negative && value <= Integer.MAX_VALUE) {
+                    return Integer.valueOf((int) value);
                 }
             }
-            linksResult[index] = new LinkObject(url, attributes);
-            index++;
         }
-        return linksResult;
+
+        // string value, unquoted only when it both starts and ends with a quote
+        if (end - start >= 2 && content[start] == '"' && content[end - 1] == '"') {
+            start++;
+            end--;
+        }
+        return new String(content, start, end - start, Charsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] content, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (content[i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Finds the next separator which is neither in a quoted value nor in an URL enclosed in '<' and '>'.
+     * <p>
+     * A quote only starts a quoted value right after a '=' and only ends it before a separator or the end of the
+     * content, other quotes are part of the value.
+     * </p>
+     */
+    private static int indexOfSeparator(byte[] content, byte separator, int from, int to) {
+        boolean quoted = false;
+        boolean inUrl = false;
+        byte previous = ',';
+        for (int i = from; i < to; i++) {
+            byte b = content[i];
+            if (quoted) {
+                if (b == '\\' && i + 1 < to) {
+                    i++; // escaped character
+                } else if (b == '"' && isValueEnd(content, i + 1, to)) {
+                    quoted = false;
+                }
+            } else if (inUrl) {
+                inUrl = b != '>';
+            } else if (b == '"' && previous == '=') {
+                quoted = true;
+            } else if (b == '<' && previous == ',') {
+                inUrl = true;
+            } else if (b == separator) {
+                return i;
+            }
+            if ((b & 0xFF) > ' ') {
+                previous = b;
+            }
+        }
+        return to;
+    }
+
+    private static boolean isValueEnd(byte[] content, int from, int to) {
+        int next = trimStart(content, from, to);
+        return next == to || content[next] == ';' || content[next] == ',';
+    }
+
+    private static int trimStart(byte[] content, int from, int to) {
+        while (from < to && (content[from] & 0xFF) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] content, int from, int to) {
+        while (to > from && (content[to - 1] & 0xFF) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdStart(String url, int index) {
+        return index + 1 < url.length() && url.charAt(index) == '/' && isDigit(url.charAt(index + 1));
+    }
+
+    private static int parseId(String url, int start, int end) {
+        long id = 0;
+        for (int i = start; i < end; i++) {
+            id = id * 10 + (url.charAt(i) - '0');
+            if (id > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Invalid id in link " + url);
+            }
+        }
+        return (int) id;
     }
-}
\ No newline at end of file
+}
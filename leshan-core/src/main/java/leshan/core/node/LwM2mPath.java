@@ -33,12 +33,25 @@ import leshan.util.Validate;
 
 /**
  * A path pointing to a LwM2M node (object, object instance or resource).
+ * <p>
+ * Paths are immutable. Frequently used paths parsed with {@link #valueOf(String)} are interned.
+ * </p>
  */
 public class LwM2mPath {
 
+    // sentinel for the absent levels
+    private static final int NONE = -1;
+
+    // interned paths, indexed by the hash of their ids: a path replaces the previous path of its entry, so the
+    // frequently used paths stay in the cache. Paths are immutable, reading a stale entry is harmless.
+    private static final int INTERN_CACHE_SIZE = 1024;
+
+    private static final LwM2mPath[] INTERNED = new LwM2mPath[INTERN_CACHE_SIZE];
+
     private final int objectId;
-    private final Integer objectInstanceId;
-    private final Integer resourceId;
+    private final int objectInstanceId;
+    private final int resourceId;
+    private final int hashCode;
 
     /**
      * Create a path to an object
@@ -46,9 +59,7 @@ public class LwM2mPath {
      * @param objectId the object identifier
      */
     public LwM2mPath(int objectId) {
-        this.objectId = objectId;
-        this.objectInstanceId = null;
-        this.resourceId = null;
+        this(objectId, NONE, NONE, true);
     }
 
     /**
@@ -58,9 +69,8 @@ public class LwM2mPath {
      * @param objectInstanceId the instance
      */
     public LwM2mPath(int objectId, int objectInstanceId) {
-        this.objectId = objectId;
-        this.objectInstanceId = objectInstanceId;
-        this.resourceId = null;
+        this(objectId, objectInstanceId, NONE, true);
+        Validate.isTrue(objectInstanceId >= 0, "Invalid object instance id: ", objectInstanceId);
     }
 
     /**
@@ -71,33 +81,110 @@ public class LwM2mPath {
      * @param resourceIdthe resource identifier
      */
     public LwM2mPath(int objectId, int objectInstanceId, int resourceId) {
+        this(objectId, objectInstanceId, resourceId, true);
+        Validate.isTrue(objectInstanceId >= 0, "Invalid object instance id: ", objectInstanceId);
+        Validate.isTrue(resourceId >= 0, "Invalid resource id: ", resourceId);
+    }
+
+    /**
+     * Constructs a {@link LwM2mPath} from a string representation
+     *
+     * @param path the path (e.g. "/3/0/1" or "/3")
+     * @see #valueOf(String)
+     */
+    public LwM2mPath(String path) {
+        this(idAt(path, 0), idAt(path, 1), idAt(path, 2), false);
+    }
+
+    private LwM2mPath(int objectId, int objectInstanceId, int resourceId, boolean checkObjectId) {
+        if (checkObjectId) {
+            Validate.isTrue(objectId >= 0, "Invalid object id: ", objectId);
+        }
         this.objectId = objectId;
         this.objectInstanceId = objectInstanceId;
         this.resourceId = resourceId;
+        this.hashCode = hashCode(objectId, objectInstanceId, resourceId);
+    }
+
+    private static int hashCode(int objectId, int objectInstanceId, int resourceId) {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + objectId;
+        result = prime * result + ((objectInstanceId == NONE) ? 0 : objectInstanceId);
+        result = prime * result + ((resourceId == NONE) ? 0 : resourceId);
+        return result;
     }
 
     /**
-     * Constructs a {@link LwM2mPath} from a string representation
+     * Returns a {@link LwM2mPath} for the given string representation.
+     * <p>
+     * Unlike the {@link #LwM2mPath(String)} constructor, the returned instance may be shared: the recently used paths
+     * are interned, so parsing a frequently used path (e.g. "/3/0/13" or "/3/0/13/") does not allocate.
+     * </p>
      *
      * @param path the path (e.g. "/3/0/1" or "/3")
      */
-    public LwM2mPath(String path) {
+    public static LwM2mPath valueOf(String path) {
+        int objectId = idAt(path, 0);
+        int objectInstanceId = idAt(path, 1);
+        int resourceId = idAt(path, 2);
+
+        int h = hashCode(objectId, objectInstanceId, resourceId);
+        int index = (h ^ (h >>> 16)) & (INTERN_CACHE_SIZE - 1);
+        LwM2mPath interned = INTERNED[index];
+        if (interned == null || interned.objectId != objectId || interned.objectInstanceId != objectInstanceId
+                || interned.resourceId != resourceId) {
+            interned = new LwM2mPath(objectId, objectInstanceId, resourceId, false);
+            INTERNED[index] = interned;
+        }
+        return interned;
+    }
+
+    /**
+     * Parses a path without allocating.
+     *
+     * @param path the path (e.g. "/3/0/1" or "/3")
+     * @param level the level of the id (0 for the object id, 1 for the object instance id, 2 for the resource id)
+     * @return the id at the given level, or {@link #NONE} if the path is shorter
+     */
+    private static int idAt(String path, int level) {
         Validate.notEmpty(path);
-        if (!path.startsWith("/")) {
+        if (path.charAt(0) != '/') {
             throw new IllegalArgumentException("Invalid LWM2M path: " + path);
         }
-        path = path.substring(1);
-        String[] p = path.split("/");
-        if (p.length < 1 || p.length > 3) {
-            throw new IllegalArgumentException("Invalid length for path: " + path);
+
+        // "/{Object ID}[/{ObjectInstance ID}[/{Resource ID}]][/]"
+        int result = NONE;
+        int current = 0;
+        int i = 1;
+        int length = path.length();
+        while (i < length) {
+            int id = 0;
+            int start = i;
+            for (; i < length && path.charAt(i) != '/'; i++) {
+                char c = path.charAt(i);
+                if (c < '0' || c > '9' || id > (Integer.MAX_VALUE - 9) / 10) {
+                    throw new IllegalArgumentException("Invalid elements in path: " + path);
+                }
+                id = id * 10 + (c - '0');
+            }
+            if (i == start) {
+                throw new IllegalArgumentException("Invalid elements in path: " + path);
+            }
+            if (current > 2) {
+                throw new IllegalArgumentException("Invalid length for path: " + path);
+            }
+            if (current == level) {
+                result = id;
+            }
+            current++;
+            // skip the separator
+            i++;
         }
-        try {
-            this.objectId = Integer.valueOf(p[0]);
-            this.objectInstanceId = (p.length >= 2) ? Integer.valueOf(p[1]) : null;
-            this.resourceId = (p.length == 3) ? Integer.valueOf(p[2]) : null;
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException("Invalid elements in path: " + path, e);
+        if (current == 0) {
+            throw new IllegalArgumentException("Invalid length for path: " + path);
         }
+        return result;
     }
 
     /**
@@ -115,7 +202,7 @@ public class LwM2mPath {
      * @return the object instance ID. Can be <code>null</code> when this is an object path.
      */
     public Integer getObjectInstanceId() {
-        return objectInstanceId;
+        return objectInstanceId == NONE ? null : objectInstanceId;
     }
 
     /**
@@ -124,28 +211,28 @@ public class LwM2mPath {
      * @return the resource ID. Can be <code>null</code> when this is a object/object instance path.
      */
     public Integer getResourceId() {
-        return resourceId;
+        return resourceId == NONE ? null : resourceId;
     }
 
     /**
      * @return <code>true</code> if this is an Object path.
      */
     public boolean isObject() {
-        return objectInstanceId == null && resourceId == null;
+        return objectInstanceId == NONE && resourceId == NONE;
     }
 
     /**
      * @return <code>true</code> if this is an ObjectInstance path.
      */
     public boolean isObjectInstance() {
-        return objectInstanceId != null && resourceId == null;
+        return objectInstanceId != NONE && resourceId == NONE;
     }
 
     /**
      * @return <code>true</code> if this is a Resource path.
      */
     public boolean isResource() {
-        return objectInstanceId != null && resourceId != null;
+        return objectInstanceId != NONE && resourceId != NONE;
     }
 
     /**
@@ -155,11 +242,11 @@ public class LwM2mPath {
     public String toString() {
         StringBuilder b = new StringBuilder();
         b.append("/");
-        b.append(getObjectId());
-        if (getObjectInstanceId() != null) {
-            b.append("/").append(getObjectInstanceId());
-            if (getResourceId() != null) {
-                b.append("/").append(getResourceId());
+        b.append(objectId);
+        if (objectInstanceId != NONE) {
+            b.append("/").append(objectInstanceId);
+            if (resourceId != NONE) {
+                b.append("/").append(resourceId);
             }
         }
         return b.toString();
@@ -167,12 +254,7 @@ public class LwM2mPath {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + objectId;
-        result = prime * result + ((objectInstanceId == null) ? 0 : objectInstanceId.hashCode());
-        result = prime * result + ((resourceId == null) ? 0 : resourceId.hashCode());
-        return result;
+        return hashCode;
     }
 
     @Override
@@ -187,24 +269,8 @@ public class LwM2mPath {
             return false;
         }
         LwM2mPath other = (LwM2mPath) obj;
-        if (objectId != other.objectId) {
-            return false;
-        }
-        if (objectInstanceId == null) {
-            if (other.objectInstanceId != null) {
-                return false;
-            }
-        } else if (!objectInstanceId.equals(other.objectInstanceId)) {
-            return false;
-        }
-        if (resourceId == null) {
-            if (other.resourceId != null) {
-                return false;
-            }
-        } else if (!resourceId.equals(other.resourceId)) {
-            return false;
-        }
-        return true;
+        return objectId == other.objectId && objectInstanceId == other.objectInstanceId
+                && resourceId == other.resourceId;
     }
 
-}
\ No newline at end of file
+}
@@ -61,6 +61,19 @@ public class Value<T> {
         TIME
     }
 
+    private static final Value<Boolean> TRUE = new Value<Boolean>(Boolean.TRUE, DataType.BOOLEAN);
+    private static final Value<Boolean> FALSE = new Value<Boolean>(Boolean.FALSE, DataType.BOOLEAN);
+
+    // values are immutable, the small integers are shared the same way as Integer.valueOf does
+    private static final Value<Integer>[] SMALL_INTEGERS = newSmallIntegers(-128, 127);
+
+    /**
+     * The boxed value.
+     * <p>
+     * For numeric and boolean values, {@link #getLong()}, {@link #getDouble()} and {@link #getBoolean()} read it as a
+     * primitive without casts in the calling code.
+     * </p>
+     */
     public final T value;
 
     public final DataType type;
@@ -75,23 +88,26 @@ public class Value<T> {
     }
 
     public static Value<Integer> newIntegerValue(int value) {
-        return new Value<Integer>(value, DataType.INTEGER);
+        if (value >= -128 && value <= 127) {
+            return SMALL_INTEGERS[value + 128];
+        }
+        return new Value<Integer>(Integer.valueOf(value), DataType.INTEGER);
     }
 
     public static Value<Long> newLongValue(long value) {
-        return new Value<Long>(value, DataType.LONG);
+        return new Value<Long>(Long.valueOf(value), DataType.LONG);
     }
 
     public static Value<Boolean> newBooleanValue(boolean value) {
-        return new Value<Boolean>(value, DataType.BOOLEAN);
+        return value ? TRUE : FALSE;
     }
 
     public static Value<Float> newFloatValue(float value) {
-        return new Value<Float>(value, DataType.FLOAT);
+        return new Value<Float>(Float.valueOf(value), DataType.FLOAT);
     }
 
     public static Value<Double> newDoubleValue(double value) {
-        return new Value<Double>(value, DataType.DOUBLE);
+        return new Value<Double>(Double.valueOf(value), DataType.DOUBLE);
     }
 
     public static Value<Date> newDateValue(Date value) {
@@ -102,6 +118,57 @@ public class Value<T> {
         return new Value<byte[]>(value, DataType.OPAQUE);
     }
 
+    /**
+     * Returns the value as a long.
+     * <p>
+     * Floating point values are truncated and {@link DataType#TIME} values are returned as milliseconds since
+     * 1970/1/1.
+     * </p>
+     *
+     * @throws IllegalStateException if this is not a numeric or a time value
+     */
+    public long getLong() {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        throw new IllegalStateException("Not a numeric value: " + type);
+    }
+
+    /**
+     * Returns the value as a double.
+     *
+     * @throws IllegalStateException if this is not a numeric value
+     */
+    public double getDouble() {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        throw new IllegalStateException("Not a numeric value: " + type);
+    }
+
+    /**
+     * Returns the value of a {@link DataType#BOOLEAN} value.
+     *
+     * @throws IllegalStateException if this is not a boolean value
+     */
+    public boolean getBoolean() {
+        if (type == DataType.BOOLEAN) {
+            return ((Boolean) value).booleanValue();
+        }
+        throw new IllegalStateException("Not a boolean value: " + type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Value<Integer>[] newSmallIntegers(int low, int high) {
+        Value<Integer>[] values = new Value[high - low + 1];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new Value<Integer>(Integer.valueOf(low + i), DataType.INTEGER);
+        }
+        return values;
+    }
+
     @Override
     public String toString() {
         return String.format("Value [value=%s, type=%s]", value, type);
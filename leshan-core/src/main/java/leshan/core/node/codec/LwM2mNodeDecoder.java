@@ -38,13 +38,14 @@ import leshan.core.node.LwM2mObjectInstance;
 import leshan.core.node.LwM2mPath;
 import leshan.core.node.LwM2mResource;
 import leshan.core.node.Value;
+import leshan.core.objectspec.ObjectSpecTable;
 import leshan.core.objectspec.ResourceSpec;
 import leshan.core.objectspec.Resources;
 import leshan.core.objectspec.ResourceSpec.Type;
 import leshan.core.request.ContentFormat;
-import leshan.tlv.Tlv;
 import leshan.tlv.TlvDecoder;
 import leshan.tlv.TlvException;
+import leshan.tlv.TlvReader;
 import leshan.util.Charsets;
 import leshan.util.Validate;
 
@@ -69,10 +70,13 @@ public class LwM2mNodeDecoder {
 
         Validate.notNull(path);
 
+        // use the same objects definitions for the whole decoding
+        ObjectSpecTable specs = Resources.getObjectSpecTable();
+
         // default to plain/text
         if (format == null) {
             if (path.isResource()) {
-                ResourceSpec rDesc = Resources.getResourceSpec(path.getObjectId(), path.getResourceId());
+                ResourceSpec rDesc = specs.getResourceSpec(path.getObjectId(), path.getResourceId());
                 if (rDesc != null && rDesc.multiple) {
                     format = ContentFormat.TLV;
                 } else {
@@ -89,7 +93,7 @@ public class LwM2mNodeDecoder {
         case TEXT:
             // single resource value
             Validate.notNull(path.getResourceId());
-            ResourceSpec rDesc = Resources.getResourceSpec(path.getObjectId(), path.getResourceId());
+            ResourceSpec rDesc = specs.getResourceSpec(path.getObjectId(), path.getResourceId());
 
             String strValue = new String(content, Charsets.UTF_8);
             Value<?> value = null;
@@ -103,8 +107,7 @@ public class LwM2mNodeDecoder {
 
         case TLV:
             try {
-                Tlv[] tlvs = TlvDecoder.decode(ByteBuffer.wrap(content));
-                return parseTlv(tlvs, path);
+                return parseTlv(new TlvReader(ByteBuffer.wrap(content)), path, specs);
             } catch (TlvException e) {
                 throw new InvalidValueException("Unable to decode tlv.", path, e);
             }
@@ -126,9 +129,9 @@ public class LwM2mNodeDecoder {
                 return Value.newStringValue(value);
             case INTEGER:
                 try {
-                    Long lValue = Long.valueOf(value);
+                    long lValue = Long.parseLong(value);
                     if (lValue >= Integer.MIN_VALUE && lValue <= Integer.MAX_VALUE) {
-                        return Value.newIntegerValue(lValue.intValue());
+                        return Value.newIntegerValue((int) lValue);
                     } else {
                         return Value.newLongValue(lValue);
                     }
@@ -146,9 +149,9 @@ public class LwM2mNodeDecoder {
                 }
             case FLOAT:
                 try {
-                    Double dValue = Double.valueOf(value);
+                    double dValue = Double.parseDouble(value);
                     if (dValue >= Float.MIN_VALUE && dValue <= Float.MAX_VALUE) {
-                        return Value.newFloatValue(dValue.floatValue());
+                        return Value.newFloatValue((float) dValue);
                     } else {
                         return Value.newDoubleValue(dValue);
                     }
@@ -157,7 +160,7 @@ public class LwM2mNodeDecoder {
                 }
             case TIME:
                 // number of seconds since 1970/1/1
-                return Value.newDateValue(new Date(Long.valueOf(value) * 1000L));
+                return Value.newDateValue(new Date(Long.parseLong(value) * 1000L));
             case OPAQUE:
                 // not specified
             default:
@@ -168,119 +171,143 @@ public class LwM2mNodeDecoder {
         }
     }
 
-    private static LwM2mNode parseTlv(Tlv[] tlvs, LwM2mPath path) throws InvalidValueException {
-        LOG.trace("Parsing TLV content for path {}: {}", path, tlvs);
+    private static LwM2mNode parseTlv(TlvReader reader, LwM2mPath path, ObjectSpecTable specs)
+            throws InvalidValueException, TlvException {
+        LOG.trace("Parsing TLV content for path {}", path);
 
         if (path.isObject()) {
             // object level request
-            LwM2mObjectInstance[] instances = new LwM2mObjectInstance[tlvs.length];
-            for (int i = 0; i < tlvs.length; i++) {
-                instances[i] = parseObjectInstancesTlv(tlvs[i], path.getObjectId());
+            LwM2mObjectInstance[] instances = new LwM2mObjectInstance[reader.count()];
+            for (int i = 0; reader.next(); i++) {
+                instances[i] = parseObjectInstancesTlv(reader, path.getObjectId(), specs);
             }
             return new LwM2mObject(path.getObjectId(), instances);
 
         } else if (path.isObjectInstance()) {
             // object instance level request
-            LwM2mResource[] resources = new LwM2mResource[tlvs.length];
-            for (int i = 0; i < tlvs.length; i++) {
-                resources[i] = parseResourceTlv(tlvs[i], path.getObjectId(), path.getObjectInstanceId());
+            LwM2mResource[] resources = new LwM2mResource[reader.count()];
+            for (int i = 0; reader.next(); i++) {
+                resources[i] = parseResourceTlv(reader, path.getObjectId(), path.getObjectInstanceId(), specs);
             }
             return new LwM2mObjectInstance(path.getObjectInstanceId(), resources);
 
         } else {
             // resource level request
-            if (tlvs.length == 1) {
-                switch (tlvs[0].getType()) {
+            int count = reader.count();
+            if (count == 1) {
+                reader.next();
+                switch (reader.getType()) {
                 case RESOURCE_VALUE:
                     // single value
-                    return new LwM2mResource(tlvs[0].getIdentifier(), parseTlvValue(tlvs[0].getValue(), path));
+                    return new LwM2mResource(reader.getIdentifier(), parseTlvValue(reader, path.getObjectId(),
+                            path.getObjectInstanceId(), path.getResourceId(), specs));
                 case MULTIPLE_RESOURCE:
                     // supported but not compliant with the TLV specification
-                    return parseResourceTlv(tlvs[0], path.getObjectId(), path.getObjectInstanceId());
+                    return parseResourceTlv(reader, path.getObjectId(), path.getObjectInstanceId(), specs);
 
                 default:
-                    throw new InvalidValueException("Invalid TLV type: " + tlvs[0].getType(), path);
+                    throw new InvalidValueException("Invalid TLV type: " + reader.getType(), path);
                 }
             } else {
                 // array of values
-                Value<?>[] values = new Value[tlvs.length];
-                for (int j = 0; j < tlvs.length; j++) {
-                    values[j] = parseTlvValue(tlvs[j].getValue(), path);
+                Value<?>[] values = new Value[count];
+                for (int j = 0; reader.next(); j++) {
+                    values[j] = parseTlvValue(reader, path.getObjectId(), path.getObjectInstanceId(),
+                            path.getResourceId(), specs);
                 }
                 return new LwM2mResource(path.getResourceId(), values);
             }
         }
     }
 
-    private static LwM2mObjectInstance parseObjectInstancesTlv(Tlv tlv, int objectId) throws InvalidValueException {
+    private static LwM2mObjectInstance parseObjectInstancesTlv(TlvReader reader, int objectId,
+            ObjectSpecTable specs) throws InvalidValueException, TlvException {
+        int instanceId = reader.getIdentifier();
+
         // read resources
-        LwM2mResource[] resources = new LwM2mResource[tlv.getChildren().length];
-        for (int i = 0; i < tlv.getChildren().length; i++) {
-            resources[i] = parseResourceTlv(tlv.getChildren()[i], objectId, tlv.getIdentifier());
+        reader.enter();
+        LwM2mResource[] resources = new LwM2mResource[reader.count()];
+        for (int i = 0; reader.next(); i++) {
+            resources[i] = parseResourceTlv(reader, objectId, instanceId, specs);
         }
-        return new LwM2mObjectInstance(tlv.getIdentifier(), resources);
+        reader.exit();
+        return new LwM2mObjectInstance(instanceId, resources);
     }
 
-    private static LwM2mResource parseResourceTlv(Tlv tlv, int objectId, int objectInstanceId)
-            throws InvalidValueException {
-        LwM2mPath rscPath = new LwM2mPath(objectId, objectInstanceId, tlv.getIdentifier());
-        switch (tlv.getType()) {
+    private static LwM2mResource parseResourceTlv(TlvReader reader, int objectId, int objectInstanceId,
+            ObjectSpecTable specs) throws InvalidValueException, TlvException {
+        int resourceId = reader.getIdentifier();
+        switch (reader.getType()) {
         case MULTIPLE_RESOURCE:
             // read values
-            Value<?>[] values = new Value[tlv.getChildren().length];
-            for (int j = 0; j < tlv.getChildren().length; j++) {
-                values[j] = parseTlvValue(tlv.getChildren()[j].getValue(), rscPath);
+            reader.enter();
+            Value<?>[] values = new Value[reader.count()];
+            for (int j = 0; reader.next(); j++) {
+                values[j] = parseTlvValue(reader, objectId, objectInstanceId, resourceId, specs);
             }
-            return new LwM2mResource(tlv.getIdentifier(), values);
+            reader.exit();
+            return new LwM2mResource(resourceId, values);
         case RESOURCE_VALUE:
-            return new LwM2mResource(tlv.getIdentifier(), parseTlvValue(tlv.getValue(), rscPath));
+            return new LwM2mResource(resourceId, parseTlvValue(reader, objectId, objectInstanceId, resourceId,
+                    specs));
         default:
-            throw new InvalidValueException("Invalid TLV value", rscPath);
+            throw new InvalidValueException("Invalid TLV value", new LwM2mPath(objectId, objectInstanceId, resourceId));
         }
     }
 
-    private static Value<?> parseTlvValue(byte[] value, LwM2mPath rscPath) throws InvalidValueException {
+    // the path of the resource is only built when the value is invalid
+    private static Value<?> parseTlvValue(TlvReader reader, int objectId, int objectInstanceId, int resourceId,
+            ObjectSpecTable specs) throws InvalidValueException {
+        ByteBuffer buffer = reader.getBuffer();
+        int offset = reader.getValueOffset();
+        int length = reader.getValueLength();
 
-        ResourceSpec rscDesc = Resources.getResourceSpec(rscPath.getObjectId(), rscPath.getResourceId());
+        ResourceSpec rscDesc = specs.getResourceSpec(objectId, resourceId);
         if (rscDesc == null) {
-            LOG.trace("TLV value for path {} and unknown type: {}", rscPath, value);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("TLV value for resource /{}/{}/{} and unknown type", objectId, objectInstanceId, resourceId);
+            }
             // no resource description... opaque
-            return Value.newBinaryValue(value);
+            return Value.newBinaryValue(TlvDecoder.decodeOpaque(buffer, offset, length));
         }
 
-        LOG.trace("TLV value for path {} and expected type {}: {}", rscPath, rscDesc.type, value);
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("TLV value for resource /{}/{}/{} and expected type {}", objectId, objectInstanceId,
+                    resourceId, rscDesc.type);
+        }
         try {
             switch (rscDesc.type) {
             case STRING:
-                return Value.newStringValue(TlvDecoder.decodeString(value));
+                return Value.newStringValue(TlvDecoder.decodeString(buffer, offset, length));
             case INTEGER:
-                Number intNb = TlvDecoder.decodeInteger(value);
-                if (value.length < 8) {
-                    return Value.newIntegerValue(intNb.intValue());
+                long intNb = TlvDecoder.decodeInteger(buffer, offset, length);
+                if (length < 8) {
+                    return Value.newIntegerValue((int) intNb);
                 } else {
-                    return Value.newLongValue(intNb.longValue());
+                    return Value.newLongValue(intNb);
                 }
 
             case BOOLEAN:
-                return Value.newBooleanValue(TlvDecoder.decodeBoolean(value));
+                return Value.newBooleanValue(TlvDecoder.decodeBoolean(buffer, offset, length));
 
             case FLOAT:
-                Number floatNb = TlvDecoder.decodeFloat(value);
-                if (value.length < 8) {
-                    return Value.newFloatValue(floatNb.floatValue());
+                double floatNb = TlvDecoder.decodeFloat(buffer, offset, length);
+                if (length < 8) {
+                    return Value.newFloatValue((float) floatNb);
                 } else {
-                    return Value.newDoubleValue(floatNb.doubleValue());
+                    return Value.newDoubleValue(floatNb);
                 }
 
             case TIME:
-                return Value.newDateValue(TlvDecoder.decodeDate(value));
+                return Value.newDateValue(TlvDecoder.decodeDate(buffer, offset, length));
 
             case OPAQUE:
             default:
-                return Value.newBinaryValue(value);
+                return Value.newBinaryValue(TlvDecoder.decodeOpaque(buffer, offset, length));
             }
         } catch (TlvException e) {
-            throw new InvalidValueException("Invalid content for type " + rscDesc.type, rscPath, e);
+            throw new InvalidValueException("Invalid content for type " + rscDesc.type, new LwM2mPath(objectId,
+                    objectInstanceId, resourceId), e);
         }
     }
 }
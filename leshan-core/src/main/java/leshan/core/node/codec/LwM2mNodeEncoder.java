@@ -29,8 +29,9 @@
  */
 package leshan.core.node.codec;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Map.Entry;
@@ -43,6 +44,7 @@ import leshan.core.node.LwM2mPath;
 import leshan.core.node.LwM2mResource;
 import leshan.core.node.Value;
 import leshan.core.node.Value.DataType;
+import leshan.core.objectspec.ObjectSpecTable;
 import leshan.core.objectspec.ResourceSpec;
 import leshan.core.objectspec.Resources;
 import leshan.core.objectspec.ResourceSpec.Type;
@@ -73,15 +75,19 @@ public class LwM2mNodeEncoder {
         Validate.notNull(node);
         Validate.notNull(format);
 
-        LOG.debug("Encoding node {} for path {} and format {}", node, path, format);
+        LOG.debug("Encoding node {} for path {} and format {}", node, path, format);
 
         byte[] encoded = null;
         switch (format) {
         case TLV:
-            NodeTlvEncoder tlvEncoder = new NodeTlvEncoder();
-            tlvEncoder.objectId = path.getObjectId();
-            node.accept(tlvEncoder);
-            encoded = tlvEncoder.out.toByteArray();
+            // compute the size first, to encode directly into an array of the right size
+            // both passes must see the same objects definitions
+            ObjectSpecTable specs = Resources.getObjectSpecTable();
+            NodeTlvEncoder tlvSizer = new NodeTlvEncoder(path.getObjectId(), specs, null);
+            node.accept(tlvSizer);
+
+            encoded = new byte[tlvSizer.size];
+            node.accept(new NodeTlvEncoder(path.getObjectId(), specs, ByteBuffer.wrap(encoded)));
             break;
         case TEXT:
             NodeTextEncoder textEncoder = new NodeTextEncoder();
@@ -95,15 +101,77 @@ public class LwM2mNodeEncoder {
             throw new IllegalArgumentException("Cannot encode " + node + " with format " + format);
         }
 
-        LOG.trace("Encoded node {}: {}", node, Arrays.toString(encoded));
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Encoded node {}: {}", node, Arrays.toString(encoded));
+        }
         return encoded;
     }
 
+    /**
+     * Serializes a {@link LwM2mNode} with the given content format into a caller-supplied buffer (heap or direct),
+     * starting at its current position.
+     * <p>
+     * The position of the buffer is moved after the encoded node.
+     * </p>
+     *
+     * @param node the object/instance/resource to serialize
+     * @param format the content format
+     * @param path the path of the node to serialize
+     * @param buffer the buffer to write into
+     * @throws BufferOverflowException if the remaining space of the buffer is too small
+     */
+    public static void encode(LwM2mNode node, ContentFormat format, LwM2mPath path, ByteBuffer buffer) {
+        Validate.notNull(node);
+        Validate.notNull(format);
+        Validate.notNull(buffer);
+
+        LOG.debug("Encoding node {} for path {} and format {}", node, path, format);
+
+        switch (format) {
+        case TLV:
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            try {
+                node.accept(new NodeTlvEncoder(path.getObjectId(), Resources.getObjectSpecTable(), buffer));
+            } finally {
+                buffer.order(order);
+            }
+            break;
+        case TEXT:
+            NodeTextEncoder textEncoder = new NodeTextEncoder();
+            textEncoder.objectId = path.getObjectId();
+            node.accept(textEncoder);
+            buffer.put(textEncoder.encoded);
+            break;
+        case JSON:
+            throw new IllegalArgumentException("JSON content format not supported");
+        default:
+            throw new IllegalArgumentException("Cannot encode " + node + " with format " + format);
+        }
+    }
+
+    /**
+     * Encodes the resources directly into a buffer, without intermediate {@link Tlv} objects. The length of each
+     * resource TLV is computed from its values before writing it.
+     * <p>
+     * With a <code>null</code> buffer, only the encoded size is computed.
+     * </p>
+     */
     private static class NodeTlvEncoder implements LwM2mNodeVisitor {
 
-        int objectId;
+        final int objectId;
+
+        final ObjectSpecTable specs;
+
+        final ByteBuffer out;
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int size = 0;
+
+        NodeTlvEncoder(int objectId, ObjectSpecTable specs, ByteBuffer out) {
+            this.objectId = objectId;
+            this.specs = specs;
+            this.out = out;
+        }
 
         @Override
         public void visit(LwM2mObject object) {
@@ -125,47 +193,81 @@ public class LwM2mNodeEncoder {
         public void visit(LwM2mResource resource) {
             LOG.trace("Encoding resource {} into TLV", resource);
 
-            ResourceSpec rSpec = Resources.getResourceSpec(objectId, resource.getId());
+            ResourceSpec rSpec = specs.getResourceSpec(objectId, resource.getId());
             Type expectedType = rSpec != null ? rSpec.type : null;
 
-            Tlv rTlv = null;
             if (resource.isMultiInstances()) {
-                Tlv[] instances = new Tlv[resource.getValues().length];
-                for (int i = 0; i < resource.getValues().length; i++) {
-                    instances[i] = new Tlv(TlvType.RESOURCE_INSTANCE, null, this.encodeTlvValue(convertValue(
-                            resource.getValues()[i], expectedType)), i);
+                Value<?>[] values = new Value<?>[resource.getValues().length];
+                int length = 0;
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = convertValue(resource.getValues()[i], expectedType);
+                    length += TlvEncoder.encodedSize(i, tlvValueLength(values[i]));
+                }
+                size += TlvEncoder.encodedSize(resource.getId(), length);
+
+                if (out != null) {
+                    TlvEncoder.encodeHeader(TlvType.MULTIPLE_RESOURCE, resource.getId(), length, out);
+                    for (int i = 0; i < values.length; i++) {
+                        TlvEncoder.encodeHeader(TlvType.RESOURCE_INSTANCE, i, tlvValueLength(values[i]), out);
+                        encodeTlvValue(values[i]);
+                    }
                 }
-                rTlv = new Tlv(TlvType.MULTIPLE_RESOURCE, instances, null, resource.getId());
             } else {
-                rTlv = new Tlv(TlvType.RESOURCE_VALUE, null, this.encodeTlvValue(convertValue(resource.getValue(),
-                        expectedType)), resource.getId());
+                Value<?> value = convertValue(resource.getValue(), expectedType);
+                int length = tlvValueLength(value);
+                size += TlvEncoder.encodedSize(resource.getId(), length);
+
+                if (out != null) {
+                    TlvEncoder.encodeHeader(TlvType.RESOURCE_VALUE, resource.getId(), length, out);
+                    encodeTlvValue(value);
+                }
             }
+        }
 
-            try {
-                out.write(TlvEncoder.encode(new Tlv[] { rTlv }).array());
-            } catch (IOException e) {
-                // should not occur
-                throw new RuntimeException(e);
+        private int tlvValueLength(Value<?> value) {
+            switch (value.type) {
+            case STRING:
+                return TlvEncoder.stringLength((String) value.value);
+            case INTEGER:
+            case LONG:
+                return TlvEncoder.integerLength(value.getLong());
+            case FLOAT:
+            case DOUBLE:
+                return TlvEncoder.floatLength(value.getDouble());
+            case BOOLEAN:
+                return 1;
+            case TIME:
+                return 4;
+            case OPAQUE:
+                return ((byte[]) value.value).length;
+            default:
+                throw new IllegalArgumentException("Invalid value type: " + value.type);
             }
         }
 
-        private byte[] encodeTlvValue(Value<?> value) {
+        private void encodeTlvValue(Value<?> value) {
             LOG.trace("Encoding value {} in TLV", value);
             switch (value.type) {
             case STRING:
-                return TlvEncoder.encodeString((String) value.value);
+                TlvEncoder.encodeString((String) value.value, out);
+                break;
             case INTEGER:
             case LONG:
-                return TlvEncoder.encodeInteger((Number) value.value);
+                TlvEncoder.encodeInteger(value.getLong(), out);
+                break;
             case FLOAT:
             case DOUBLE:
-                return TlvEncoder.encodeFloat((Number) value.value);
+                TlvEncoder.encodeFloat(value.getDouble(), out);
+                break;
             case BOOLEAN:
-                return TlvEncoder.encodeBoolean((Boolean) value.value);
+                TlvEncoder.encodeBoolean(value.getBoolean(), out);
+                break;
             case TIME:
-                return TlvEncoder.encodeDate((Date) value.value);
+                TlvEncoder.encodeDate((Date) value.value, out);
+                break;
             case OPAQUE:
-                return (byte[]) value.value;
+                out.put((byte[]) value.value);
+                break;
             default:
                 throw new IllegalArgumentException("Invalid value type: " + value.type);
             }
@@ -209,7 +311,7 @@ public class LwM2mNodeEncoder {
                 strValue = String.valueOf(val.value);
                 break;
             case BOOLEAN:
-                strValue = ((Boolean) val.value) ? "1" : "0";
+                strValue = val.getBoolean() ? "1" : "0";
                 break;
             case TIME:
                 // number of seconds since 1970/1/1
@@ -102,16 +102,44 @@ public class Ddf2JsonGenerator {
         generate(objectSpecs, output);
     }
 
+    /**
+     * Generates the binary cache of the objects definitions for the given models folder, so that a server using this
+     * folder does not need to parse the definitions at startup.
+     *
+     * @param modelsFolder the folder containing the custom model files (DDF or json)
+     * @param cacheFile the cache file to generate
+     */
+    public void generateCache(File modelsFolder, File cacheFile) throws IOException {
+        // check input exists
+        if (!modelsFolder.isDirectory())
+            throw new FileNotFoundException(modelsFolder.toString());
+
+        byte[] sourcesHash = ObjectSpecCache.hashSources(modelsFolder);
+        ObjectSpecCache.write(Resources.parseObjectSpecs(modelsFolder), sourcesHash, cacheFile);
+    }
+
     public static void main(String[] args) throws FileNotFoundException, IOException {
+        // generate the binary cache: -cache [models folder] [cache file]
+        if (args.length >= 1 && "-cache".equals(args[0])) {
+            File modelsFolder = new File(args.length >= 2 ? args[1] : "models");
+            File cacheFile = args.length >= 3 ? new File(args[2]) : Resources.getCacheFile();
+            if (cacheFile == null) {
+                System.err.println("Usage: -cache [models folder] [cache file], or set OBJECTSPEC_CACHE");
+                return;
+            }
+            new Ddf2JsonGenerator().generateCache(modelsFolder, cacheFile);
+            return;
+        }
+
         // default value
         String DDFFilesPath = "ddffiles";
         String outputPath = "src/main/resources/objectspec.json";
 
         // use arguments if they exit
         if (args.length >= 1)
-            DDFFilesPath = args[1]; // the path to a DDF file or a folder which contains DDF files.
+            DDFFilesPath = args[0]; // the path to a DDF file or a folder which contains DDF files.
         if (args.length >= 2)
-            outputPath = args[2]; // the path of the output file.
+            outputPath = args[1]; // the path of the output file.
 
         // generate object spec file
         Ddf2JsonGenerator ddfJsonGenerator = new Ddf2JsonGenerator();
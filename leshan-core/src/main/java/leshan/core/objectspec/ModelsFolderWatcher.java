@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.core.objectspec;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a models folder and reloads the custom objects definitions when a model file (DDF or json) is created,
+ * modified or deleted.
+ * <p>
+ * Only the changed files are parsed again. At start, the watcher reuses the definitions already loaded by
+ * {@link Resources#load()} from the same folder and only parses the files modified since. The model files are merged
+ * in the order of their names, as by {@link Resources#load()}. The resulting definitions are published with
+ * {@link Resources#setObjectSpecs(java.util.Collection)}, as a new immutable snapshot: the decoding in progress keeps
+ * using the previous definitions.
+ * </p>
+ */
+public class ModelsFolderWatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ModelsFolderWatcher.class);
+
+    // time to wait for more events before reloading, a file is often written in several steps
+    private static final long SETTLE_DELAY_MS = 200;
+
+    // coarsest modification time resolution of the usual file systems
+    private static final long MODIFICATION_TIME_RESOLUTION_MS = 2000;
+
+    private final File folder;
+
+    private List<ObjectSpec> defaultObjectSpecs;
+
+    // definitions by model file name, in merge order, only accessed by the watcher thread once started
+    private final Map<String, List<ObjectSpec>> models = new TreeMap<>();
+
+    private WatchService watchService;
+
+    private Thread thread;
+
+    // reload metrics, written by the watcher thread only
+    private volatile long reloadCount;
+    private volatile long lastReloadTime;
+    private volatile long lastReloadDurationNanos;
+    private volatile long maxReloadDurationNanos;
+
+    /**
+     * Creates a watcher for the folder given by the MODELS_FOLDER environment variable (or "./models").
+     *
+     * @return the watcher or <code>null</code> if the folder is not usable
+     */
+    public static ModelsFolderWatcher forModelsFolder() {
+        File folder = Resources.getModelsFolder();
+        return folder == null ? null : new ModelsFolderWatcher(folder);
+    }
+
+    public ModelsFolderWatcher(File folder) {
+        Validate.notNull(folder);
+        this.folder = folder;
+    }
+
+    /**
+     * Loads the model files of the folder and starts watching it.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        watchService = folder.toPath().getFileSystem().newWatchService();
+        folder.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+        // initial load, reuse the definitions already loaded from this folder
+        long start = System.nanoTime();
+        Resources.LoadedSources loaded = Resources.getLoadedSources();
+        if (loaded != null && isFolder(loaded.modelsFolder)) {
+            reloadModified(loaded);
+        } else {
+            defaultObjectSpecs = Resources.loadDefaultObjectSpecs();
+            reloadAll();
+        }
+        publish(start);
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "ModelsFolderWatcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        LOG.info("Watching models folder {}", folder);
+    }
+
+    /**
+     * Stops watching the folder. The current definitions are kept.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close the models folder watch service", e);
+        }
+        thread.interrupt();
+        thread = null;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+
+                // wait for the changes to settle and collect all the changed files
+                Thread.sleep(SETTLE_DELAY_MS);
+                Set<String> changed = new HashSet<>();
+                boolean overflow = false;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            changed.add(((Path) event.context()).getFileName().toString());
+                        }
+                    }
+                    if (!key.reset()) {
+                        LOG.warn("Models folder {} is not accessible anymore, stop watching it", folder);
+                        return;
+                    }
+                    key = watchService.poll();
+                }
+
+                long start = System.nanoTime();
+                if (overflow) {
+                    reloadAll();
+                } else {
+                    for (String fileName : changed) {
+                        reload(fileName);
+                    }
+                }
+                publish(start);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected error while watching models folder " + folder, e);
+        }
+    }
+
+    private void reloadAll() {
+        models.clear();
+        for (File file : Resources.listModelFiles(folder)) {
+            reload(file.getName());
+        }
+    }
+
+    private void reloadModified(Resources.LoadedSources loaded) {
+        models.clear();
+        for (Map.Entry<String, List<ObjectSpec>> source : loaded.objectSpecsBySource.entrySet()) {
+            if (Resources.EMBEDDED_SOURCE.equals(source.getKey())) {
+                defaultObjectSpecs = source.getValue();
+            } else {
+                models.put(source.getKey(), source.getValue());
+            }
+        }
+        if (defaultObjectSpecs == null) {
+            defaultObjectSpecs = Resources.loadDefaultObjectSpecs();
+        }
+
+        // parse only the files created, modified or deleted since the definitions were loaded
+        Set<String> fileNames = new HashSet<>();
+        for (File file : Resources.listModelFiles(folder)) {
+            fileNames.add(file.getName());
+            if (!models.containsKey(file.getName())
+                    || file.lastModified() >= loaded.loadTime - MODIFICATION_TIME_RESOLUTION_MS) {
+                reload(file.getName());
+            }
+        }
+        models.keySet().retainAll(fileNames);
+    }
+
+    private boolean isFolder(File modelsFolder) {
+        if (modelsFolder == null) {
+            return false;
+        }
+        try {
+            return folder.getCanonicalFile().equals(modelsFolder.getCanonicalFile());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void reload(String fileName) {
+        File file = new File(folder, fileName);
+        if (!file.exists()) {
+            LOG.debug("Model file {} removed", fileName);
+            models.remove(fileName);
+            return;
+        }
+
+        List<ObjectSpec> objectSpecs = Resources.loadModel(file);
+        if (!objectSpecs.isEmpty()) {
+            LOG.debug("Model file {} loaded", fileName);
+            models.put(fileName, objectSpecs);
+        } else if (models.containsKey(fileName)) {
+            // probably still being written, keep the previous definitions until the next change
+            LOG.warn("Unable to reload model file {}, keeping its previous definitions", fileName);
+        }
+    }
+
+    private void publish(long start) {
+        List<ObjectSpec> objectSpecs = new ArrayList<>(defaultObjectSpecs);
+        for (List<ObjectSpec> model : models.values()) {
+            objectSpecs.addAll(model);
+        }
+        Resources.setObjectSpecs(objectSpecs);
+
+        long duration = System.nanoTime() - start;
+        lastReloadDurationNanos = duration;
+        maxReloadDurationNanos = Math.max(maxReloadDurationNanos, duration);
+        lastReloadTime = System.currentTimeMillis();
+        reloadCount++;
+
+        LOG.info("Objects definitions reloaded from {} in {} ms ({} model files)", folder,
+                TimeUnit.NANOSECONDS.toMillis(duration), models.size());
+    }
+
+    /**
+     * @return the number of times the definitions were published (including the initial load)
+     */
+    public long getReloadCount() {
+        return reloadCount;
+    }
+
+    /**
+     * @return the time of the last reload in milliseconds since 1970/1/1, or 0 if never loaded
+     */
+    public long getLastReloadTime() {
+        return lastReloadTime;
+    }
+
+    /**
+     * @return the duration of the last reload in the given unit
+     */
+    public long getLastReloadDuration(TimeUnit unit) {
+        return unit.convert(lastReloadDurationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the duration of the longest reload in the given unit
+     */
+    public long getMaxReloadDuration(TimeUnit unit) {
+        return unit.convert(maxReloadDurationNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.core.objectspec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import leshan.core.objectspec.ResourceSpec.Operations;
+import leshan.core.objectspec.ResourceSpec.Type;
+import leshan.util.Charsets;
+import leshan.util.Validate;
+
+/**
+ * A compact binary form of the objects definitions, used to avoid parsing the json and DDF sources at each startup.
+ * <p>
+ * The cache starts with a hash of the sources it was generated from: it is only used if the sources did not change
+ * since. The strings are stored once in a table and referenced by index. Each object keeps the name of the source it
+ * was loaded from, so the definitions of a single model file can be replaced without parsing the other ones.
+ * </p>
+ *
+ * <pre>
+ * magic (4) | version (4) | hash length (1) | hash
+ * string count (4) | strings: length (4), UTF-8 bytes
+ * object count (4) | objects: source (4), id (4), flags (1), name (4), description (4), resource count (4)
+ *                    resources: id (4), operations (1), type (1), flags (1), name (4), range (4), units (4),
+ *                               description (4)
+ * </pre>
+ *
+ * String references are indexes in the string table, -1 for <code>null</code>.
+ */
+public class ObjectSpecCache {
+
+    private static final int MAGIC = 0x4c574f53; // "LWOS"
+    private static final int VERSION = 2;
+
+    private static final int FLAG_MULTIPLE = 1;
+    private static final int FLAG_MANDATORY = 2;
+
+    private static final Operations[] OPERATIONS = Operations.values();
+    private static final Type[] TYPES = Type.values();
+
+    private ObjectSpecCache() {
+    }
+
+    /**
+     * Computes the hash of the objects definitions sources: the OMA objects definitions embedded in the library and
+     * the model files (.xml or .json) of the given folder.
+     *
+     * @param modelsFolder the folder containing the custom model files, may be <code>null</code>
+     * @return a SHA-1 hash of the name and content of the sources
+     */
+    public static byte[] hashSources(File modelsFolder) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Resources.class.getResourceAsStream(Resources.EMBEDDED_SOURCE)) {
+            if (in != null) {
+                update(digest, in, buffer);
+            }
+        }
+
+        if (modelsFolder != null) {
+            for (File file : Resources.listModelFiles(modelsFolder)) {
+                String name = file.getName();
+                if (!file.isFile() || !file.canRead() || !(name.endsWith(".xml") || name.endsWith(".json"))) {
+                    continue;
+                }
+                digest.update(name.getBytes(Charsets.UTF_8));
+                digest.update((byte) 0);
+                try (InputStream in = new FileInputStream(file)) {
+                    update(digest, in, buffer);
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, InputStream in, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        // separate the sources
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Writes the objects definitions in the cache file. The file is replaced atomically when the file system allows
+     * it.
+     *
+     * @param objectSpecsBySource the objects definitions by source (see {@link Resources#EMBEDDED_SOURCE})
+     * @param sourcesHash the hash of the sources of the definitions
+     * @param cacheFile the cache file
+     */
+    public static void write(Map<String, ? extends Collection<ObjectSpec>> objectSpecsBySource, byte[] sourcesHash,
+            File cacheFile) throws IOException {
+        Validate.notNull(objectSpecsBySource);
+        Validate.notNull(sourcesHash);
+        Validate.isTrue(sourcesHash.length <= 255, "hash too long");
+
+        // build the strings table
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int objectCount = 0;
+        for (Map.Entry<String, ? extends Collection<ObjectSpec>> source : objectSpecsBySource.entrySet()) {
+            addString(source.getKey(), stringIndexes, strings);
+            objectCount += source.getValue().size();
+        }
+        for (ObjectSpec objectSpec : values(objectSpecsBySource)) {
+            addString(objectSpec.name, stringIndexes, strings);
+            addString(objectSpec.description, stringIndexes, strings);
+            for (ResourceSpec resourceSpec : objectSpec.resources.values()) {
+                addString(resourceSpec.name, stringIndexes, strings);
+                addString(resourceSpec.rangeEnumeration, stringIndexes, strings);
+                addString(resourceSpec.units, stringIndexes, strings);
+                addString(resourceSpec.description, stringIndexes, strings);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(sourcesHash.length);
+            out.write(sourcesHash);
+
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] utf8 = string.getBytes(Charsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+
+            out.writeInt(objectCount);
+            for (Map.Entry<String, ? extends Collection<ObjectSpec>> source : objectSpecsBySource.entrySet()) {
+                for (ObjectSpec objectSpec : source.getValue()) {
+                    out.writeInt(indexOf(source.getKey(), stringIndexes));
+                    write(objectSpec, stringIndexes, out);
+                }
+            }
+        }
+
+        // write a temporary file first, so a concurrent reader never sees a partial cache
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(cacheFile.getName(), ".tmp", parent);
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                bytes.writeTo(out);
+            }
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static void write(ObjectSpec objectSpec, Map<String, Integer> stringIndexes, DataOutputStream out)
+            throws IOException {
+        out.writeInt(objectSpec.id);
+        out.writeByte(flags(objectSpec.multiple, objectSpec.mandatory));
+        out.writeInt(indexOf(objectSpec.name, stringIndexes));
+        out.writeInt(indexOf(objectSpec.description, stringIndexes));
+        out.writeInt(objectSpec.resources.size());
+        for (ResourceSpec resourceSpec : objectSpec.resources.values()) {
+            out.writeInt(resourceSpec.id);
+            out.writeByte(resourceSpec.operations == null ? -1 : resourceSpec.operations.ordinal());
+            out.writeByte(resourceSpec.type == null ? -1 : resourceSpec.type.ordinal());
+            out.writeByte(flags(resourceSpec.multiple, resourceSpec.mandatory));
+            out.writeInt(indexOf(resourceSpec.name, stringIndexes));
+            out.writeInt(indexOf(resourceSpec.rangeEnumeration, stringIndexes));
+            out.writeInt(indexOf(resourceSpec.units, stringIndexes));
+            out.writeInt(indexOf(resourceSpec.description, stringIndexes));
+        }
+    }
+
+    private static List<ObjectSpec> values(Map<String, ? extends Collection<ObjectSpec>> objectSpecsBySource) {
+        List<ObjectSpec> objectSpecs = new ArrayList<>();
+        for (Collection<ObjectSpec> source : objectSpecsBySource.values()) {
+            objectSpecs.addAll(source);
+        }
+        return objectSpecs;
+    }
+
+    private static void addString(String string, Map<String, Integer> stringIndexes, List<String> strings) {
+        if (string != null && !stringIndexes.containsKey(string)) {
+            stringIndexes.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    private static int indexOf(String string, Map<String, Integer> stringIndexes) {
+        return string == null ? -1 : stringIndexes.get(string);
+    }
+
+    private static int flags(boolean multiple, boolean mandatory) {
+        return (multiple ? FLAG_MULTIPLE : 0) | (mandatory ? FLAG_MANDATORY : 0);
+    }
+
+    /**
+     * Reads the objects definitions from a memory-mapped cache file.
+     *
+     * @param cacheFile the cache file
+     * @param sourcesHash the hash of the current sources of the definitions
+     * @return the definitions by source, or <code>null</code> if there is no cache file or if it was generated from
+     *         other sources
+     * @throws IOException if the cache file cannot be read or is corrupted
+     */
+    public static Map<String, List<ObjectSpec>> read(File cacheFile, byte[] sourcesHash) throws IOException {
+        Validate.notNull(sourcesHash);
+
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath())) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.remaining() < 9 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] hash = new byte[buffer.get() & 0xFF];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, sourcesHash)) {
+                return null;
+            }
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] utf8 = new byte[buffer.getInt()];
+                buffer.get(utf8);
+                strings[i] = new String(utf8, Charsets.UTF_8);
+            }
+
+            int objectCount = buffer.getInt();
+            Map<String, List<ObjectSpec>> objectSpecsBySource = new LinkedHashMap<>();
+            for (int i = 0; i < objectCount; i++) {
+                String source = string(buffer, strings);
+                int id = buffer.getInt();
+                int flags = buffer.get();
+                String name = string(buffer, strings);
+                String description = string(buffer, strings);
+
+                int resourceCount = buffer.getInt();
+                Map<Integer, ResourceSpec> resources = new LinkedHashMap<>();
+                for (int j = 0; j < resourceCount; j++) {
+                    int resourceId = buffer.getInt();
+                    byte operations = buffer.get();
+                    byte type = buffer.get();
+                    int resourceFlags = buffer.get();
+                    String resourceName = string(buffer, strings);
+                    String rangeEnumeration = string(buffer, strings);
+                    String units = string(buffer, strings);
+                    String resourceDescription = string(buffer, strings);
+                    resources.put(resourceId, new ResourceSpec(resourceId, resourceName,
+                            operations < 0 ? null : OPERATIONS[operations], (resourceFlags & FLAG_MULTIPLE) != 0,
+                            (resourceFlags & FLAG_MANDATORY) != 0, type < 0 ? null : TYPES[type], rangeEnumeration,
+                            units, resourceDescription));
+                }
+
+                List<ObjectSpec> objectSpecs = objectSpecsBySource.get(source);
+                if (objectSpecs == null) {
+                    objectSpecs = new ArrayList<>();
+                    objectSpecsBySource.put(source, objectSpecs);
+                }
+                objectSpecs.add(new ObjectSpec(id, name, description, (flags & FLAG_MULTIPLE) != 0,
+                        (flags & FLAG_MANDATORY) != 0, resources));
+            }
+            return objectSpecsBySource;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Corrupted object spec cache " + cacheFile, e);
+        }
+    }
+
+    private static String string(ByteBuffer buffer, String[] strings) {
+        int index = buffer.getInt();
+        return index < 0 ? null : strings[index];
+    }
+}
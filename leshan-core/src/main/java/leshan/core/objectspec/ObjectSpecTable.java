@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.core.objectspec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable lookup table of object and resource specifications.
+ * <p>
+ * Specifications are stored in flat open-addressing tables keyed by primitive ids, so that a lookup does not box the
+ * ids nor go through nested maps. As all the fields are final, an instance can be safely shared between threads once
+ * constructed.
+ * </p>
+ */
+public final class ObjectSpecTable {
+
+    /** A table without any object specification */
+    public static final ObjectSpecTable EMPTY = new ObjectSpecTable(Collections.<ObjectSpec> emptyList());
+
+    private final List<ObjectSpec> objectSpecs;
+
+    private final long[] objectKeys;
+    private final ObjectSpec[] objects;
+
+    private final long[] resourceKeys;
+    private final ResourceSpec[] resources;
+
+    /**
+     * Builds a table from the given object specifications. For objects defined several times, the last definition
+     * wins.
+     */
+    public ObjectSpecTable(Collection<ObjectSpec> objectSpecs) {
+        Map<Integer, ObjectSpec> objectsById = new LinkedHashMap<>();
+        int resourceCount = 0;
+        for (ObjectSpec objectSpec : objectSpecs) {
+            ObjectSpec previous = objectsById.put(objectSpec.id, objectSpec);
+            if (previous != null) {
+                resourceCount -= previous.resources.size();
+            }
+            resourceCount += objectSpec.resources.size();
+        }
+
+        objectKeys = new long[capacity(objectsById.size())];
+        objects = new ObjectSpec[objectKeys.length];
+        resourceKeys = new long[capacity(resourceCount)];
+        resources = new ResourceSpec[resourceKeys.length];
+
+        for (ObjectSpec objectSpec : objectsById.values()) {
+            put(objectKeys, objects, objectSpec.id, objectSpec);
+            for (ResourceSpec resourceSpec : objectSpec.resources.values()) {
+                put(resourceKeys, resources, key(objectSpec.id, resourceSpec.id), resourceSpec);
+            }
+        }
+
+        this.objectSpecs = Collections.unmodifiableList(new ArrayList<>(objectsById.values()));
+    }
+
+    /**
+     * Returns the description of a given object.
+     *
+     * @param objectId the object identifier
+     * @return the object specification or <code>null</code> if not found
+     */
+    public ObjectSpec getObjectSpec(int objectId) {
+        return get(objectKeys, objects, objectId);
+    }
+
+    /**
+     * Returns the description of a given resource.
+     *
+     * @param objectId the object identifier
+     * @param resourceId the resource identifier
+     * @return the resource specification or <code>null</code> if not found
+     */
+    public ResourceSpec getResourceSpec(int objectId, int resourceId) {
+        return get(resourceKeys, resources, key(objectId, resourceId));
+    }
+
+    /**
+     * @return all the object specifications of this table.
+     */
+    public Collection<ObjectSpec> getObjectSpecs() {
+        return objectSpecs;
+    }
+
+    private static long key(int objectId, int resourceId) {
+        return ((long) objectId << 32) | (resourceId & 0xFFFF_FFFFL);
+    }
+
+    // a power of two, at least twice the number of entries
+    private static int capacity(int size) {
+        return Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+    }
+
+    private static int slot(long key, int capacity) {
+        long h = key * 0x9E37_79B9_7F4A_7C15L;
+        return (int) (h ^ (h >>> 32)) & (capacity - 1);
+    }
+
+    private static <T> T get(long[] keys, T[] values, long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, keys.length);; i = (i + 1) & mask) {
+            T value = values[i];
+            if (value == null) {
+                return null;
+            }
+            if (keys[i] == key) {
+                return value;
+            }
+        }
+    }
+
+    // only used while building the table
+    private static <T> void put(long[] keys, T[] values, long key, T value) {
+        int mask = keys.length - 1;
+        int i = slot(key, keys.length);
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+}
@@ -36,9 +36,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import leshan.core.objectspec.json.ObjectSpecDeserializer;
@@ -49,94 +52,299 @@ import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 
 /**
  * The resource descriptions for registered LWM2M objects (only OMA objects for now).
+ * <p>
+ * The descriptions are held in an immutable {@link ObjectSpecTable} which can be atomically replaced: lookups never
+ * block and always see a complete set of descriptions.
+ * </p>
  */
 public class Resources {
 
     private static final Logger LOG = LoggerFactory.getLogger(Resources.class);
 
-    private static final Map<Integer, ObjectSpec> OBJECTS = new HashMap<>(); // objects by ID
+    /**
+     * The source name of the OMA objects definitions embedded in the library, it can not be the name of a model file.
+     */
+    public static final String EMBEDDED_SOURCE = "/objectspec.json";
+
+    private static final Object LOCK = new Object();
+
+    // objects by ID
+    private static volatile ObjectSpecTable OBJECTS = ObjectSpecTable.EMPTY;
+
+    // the sources of the current objects, if they were loaded from a models folder
+    private static LoadedSources LOADED_SOURCES;
+
+    private static volatile File CACHE_FILE;
 
     /**
      * Initializes the list of LWM2M object definitions.
      */
     public static void load() {
 
-        synchronized (OBJECTS) {
-            if (OBJECTS.isEmpty()) {
+        synchronized (LOCK) {
+            if (OBJECTS.getObjectSpecs().isEmpty()) {
+                load(getModelsFolder());
+            }
+        }
+    }
 
-                // load OMA objects definitions from json files
-                InputStream input = Resources.class.getResourceAsStream("/objectspec.json");
-                if (input == null) {
-                    return;
-                }
+    /**
+     * Loads the OMA objects definitions and the model files of the given folder, and replaces all the LWM2M object
+     * definitions with them.
+     */
+    static void load(File modelsFolder) {
+        long loadTime = System.currentTimeMillis();
+        Map<String, List<ObjectSpec>> objectSpecsBySource = loadObjectSpecs(modelsFolder);
+        ObjectSpecTable table = new ObjectSpecTable(merge(objectSpecsBySource));
+        synchronized (LOCK) {
+            OBJECTS = table;
+            LOADED_SOURCES = new LoadedSources(modelsFolder, loadTime, objectSpecsBySource);
+        }
+    }
 
-                GsonBuilder gsonBuilder = new GsonBuilder();
-                gsonBuilder.registerTypeAdapter(ObjectSpec.class, new ObjectSpecDeserializer());
-                gsonBuilder.registerTypeAdapter(ResourceSpec.class, new ResourceSpecDeserializer());
-                Gson gson = gsonBuilder.create();
-
-                try (Reader reader = new InputStreamReader(input)) {
-                    ObjectSpec[] objectSpecs = gson.fromJson(reader, ObjectSpec[].class);
-                    for (ObjectSpec objectSpec : objectSpecs) {
-                        OBJECTS.put(objectSpec.id, objectSpec);
-                    }
-                } catch (IOException e) {
-                    LOG.error("Unable to load object specification", e);
-                }
+    /**
+     * Replaces atomically all the LWM2M object definitions.
+     * <p>
+     * The lookups in progress keep using the previous definitions, the following ones use the new definitions.
+     * </p>
+     *
+     * @param objectSpecs the new object definitions
+     */
+    public static void setObjectSpecs(Collection<ObjectSpec> objectSpecs) {
+        ObjectSpecTable table = new ObjectSpecTable(objectSpecs);
+        synchronized (LOCK) {
+            OBJECTS = table;
+            LOADED_SOURCES = null;
+        }
+    }
+
+    /**
+     * Returns the current LWM2M object definitions. The returned table is immutable: use it to perform several lookups
+     * against a consistent set of definitions.
+     */
+    public static ObjectSpecTable getObjectSpecTable() {
+        return OBJECTS;
+    }
+
+    /**
+     * Returns the sources of the current LWM2M object definitions, or <code>null</code> if they were not loaded from a
+     * models folder (or replaced since).
+     */
+    static LoadedSources getLoadedSources() {
+        synchronized (LOCK) {
+            return LOADED_SOURCES;
+        }
+    }
 
-                // load custom resources
-                // get folder path
-                String modelsFolderEnvVar = System.getenv("MODELS_FOLDER");
-                String modelsFolderPath = modelsFolderEnvVar != null ? modelsFolderEnvVar : "./models";
-
-                // check if the folder is usable
-                File modelsFolder = new File(modelsFolderPath);
-                if (!modelsFolder.isDirectory() || !modelsFolder.canRead()) {
-                    // log only if env var is configured
-                    if (modelsFolderEnvVar != null)
-                        LOG.error(MessageFormat.format(
-                                "Models folder {0} is not a directory or you have not the right to list its content.",
-                                modelsFolderPath));
-                    return;
+    private static Map<String, List<ObjectSpec>> loadObjectSpecs(File modelsFolder) {
+        // use the binary cache if the sources did not change since it was generated
+        File cacheFile = getCacheFile();
+        byte[] sourcesHash = null;
+        if (cacheFile != null) {
+            try {
+                sourcesHash = ObjectSpecCache.hashSources(modelsFolder);
+                Map<String, List<ObjectSpec>> objectSpecs = ObjectSpecCache.read(cacheFile, sourcesHash);
+                if (objectSpecs != null) {
+                    LOG.debug("Objects definitions loaded from cache {}", cacheFile);
+                    return objectSpecs;
                 }
+            } catch (IOException e) {
+                LOG.warn(MessageFormat.format("Unable to read object specification cache {0}", cacheFile), e);
+            }
+        }
+
+        Map<String, List<ObjectSpec>> objectSpecs = parseObjectSpecs(modelsFolder);
 
-                // get all files
-                for (File file : modelsFolder.listFiles()) {
-                    if (!file.canRead())
-                        continue;
-
-                    if (file.getName().endsWith(".xml")) {
-                        // load DDF file
-                        DDFFileParser ddfFileParser = new DDFFileParser();
-                        ObjectSpec objectSpec = ddfFileParser.parse(file);
-                        if (objectSpec != null) {
-                            if (OBJECTS.containsKey(objectSpec.id))
-                                LOG.warn(MessageFormat.format("There are multiple definitions for the object {0}",
-                                        objectSpec.id));
-                            OBJECTS.put(objectSpec.id, objectSpec);
-                        }
-                    } else if (file.getName().endsWith(".json")) {
-                        // load object spec json file
-                        try (Reader reader = new InputStreamReader(new FileInputStream(file))) {
-                            ObjectSpec[] objectSpecs = gson.fromJson(reader, ObjectSpec[].class);
-                            for (ObjectSpec objectSpec : objectSpecs) {
-                                if (OBJECTS.containsKey(objectSpec.id))
-                                    LOG.warn(MessageFormat.format("There are multiple definitions for the object {0}",
-                                            objectSpec.id));
-                                OBJECTS.put(objectSpec.id, objectSpec);
-                            }
-                        } catch (IOException e) {
-                            LOG.warn(
-                                    MessageFormat.format("Unable to load object specification for {0}",
-                                            file.getAbsolutePath()), e);
-                        }
-                    }
+        if (sourcesHash != null) {
+            try {
+                ObjectSpecCache.write(objectSpecs, sourcesHash, cacheFile);
+            } catch (IOException e) {
+                LOG.warn(MessageFormat.format("Unable to write object specification cache {0}", cacheFile), e);
+            }
+        }
+        return objectSpecs;
+    }
+
+    /**
+     * Parses the OMA objects definitions and the model files of the given folder.
+     *
+     * @return the definitions by source: {@link #EMBEDDED_SOURCE} first, then the model files by name
+     */
+    static Map<String, List<ObjectSpec>> parseObjectSpecs(File modelsFolder) {
+        Map<String, List<ObjectSpec>> objectSpecsBySource = new LinkedHashMap<>();
+
+        // load OMA objects definitions from json files
+        objectSpecsBySource.put(EMBEDDED_SOURCE, loadDefaultObjectSpecs());
+
+        // load custom resources
+        if (modelsFolder == null) {
+            return objectSpecsBySource;
+        }
+
+        // get all files
+        for (File file : listModelFiles(modelsFolder)) {
+            List<ObjectSpec> objectSpecs = loadModel(file);
+            if (!objectSpecs.isEmpty()) {
+                objectSpecsBySource.put(file.getName(), objectSpecs);
+            }
+        }
+        return objectSpecsBySource;
+    }
+
+    /**
+     * Lists the files of the models folder sorted by name, the order in which their definitions are merged.
+     */
+    static File[] listModelFiles(File modelsFolder) {
+        File[] files = modelsFolder.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Merges the definitions of several sources, the last definition of an object wins.
+     */
+    static Collection<ObjectSpec> merge(Map<String, List<ObjectSpec>> objectSpecsBySource) {
+        Map<Integer, ObjectSpec> objects = new LinkedHashMap<>();
+        for (List<ObjectSpec> objectSpecs : objectSpecsBySource.values()) {
+            for (ObjectSpec objectSpec : objectSpecs) {
+                if (objects.containsKey(objectSpec.id))
+                    LOG.warn(MessageFormat.format("There are multiple definitions for the object {0}", objectSpec.id));
+                objects.put(objectSpec.id, objectSpec);
+            }
+        }
+        return objects.values();
+    }
+
+    /**
+     * Sets the binary cache of the objects definitions, used to avoid parsing them at each startup. The cache is
+     * disabled by default.
+     *
+     * @param cacheFile the cache file, or <code>null</code> to use the OBJECTSPEC_CACHE environment variable
+     */
+    public static void setCacheFile(File cacheFile) {
+        CACHE_FILE = cacheFile;
+    }
+
+    /**
+     * Returns the binary cache of the objects definitions (set with {@link #setCacheFile(File)} or the OBJECTSPEC_CACHE
+     * environment variable) or <code>null</code> if the cache is disabled.
+     */
+    static File getCacheFile() {
+        File cacheFile = CACHE_FILE;
+        if (cacheFile != null) {
+            return cacheFile;
+        }
+        String cacheEnvVar = System.getenv("OBJECTSPEC_CACHE");
+        return cacheEnvVar == null || cacheEnvVar.isEmpty() ? null : new File(cacheEnvVar);
+    }
+
+    /**
+     * Loads the OMA objects definitions embedded in the library.
+     */
+    static List<ObjectSpec> loadDefaultObjectSpecs() {
+        InputStream input = Resources.class.getResourceAsStream(EMBEDDED_SOURCE);
+        if (input == null) {
+            return Collections.emptyList();
+        }
+
+        try (Reader reader = new InputStreamReader(input)) {
+            return Arrays.asList(newGson().fromJson(reader, ObjectSpec[].class));
+        } catch (IOException e) {
+            LOG.error("Unable to load object specification", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns the folder containing the custom objects definitions (MODELS_FOLDER environment variable or "./models")
+     * or <code>null</code> if it is not usable.
+     */
+    static File getModelsFolder() {
+        // get folder path
+        String modelsFolderEnvVar = System.getenv("MODELS_FOLDER");
+        String modelsFolderPath = modelsFolderEnvVar != null ? modelsFolderEnvVar : "./models";
+
+        // check if the folder is usable
+        File modelsFolder = new File(modelsFolderPath);
+        if (!modelsFolder.isDirectory() || !modelsFolder.canRead()) {
+            // log only if env var is configured
+            if (modelsFolderEnvVar != null)
+                LOG.error(MessageFormat.format(
+                        "Models folder {0} is not a directory or you have not the right to list its content.",
+                        modelsFolderPath));
+            return null;
+        }
+        return modelsFolder;
+    }
+
+    /**
+     * Loads the objects definitions of a model file: a DDF file (.xml) or an object spec json file (.json).
+     *
+     * @return the definitions or an empty list if the file is not a valid model file
+     */
+    static List<ObjectSpec> loadModel(File file) {
+        if (!file.canRead())
+            return Collections.emptyList();
+
+        if (file.getName().endsWith(".xml")) {
+            // load DDF file
+            DDFFileParser ddfFileParser = new DDFFileParser();
+            ObjectSpec objectSpec = ddfFileParser.parse(file);
+            if (objectSpec != null) {
+                return Collections.singletonList(objectSpec);
+            }
+        } else if (file.getName().endsWith(".json")) {
+            // load object spec json file
+            try (Reader reader = new InputStreamReader(new FileInputStream(file))) {
+                ObjectSpec[] objectSpecs = newGson().fromJson(reader, ObjectSpec[].class);
+                if (objectSpecs != null) {
+                    return Arrays.asList(objectSpecs);
                 }
+            } catch (IOException | JsonParseException e) {
+                LOG.warn(MessageFormat.format("Unable to load object specification for {0}", file.getAbsolutePath()),
+                        e);
             }
         }
+        return Collections.emptyList();
+    }
+
+    private static Gson newGson() {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(ObjectSpec.class, new ObjectSpecDeserializer());
+        gsonBuilder.registerTypeAdapter(ResourceSpec.class, new ResourceSpecDeserializer());
+        return gsonBuilder.create();
+    }
+
+    /**
+     * The objects definitions loaded from a models folder, by source.
+     */
+    static class LoadedSources {
+
+        /** the models folder, <code>null</code> if only the embedded definitions were loaded */
+        final File modelsFolder;
+
+        /** the time of the load in milliseconds since 1970/1/1, taken before reading the sources */
+        final long loadTime;
+
+        final Map<String, List<ObjectSpec>> objectSpecsBySource;
+
+        LoadedSources(File modelsFolder, long loadTime, Map<String, List<ObjectSpec>> objectSpecsBySource) {
+            this.modelsFolder = modelsFolder;
+            this.loadTime = loadTime;
+            this.objectSpecsBySource = Collections.unmodifiableMap(objectSpecsBySource);
+        }
     }
 
     /**
@@ -147,11 +355,7 @@ public class Resources {
      * @return the resource specification or <code>null</code> if not found
      */
     public static ResourceSpec getResourceSpec(int objectId, int resourceId) {
-        ObjectSpec object = OBJECTS.get(objectId);
-        if (object != null) {
-            return object.resources.get(resourceId);
-        }
-        return null;
+        return OBJECTS.getResourceSpec(objectId, resourceId);
     }
 
     /**
@@ -161,13 +365,13 @@ public class Resources {
      * @return the object specification or <code>null</code> if not found
      */
     public static ObjectSpec getObjectSpec(int objectId) {
-        return OBJECTS.get(objectId);
+        return OBJECTS.getObjectSpec(objectId);
     }
 
     /**
      * @return all the objects descriptions known.
      */
     public static Collection<ObjectSpec> getObjectSpecs() {
-        return Collections.unmodifiableCollection(OBJECTS.values());
+        return OBJECTS.getObjectSpecs();
     }
 }
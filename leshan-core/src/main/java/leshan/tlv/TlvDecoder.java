@@ -29,14 +29,8 @@
  */
 package leshan.tlv;
 
-import java.math.BigInteger;
-import java.nio.BufferOverflowException;
-import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 import leshan.tlv.Tlv.TlvType;
 import leshan.util.Charsets;
@@ -48,102 +42,36 @@ public class TlvDecoder {
 
     private static final Logger LOG = LoggerFactory.getLogger(TlvDecoder.class);
 
+    /**
+     * Decodes the TLVs contained between the position and the limit of the given buffer.
+     * <p>
+     * Once decoded, the position of the buffer is set to its limit.
+     * </p>
+     */
     public static Tlv[] decode(ByteBuffer input) throws TlvException {
+        Tlv[] tlvs = decode(new TlvReader(input));
+        input.position(input.limit());
+        return tlvs;
+    }
 
-        List<Tlv> tlvs = new ArrayList<>();
-
-        while (input.remaining() > 0) {
-            input.order(ByteOrder.BIG_ENDIAN);
-
-            // decode type
-            int typeByte = input.get() & 0xFF;
-            TlvType type;
-            switch (typeByte & 0b1100_0000) {
-            case 0b0000_0000:
-                type = TlvType.OBJECT_INSTANCE;
-                break;
-            case 0b0100_0000:
-                type = TlvType.RESOURCE_INSTANCE;
-                break;
-            case 0b1000_0000:
-                type = TlvType.MULTIPLE_RESOURCE;
-                break;
-            case 0b1100_0000:
-                type = TlvType.RESOURCE_VALUE;
-                break;
-            default:
-                throw new TlvException("unknown type : " + (typeByte & 0b1100_0000));
-            }
+    private static Tlv[] decode(TlvReader reader) throws TlvException {
+        Tlv[] tlvs = new Tlv[reader.count()];
+        for (int i = 0; reader.next(); i++) {
+            if (reader.isContainer()) {
+                int identifier = reader.getIdentifier();
+                TlvType type = reader.getType();
 
-            // decode identifier
-            int identifier;
-            try {
-                if ((typeByte & 0b0010_0000) == 0) {
-                    identifier = input.get() & 0xFF;
-                } else {
-                    identifier = input.getShort() & 0xFFFF;
-                }
-            } catch (BufferUnderflowException e) {
-                throw new TlvException("Invalild 'identifier' length", e);
-            }
+                reader.enter();
+                Tlv[] children = decode(reader);
+                reader.exit();
 
-            // decode length
-            int length;
-            int lengthType = typeByte & 0b0001_1000;
-            try {
-                switch (lengthType) {
-                case 0b0000_0000:
-                    // 2 bit length
-                    length = typeByte & 0b0000_0111;
-                    break;
-                case 0b0000_1000:
-                    // 8 bit length
-                    length = input.get() & 0xFF;
-                    break;
-                case 0b0001_0000:
-                    // 16 bit length
-                    length = input.getShort() & 0xFFFF;
-                    break;
-                case 0b0001_1000:
-                    // 24 bit length
-                    length = ((input.get() & 0xFF) << 16) + input.getShort() & 0xFFFF;
-                    break;
-                default:
-                    throw new TlvException("unknown length type : " + (typeByte & 0b0001_1000));
-                }
-            } catch (BufferUnderflowException e) {
-                throw new TlvException("Invalild 'length' length", e);
-            }
-
-            // decode value
-            if (type == TlvType.RESOURCE_VALUE || type == TlvType.RESOURCE_INSTANCE) {
-                try {
-                    byte[] payload = new byte[length];
-                    input.get(payload);
-                    tlvs.add(new Tlv(type, null, payload, identifier));
-                } catch (BufferOverflowException e) {
-                    throw new TlvException("Invalild 'value' length", e);
-                }
+                tlvs[i] = new Tlv(type, children, null, identifier);
             } else {
-                try {
-                    // create a view of the contained TLVs
-                    ByteBuffer slice = input.slice();
-                    slice.limit(length);
-
-                    Tlv[] children = decode(slice);
-
-                    // skip the children, it will be decoded by the view
-                    input.position(input.position() + length);
-
-                    Tlv tlv = new Tlv(type, children, null, identifier);
-                    tlvs.add(tlv);
-                } catch (IllegalArgumentException e) {
-                    throw new TlvException("Invalild 'value' length", e);
-                }
+                byte[] payload = decodeOpaque(reader.getBuffer(), reader.getValueOffset(), reader.getValueLength());
+                tlvs[i] = new Tlv(reader.getType(), null, payload, reader.getIdentifier());
             }
         }
-
-        return tlvs.toArray(new Tlv[] {});
+        return tlvs;
     }
 
     /**
@@ -174,9 +102,8 @@ public class TlvDecoder {
      * Decodes a byte array into a date value.
      */
     public static Date decodeDate(byte[] value) throws TlvException {
-        BigInteger bi = new BigInteger(value);
         if (value.length <= 8) {
-            return new Date(bi.longValue() * 1000L);
+            return new Date(decodeSignedInteger(value) * 1000L);
         } else {
             throw new TlvException("Invalid length for a time value: " + value.length);
         }
@@ -186,15 +113,24 @@ public class TlvDecoder {
      * Decodes a byte array into an integer value.
      */
     public static Number decodeInteger(byte[] value) throws TlvException {
-        BigInteger bi = new BigInteger(value);
+        long l = decodeLong(value);
         if (value.length == 1) {
-            return bi.byteValue();
+            return (byte) l;
         } else if (value.length <= 2) {
-            return bi.shortValue();
+            return (short) l;
         } else if (value.length <= 4) {
-            return bi.intValue();
-        } else if (value.length <= 8) {
-            return bi.longValue();
+            return (int) l;
+        } else {
+            return l;
+        }
+    }
+
+    /**
+     * Decodes a byte array into a primitive integer value (without boxing).
+     */
+    public static long decodeLong(byte[] value) throws TlvException {
+        if (value.length > 0 && value.length <= 8) {
+            return decodeSignedInteger(value);
         } else {
             throw new TlvException("Invalid length for an integer value: " + value.length);
         }
@@ -204,13 +140,138 @@ public class TlvDecoder {
      * Decodes a byte array into a float value.
      */
     public static Number decodeFloat(byte[] value) throws TlvException {
-        ByteBuffer floatBb = ByteBuffer.wrap(value);
         if (value.length == 4) {
-            return floatBb.getFloat();
+            return (float) decodeDouble(value);
+        } else {
+            return decodeDouble(value);
+        }
+    }
+
+    /**
+     * Decodes a byte array into a primitive floating point value (without boxing).
+     */
+    public static double decodeDouble(byte[] value) throws TlvException {
+        if (value.length == 4) {
+            return Float.intBitsToFloat((int) decodeSignedInteger(value));
         } else if (value.length == 8) {
-            return floatBb.getDouble();
+            return Double.longBitsToDouble(decodeSignedInteger(value));
         } else {
             throw new TlvException("Invalid length for a float value: " + value.length);
         }
     }
+
+    /**
+     * Decodes a value of a buffer into a string value.
+     * 
+     * @param buffer the buffer containing the value
+     * @param offset the absolute offset of the value in the buffer
+     * @param length the length of the value
+     */
+    public static String decodeString(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, Charsets.UTF_8);
+        }
+        return new String(decodeOpaque(buffer, offset, length), Charsets.UTF_8);
+    }
+
+    /**
+     * Decodes a value of a buffer into a boolean value.
+     * 
+     * @see #decodeString(ByteBuffer, int, int)
+     */
+    public static boolean decodeBoolean(ByteBuffer buffer, int offset, int length) throws TlvException {
+        if (length == 1) {
+            byte value = buffer.get(offset);
+            if (value == 0) {
+                return false;
+            } else if (value == 1) {
+                return true;
+            } else {
+                LOG.warn("Boolean value should be encoded as integer with value 0 or 1, not {}", value);
+                return false;
+            }
+        }
+        throw new TlvException("Invalid length for a boolean value: " + length);
+    }
+
+    /**
+     * Decodes a value of a buffer into a date value.
+     * 
+     * @see #decodeString(ByteBuffer, int, int)
+     */
+    public static Date decodeDate(ByteBuffer buffer, int offset, int length) throws TlvException {
+        if (length <= 8) {
+            return new Date(decodeSignedInteger(buffer, offset, length) * 1000L);
+        } else {
+            throw new TlvException("Invalid length for a time value: " + length);
+        }
+    }
+
+    /**
+     * Decodes a value of a buffer into an integer value.
+     * 
+     * @see #decodeString(ByteBuffer, int, int)
+     */
+    public static long decodeInteger(ByteBuffer buffer, int offset, int length) throws TlvException {
+        if (length > 0 && length <= 8) {
+            return decodeSignedInteger(buffer, offset, length);
+        } else {
+            throw new TlvException("Invalid length for an integer value: " + length);
+        }
+    }
+
+    /**
+     * Decodes a value of a buffer into a floating point value.
+     * 
+     * @see #decodeString(ByteBuffer, int, int)
+     */
+    public static double decodeFloat(ByteBuffer buffer, int offset, int length) throws TlvException {
+        if (length == 4) {
+            return Float.intBitsToFloat((int) decodeSignedInteger(buffer, offset, length));
+        } else if (length == 8) {
+            return Double.longBitsToDouble(decodeSignedInteger(buffer, offset, length));
+        } else {
+            throw new TlvException("Invalid length for a float value: " + length);
+        }
+    }
+
+    /**
+     * Copies a value of a buffer into a new byte array.
+     * 
+     * @see #decodeString(ByteBuffer, int, int)
+     */
+    public static byte[] decodeOpaque(ByteBuffer buffer, int offset, int length) {
+        byte[] value = new byte[length];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, value, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                value[i] = buffer.get(offset + i);
+            }
+        }
+        return value;
+    }
+
+    // big-endian two's complement integer
+    private static long decodeSignedInteger(byte[] value) {
+        if (value.length == 0) {
+            return 0;
+        }
+        long l = value[0]; // sign extension
+        for (int i = 1; i < value.length; i++) {
+            l = (l << 8) | (value[i] & 0xFF);
+        }
+        return l;
+    }
+
+    private static long decodeSignedInteger(ByteBuffer buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        long value = buffer.get(offset); // sign extension
+        for (int i = 1; i < length; i++) {
+            value = (value << 8) | (buffer.get(offset + i) & 0xFF);
+        }
+        return value;
+    }
 }
@@ -29,10 +29,11 @@
  */
 package leshan.tlv;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Date;
 
+import leshan.tlv.Tlv.TlvType;
 import leshan.util.Charsets;
 
 import org.slf4j.Logger;
@@ -46,89 +47,47 @@ public class TlvEncoder {
      * Encodes an array of TLV.
      */
     public static ByteBuffer encode(Tlv[] tlvs) {
-        int size = 0;
+        LengthTable lengths = new LengthTable(tlvs);
+        LOG.trace("encoded size : {}", lengths.size);
 
-        LOG.trace("start");
-        for (Tlv tlv : tlvs) {
-
-            int length = tlvEncodedLength(tlv);
-            size += tlvEncodedSize(tlv, length);
-            LOG.trace("tlv size : {}", size);
-        }
-        LOG.trace("done, size : {}", size);
-        ByteBuffer b = ByteBuffer.allocate(size);
-        b.order(ByteOrder.BIG_ENDIAN);
-        for (Tlv tlv : tlvs) {
-            encode(tlv, b);
-        }
+        ByteBuffer b = ByteBuffer.allocate(lengths.size);
+        encode(tlvs, lengths, b);
         b.flip();
         return b;
     }
 
     /**
-     * Encodes an integer value.
+     * Encodes an array of TLV into the given buffer, starting at its current position.
+     * <p>
+     * Heap and direct buffers are supported. The position of the buffer is moved after the encoded TLVs.
+     * </p>
+     *
+     * @throws BufferOverflowException if there is not enough space in the buffer (see {@link #encodedSize(Tlv[])})
      */
-    public static byte[] encodeInteger(Number number) {
-        ByteBuffer iBuf = null;
-        long lValue = number.longValue();
-        if (lValue >= Byte.MIN_VALUE && lValue <= Byte.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(1);
-            iBuf.put((byte) lValue);
-        } else if (lValue >= Short.MIN_VALUE && lValue <= Short.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(2);
-            iBuf.putShort((short) lValue);
-        } else if (lValue >= Integer.MIN_VALUE && lValue <= Integer.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(4);
-            iBuf.putInt((int) lValue);
-        } else {
-            iBuf = ByteBuffer.allocate(8);
-            iBuf.putLong(lValue);
+    public static void encode(Tlv[] tlvs, ByteBuffer b) {
+        LengthTable lengths = new LengthTable(tlvs);
+        if (b.remaining() < lengths.size) {
+            throw new BufferOverflowException();
         }
-        return iBuf.array();
+        encode(tlvs, lengths, b);
     }
 
     /**
-     * Encodes a floating point value.
+     * Computes the number of bytes needed to encode an array of TLV.
      */
-    public static byte[] encodeFloat(Number number) {
-        ByteBuffer fBuf = null;
-        double dValue = number.doubleValue();
-        if (dValue >= Float.MIN_VALUE && dValue <= Float.MAX_VALUE) {
-            fBuf = ByteBuffer.allocate(4);
-            fBuf.putFloat((float) dValue);
-        } else {
-            fBuf = ByteBuffer.allocate(8);
-            fBuf.putDouble(dValue);
-        }
-        return fBuf.array();
-    }
-
-    /**
-     * Encodes a boolean value.
-     */
-    public static byte[] encodeBoolean(boolean value) {
-        return value ? new byte[] { 1 } : new byte[] { 0 };
+    public static int encodedSize(Tlv[] tlvs) {
+        return new LengthTable(tlvs).size;
     }
 
     /**
-     * Encodes a string value.
+     * Computes the number of bytes needed to encode a TLV: the header followed by a value of the given length.
+     *
+     * @param identifier the TLV identifier
+     * @param length the length of the value (or of the encoded children)
      */
-    public static byte[] encodeString(String value) {
-        return value.getBytes(Charsets.UTF_8);
-    }
-
-    /**
-     * Encodes a date value.
-     */
-    public static byte[] encodeDate(Date value) {
-        ByteBuffer tBuf = ByteBuffer.allocate(4);
-        tBuf.putInt((int) (value.getTime() / 1000L));
-        return tBuf.array();
-    }
-
-    private static int tlvEncodedSize(Tlv tlv, int length) {
+    public static int encodedSize(int identifier, int length) {
         int size = 1 /* HEADER */;
-        size += (tlv.getIdentifier() < 65_536) ? 1 : 2; /* 8 bits or 16 bits identifiers */
+        size += (identifier < 256) ? 1 : 2; /* 8 bits or 16 bits identifiers */
 
         if (length < 8) {
             size += 0;
@@ -146,30 +105,14 @@ public class TlvEncoder {
         return size;
     }
 
-    private static int tlvEncodedLength(Tlv tlv) {
-        int length;
-        switch (tlv.getType()) {
-        case RESOURCE_VALUE:
-        case RESOURCE_INSTANCE:
-            length = tlv.getValue().length;
-            break;
-        default:
-            length = 0;
-            for (Tlv child : tlv.getChildren()) {
-                int subLength = tlvEncodedLength(child);
-                length += tlvEncodedSize(child, subLength);
-            }
-        }
-
-        return length;
-    }
-
-    private static void encode(Tlv tlv, ByteBuffer b) {
-        int length;
-        length = tlvEncodedLength(tlv);
+    /**
+     * Writes a TLV header (type, identifier and length) into the given buffer. It must be followed by a value (or
+     * encoded children) of exactly <code>length</code> bytes.
+     */
+    public static void encodeHeader(TlvType type, int identifier, int length, ByteBuffer b) {
         int typeByte;
 
-        switch (tlv.getType()) {
+        switch (type) {
         case OBJECT_INSTANCE:
             typeByte = 0b00_000000;
             break;
@@ -180,15 +123,14 @@ public class TlvEncoder {
             typeByte = 0b10_000000;
             break;
         case RESOURCE_VALUE:
-            // encode the value
             typeByte = 0b11_000000;
             break;
         default:
-            throw new IllegalArgumentException("unknown TLV type : '" + tlv.getType() + "'");
+            throw new IllegalArgumentException("unknown TLV type : '" + type + "'");
         }
 
         // encode identifier length
-        typeByte |= (tlv.getIdentifier() < 65_536) ? 0b00_0000 : 0b10_0000;
+        typeByte |= (identifier < 256) ? 0b00_0000 : 0b10_0000;
 
         // type of length
         if (length < 8) {
@@ -203,26 +145,221 @@ public class TlvEncoder {
 
         // fill the buffer
         b.put((byte) typeByte);
-        if (tlv.getIdentifier() < 65_536) {
-            b.put((byte) tlv.getIdentifier());
+        if (identifier < 256) {
+            b.put((byte) identifier);
         } else {
-            b.putShort((short) tlv.getIdentifier());
+            b.put((byte) (identifier >> 8));
+            b.put((byte) identifier);
         }
 
         // write length
-
         if (length >= 8) {
-            if (length < 256) {
-                b.put((byte) length);
-            } else if (length < 65_536) {
-                b.putShort((short) length);
+            if (length >= 65_536) {
+                b.put((byte) (length >> 16));
+            }
+            if (length >= 256) {
+                b.put((byte) (length >> 8));
+            }
+            b.put((byte) length);
+        }
+    }
+
+    /**
+     * Encodes an integer value.
+     */
+    public static byte[] encodeInteger(Number number) {
+        return encodeInteger(number.longValue());
+    }
+
+    /**
+     * Encodes a primitive integer value (without boxing).
+     */
+    public static byte[] encodeInteger(long value) {
+        return toBytes(value, integerLength(value));
+    }
+
+    /**
+     * Encodes a floating point value.
+     */
+    public static byte[] encodeFloat(Number number) {
+        return encodeFloat(number.doubleValue());
+    }
+
+    /**
+     * Encodes a primitive floating point value (without boxing).
+     */
+    public static byte[] encodeFloat(double value) {
+        if (floatLength(value) == 4) {
+            return toBytes(Float.floatToIntBits((float) value), 4);
+        } else {
+            return toBytes(Double.doubleToLongBits(value), 8);
+        }
+    }
+
+    /**
+     * Encodes a boolean value.
+     */
+    public static byte[] encodeBoolean(boolean value) {
+        return value ? new byte[] { 1 } : new byte[] { 0 };
+    }
+
+    /**
+     * Encodes a string value.
+     */
+    public static byte[] encodeString(String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * Encodes a date value.
+     */
+    public static byte[] encodeDate(Date value) {
+        return toBytes((int) (value.getTime() / 1000L), 4);
+    }
+
+    /**
+     * Returns the number of bytes used by {@link #encodeInteger(long, ByteBuffer)}.
+     */
+    public static int integerLength(long value) {
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return 1;
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return 2;
+        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return 4;
+        } else {
+            return 8;
+        }
+    }
+
+    /**
+     * Writes an integer value into the given buffer, using the smallest possible length.
+     * <p>
+     * As for all the <code>encodeXXX(value, ByteBuffer)</code> methods, the buffer is expected to use the (default)
+     * big-endian byte order.
+     * </p>
+     */
+    public static void encodeInteger(long value, ByteBuffer b) {
+        switch (integerLength(value)) {
+        case 1:
+            b.put((byte) value);
+            break;
+        case 2:
+            b.putShort((short) value);
+            break;
+        case 4:
+            b.putInt((int) value);
+            break;
+        default:
+            b.putLong(value);
+        }
+    }
+
+    /**
+     * Returns the number of bytes used by {@link #encodeFloat(double, ByteBuffer)}.
+     */
+    public static int floatLength(double value) {
+        return (value >= Float.MIN_VALUE && value <= Float.MAX_VALUE) ? 4 : 8;
+    }
+
+    /**
+     * Writes a floating point value into the given buffer.
+     */
+    public static void encodeFloat(double value, ByteBuffer b) {
+        if (floatLength(value) == 4) {
+            b.putFloat((float) value);
+        } else {
+            b.putDouble(value);
+        }
+    }
+
+    /**
+     * Writes a boolean value into the given buffer (1 byte).
+     */
+    public static void encodeBoolean(boolean value, ByteBuffer b) {
+        b.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * Writes a date value into the given buffer (4 bytes).
+     */
+    public static void encodeDate(Date value, ByteBuffer b) {
+        b.putInt((int) (value.getTime() / 1000L));
+    }
+
+    /**
+     * Returns the length of the UTF-8 representation of a string, as written by
+     * {@link #encodeString(String, ByteBuffer)}.
+     */
+    public static int stringLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // malformed, replaced by '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the UTF-8 representation of a string into the given buffer.
+     */
+    public static void encodeString(String value, ByteBuffer b) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b.put((byte) c);
+            } else if (c < 0x800) {
+                b.put((byte) (0xC0 | (c >> 6)));
+                b.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                b.put((byte) (0xF0 | (cp >> 18)));
+                b.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                b.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                b.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                b.put((byte) '?');
             } else {
-                int msb = (length & 0xFF_00_00) >> 16;
-                b.put((byte) msb);
-                b.putShort((short) (length & 0xFF_FF));
-                typeByte |= 0b0001_1000;
+                b.put((byte) (0xE0 | (c >> 12)));
+                b.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                b.put((byte) (0x80 | (c & 0x3F)));
             }
         }
+    }
+
+    // big-endian representation of the lowest bytes of a value
+    private static byte[] toBytes(long value, int length) {
+        byte[] encoded = new byte[length];
+        for (int i = length - 1; i >= 0; i--) {
+            encoded[i] = (byte) value;
+            value >>= 8;
+        }
+        return encoded;
+    }
+
+    private static void encode(Tlv[] tlvs, LengthTable lengths, ByteBuffer b) {
+        lengths.cursor = 0;
+        for (Tlv tlv : tlvs) {
+            encode(tlv, lengths, b);
+        }
+    }
+
+    private static void encode(Tlv tlv, LengthTable lengths, ByteBuffer b) {
+        encodeHeader(tlv.getType(), tlv.getIdentifier(), lengths.next(), b);
 
         switch (tlv.getType()) {
         case RESOURCE_VALUE:
@@ -231,9 +368,60 @@ public class TlvEncoder {
             break;
         default:
             for (Tlv child : tlv.getChildren()) {
-                encode(child, b);
+                encode(child, lengths, b);
             }
             break;
         }
     }
+
+    /**
+     * The length of the value of each node of a TLV tree, computed once, bottom-up, and stored in pre-order.
+     */
+    private static class LengthTable {
+
+        final int[] lengths;
+
+        final int size;
+
+        int cursor;
+
+        LengthTable(Tlv[] tlvs) {
+            lengths = new int[count(tlvs)];
+            size = fill(tlvs);
+        }
+
+        int next() {
+            return lengths[cursor++];
+        }
+
+        private static int count(Tlv[] tlvs) {
+            int count = tlvs.length;
+            for (Tlv tlv : tlvs) {
+                if (tlv.getChildren() != null) {
+                    count += count(tlv.getChildren());
+                }
+            }
+            return count;
+        }
+
+        // returns the encoded size of the given TLVs
+        private int fill(Tlv[] tlvs) {
+            int size = 0;
+            for (Tlv tlv : tlvs) {
+                int slot = cursor++;
+                int length;
+                switch (tlv.getType()) {
+                case RESOURCE_VALUE:
+                case RESOURCE_INSTANCE:
+                    length = tlv.getValue().length;
+                    break;
+                default:
+                    length = fill(tlv.getChildren());
+                }
+                lengths[slot] = length;
+                size += encodedSize(tlv.getIdentifier(), length);
+            }
+            return size;
+        }
+    }
 }
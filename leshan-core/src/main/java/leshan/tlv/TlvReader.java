@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.tlv;
+
+import java.nio.ByteBuffer;
+
+import leshan.tlv.Tlv.TlvType;
+
+/**
+ * A pull-style cursor over a TLV encoded buffer.
+ * <p>
+ * The reader walks the buffer in place: it never copies the TLV values and does not modify the position or the limit
+ * of the underlying buffer. For each TLV the type, the identifier and the offset/length of the value in the buffer are
+ * exposed.
+ * </p>
+ * 
+ * <pre>
+ * TlvReader reader = new TlvReader(buffer);
+ * while (reader.next()) {
+ *     if (reader.isContainer()) {
+ *         reader.enter();
+ *         while (reader.next()) {
+ *             // read children
+ *         }
+ *         reader.exit();
+ *     } else {
+ *         String s = TlvDecoder.decodeString(reader.getBuffer(), reader.getValueOffset(), reader.getValueLength());
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+public class TlvReader {
+
+    // an object instance TLV may contain a multiple resource TLV which contains resource instances
+    private static final int MAX_DEPTH = 3;
+
+    private final ByteBuffer buffer;
+
+    // end offset of the TLVs for each nesting level
+    private final int[] limits = new int[MAX_DEPTH];
+    private int depth;
+
+    // offset of the next TLV to read
+    private int position;
+
+    // current TLV
+    private TlvType type;
+    private int identifier;
+    private int valueOffset;
+    private int valueLength;
+
+    /**
+     * Creates a reader for the TLVs contained between the position and the limit of the given buffer.
+     */
+    public TlvReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.limits[0] = buffer.limit();
+        this.depth = 0;
+    }
+
+    /**
+     * Moves the cursor to the next TLV of the current level.
+     *
+     * @return <code>false</code> if there is no more TLV at this level
+     * @throws TlvException if the TLV header is invalid
+     */
+    public boolean next() throws TlvException {
+        int limit = limits[depth];
+        if (position >= limit) {
+            type = null;
+            return false;
+        }
+
+        // decode type
+        int typeByte = buffer.get(position++) & 0xFF;
+        switch (typeByte & 0b1100_0000) {
+        case 0b0000_0000:
+            type = TlvType.OBJECT_INSTANCE;
+            break;
+        case 0b0100_0000:
+            type = TlvType.RESOURCE_INSTANCE;
+            break;
+        case 0b1000_0000:
+            type = TlvType.MULTIPLE_RESOURCE;
+            break;
+        default:
+            type = TlvType.RESOURCE_VALUE;
+            break;
+        }
+
+        // decode identifier
+        if ((typeByte & 0b0010_0000) == 0) {
+            checkAvailable(1, limit, "identifier");
+            identifier = buffer.get(position++) & 0xFF;
+        } else {
+            checkAvailable(2, limit, "identifier");
+            identifier = readUnsigned(2);
+        }
+
+        // decode length
+        switch (typeByte & 0b0001_1000) {
+        case 0b0000_0000:
+            // 3 bit length
+            valueLength = typeByte & 0b0000_0111;
+            break;
+        case 0b0000_1000:
+            // 8 bit length
+            checkAvailable(1, limit, "length");
+            valueLength = readUnsigned(1);
+            break;
+        case 0b0001_0000:
+            // 16 bit length
+            checkAvailable(2, limit, "length");
+            valueLength = readUnsigned(2);
+            break;
+        default:
+            // 24 bit length
+            checkAvailable(3, limit, "length");
+            valueLength = readUnsigned(3);
+            break;
+        }
+
+        // skip the value
+        checkAvailable(valueLength, limit, "value");
+        valueOffset = position;
+        position += valueLength;
+        return true;
+    }
+
+    /**
+     * Moves the cursor inside the current TLV: the following calls to {@link #next()} will iterate over its children.
+     *
+     * @throws TlvException if the current TLV is not a container or if the TLVs are nested too deeply
+     */
+    public void enter() throws TlvException {
+        if (!isContainer()) {
+            throw new TlvException("Cannot read children of a TLV of type " + type);
+        }
+        if (depth + 1 >= MAX_DEPTH) {
+            throw new TlvException("Too many nested TLVs");
+        }
+        limits[++depth] = valueOffset + valueLength;
+        position = valueOffset;
+        type = null;
+    }
+
+    /**
+     * Moves the cursor back to the parent level, just after the TLV previously entered with {@link #enter()}.
+     */
+    public void exit() {
+        if (depth == 0) {
+            throw new IllegalStateException("Not inside a TLV");
+        }
+        position = limits[depth--];
+        type = null;
+    }
+
+    /**
+     * Counts the TLVs remaining at the current level, without moving the cursor.
+     *
+     * @throws TlvException if one of the TLV headers is invalid
+     */
+    public int count() throws TlvException {
+        int savedPosition = position;
+        TlvType savedType = type;
+        int savedIdentifier = identifier;
+        int savedOffset = valueOffset;
+        int savedLength = valueLength;
+
+        int count = 0;
+        while (next()) {
+            count++;
+        }
+
+        position = savedPosition;
+        type = savedType;
+        identifier = savedIdentifier;
+        valueOffset = savedOffset;
+        valueLength = savedLength;
+        return count;
+    }
+
+    /**
+     * @return the type of the current TLV
+     */
+    public TlvType getType() {
+        return type;
+    }
+
+    /**
+     * @return <code>true</code> if the current TLV contains other TLVs (object instance or multiple resource)
+     */
+    public boolean isContainer() {
+        return type == TlvType.OBJECT_INSTANCE || type == TlvType.MULTIPLE_RESOURCE;
+    }
+
+    /**
+     * @return the identifier of the current TLV (object instance id, resource id or resource instance id)
+     */
+    public int getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return the absolute offset of the value of the current TLV in the buffer
+     */
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    /**
+     * @return the length of the value of the current TLV
+     */
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    /**
+     * @return the underlying buffer
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    private void checkAvailable(int length, int limit, String field) throws TlvException {
+        if (position + length > limit) {
+            throw new TlvException("Invalid '" + field + "' length");
+        }
+    }
+
+    private int readUnsigned(int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (buffer.get(position++) & 0xFF);
+        }
+        return value;
+    }
+}
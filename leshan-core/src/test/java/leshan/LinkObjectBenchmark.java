@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan;
+
+import leshan.util.Charsets;
+
+/**
+ * Measures the parsing time of a typical registration payload with {@link LinkObject#parse(byte[])}.
+ * <p>
+ * Not run by the build, launch it with the test classpath: <code>java leshan.LinkObjectBenchmark</code>
+ * </p>
+ */
+public class LinkObjectBenchmark {
+
+    private static final int PARSES = 1000000;
+
+    public static void main(String[] args) {
+        StringBuilder payload = new StringBuilder("</>;rt=\"oma.lwm2m\";ct=100");
+        for (int object = 0; object < 10; object++) {
+            for (int instance = 0; instance < 3; instance++) {
+                payload.append(", </").append(object).append("/").append(instance).append(">");
+            }
+        }
+        byte[] content = payload.toString().getBytes(Charsets.UTF_8);
+
+        // warm up, then measure
+        long links = run(content, PARSES / 10);
+        long start = System.nanoTime();
+        links += run(content, PARSES);
+        long duration = System.nanoTime() - start;
+
+        System.out.println(String.format("%d bytes payload: %6d ns/parse (%d links)", content.length, duration
+                / PARSES, links));
+    }
+
+    private static long run(byte[] content, int parses) {
+        long links = 0;
+        for (int i = 0; i < parses; i++) {
+            links += LinkObject.parse(content).length;
+        }
+        return links;
+    }
+}
@@ -94,4 +94,79 @@ public class LinkObjectTest {
         Assert.assertNull(parse[0].getResourceId());
 
     }
+
+    @Test
+    public void parse_with_separators_in_quoted_values() {
+        LinkObject[] parse = LinkObject.parse("</3/0>;title=\"a,b\";rt=\"x;y\",</4/0>;title=\"c\"".getBytes());
+        Assert.assertEquals(2, parse.length);
+        Assert.assertEquals("/3/0", parse[0].getUrl());
+
+        Map<String, Object> attResult = new HashMap<>();
+        attResult.put("title", "a,b");
+        attResult.put("rt", "x;y");
+        Assert.assertEquals(attResult, parse[0].getAttributes());
+
+        Assert.assertEquals("/4/0", parse[1].getUrl());
+        Assert.assertEquals(Collections.singletonMap("title", "c"), parse[1].getAttributes());
+    }
+
+    @Test
+    public void parse_with_spaces_and_blank_parts() {
+        LinkObject[] parse = LinkObject.parse(" </3/0> ; ct = 11543 ; title=\"a b\";;, ,</4/0/1>;obs".getBytes());
+        Assert.assertEquals(2, parse.length);
+        Assert.assertEquals("/3/0", parse[0].getUrl());
+
+        Map<String, Object> attResult = new HashMap<>();
+        attResult.put("ct", 11543);
+        attResult.put("title", "a b");
+        Assert.assertEquals(attResult, parse[0].getAttributes());
+
+        Assert.assertEquals("/4/0/1", parse[1].getUrl());
+        Assert.assertEquals(Integer.valueOf(4), parse[1].getObjectId());
+        Assert.assertEquals(Integer.valueOf(0), parse[1].getObjectInstanceId());
+        Assert.assertEquals(Integer.valueOf(1), parse[1].getResourceId());
+        Assert.assertEquals("/4/0/1", parse[1].getPath());
+        Assert.assertTrue(parse[1].getAttributes().containsKey("obs"));
+    }
+
+    @Test
+    public void parse_integer_attributes() {
+        LinkObject[] parse = LinkObject.parse("</1>;a=-12;b=+3;c=2147483648;d=12a;e=\"5\";f=".getBytes());
+        Assert.assertEquals(1, parse.length);
+
+        Map<String, Object> attResult = new HashMap<>();
+        attResult.put("a", -12);
+        attResult.put("b", 3);
+        attResult.put("c", "2147483648");
+        attResult.put("d", "12a");
+        attResult.put("e", "5");
+        attResult.put("f", null);
+        Assert.assertEquals(attResult, parse[0].getAttributes());
+    }
+
+    @Test
+    public void parse_empty_content() {
+        Assert.assertEquals(0, LinkObject.parse(new byte[0]).length);
+        Assert.assertEquals(0, LinkObject.parse(" , ".getBytes()).length);
+    }
+
+    @Test
+    public void parse_interns_attribute_keys() {
+        LinkObject[] parse = LinkObject.parse("</1>;rt=1,</2>;rt=2".getBytes());
+        Assert.assertSame(parse[0].getAttributes().keySet().iterator().next(), parse[1].getAttributes().keySet()
+                .iterator().next());
+    }
+
+    @Test
+    public void ids_from_url_with_prefix() {
+        LinkObject link = new LinkObject("/lwm2m/3/0/7");
+        Assert.assertEquals(Integer.valueOf(3), link.getObjectId());
+        Assert.assertEquals(Integer.valueOf(0), link.getObjectInstanceId());
+        Assert.assertEquals(Integer.valueOf(7), link.getResourceId());
+        Assert.assertEquals(Collections.EMPTY_MAP, link.getAttributes());
+
+        link = new LinkObject("/");
+        Assert.assertNull(link.getObjectId());
+        Assert.assertEquals("/", link.getPath());
+    }
 }
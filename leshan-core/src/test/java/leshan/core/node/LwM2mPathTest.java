@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.core.node;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LwM2mPath}
+ */
+public class LwM2mPathTest {
+
+    @Test
+    public void parse_resource_path() {
+        LwM2mPath path = new LwM2mPath("/3/0/13");
+
+        assertTrue(path.isResource());
+        assertEquals(3, path.getObjectId());
+        assertEquals(Integer.valueOf(0), path.getObjectInstanceId());
+        assertEquals(Integer.valueOf(13), path.getResourceId());
+        assertEquals("/3/0/13", path.toString());
+        assertEquals(new LwM2mPath(3, 0, 13), path);
+        assertEquals(new LwM2mPath(3, 0, 13).hashCode(), path.hashCode());
+    }
+
+    @Test
+    public void parse_object_path() {
+        LwM2mPath path = new LwM2mPath("/1024/");
+
+        assertTrue(path.isObject());
+        assertFalse(path.isObjectInstance());
+        assertNull(path.getObjectInstanceId());
+        assertNull(path.getResourceId());
+        assertEquals(new LwM2mPath(1024), path);
+    }
+
+    @Test
+    public void value_of_is_interned() {
+        assertSame(LwM2mPath.valueOf("/3/0/13"), LwM2mPath.valueOf(new String("/3/0/13")));
+        assertEquals(new LwM2mPath(3, 0), LwM2mPath.valueOf("/3/0"));
+    }
+
+    @Test
+    public void value_of_interns_equivalent_paths_once() {
+        assertSame(LwM2mPath.valueOf("/3/0/"), LwM2mPath.valueOf("/3/0"));
+    }
+
+    @Test
+    public void value_of_keeps_interning_after_many_paths() {
+        for (int i = 0; i < 10000; i++) {
+            LwM2mPath.valueOf("/" + i + "/0/1");
+        }
+        assertSame(LwM2mPath.valueOf("/3/0/13"), LwM2mPath.valueOf("/3/0/13"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_too_long_path() {
+        new LwM2mPath("/3/0/13/1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_invalid_element() {
+        new LwM2mPath("/3/a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_empty_element() {
+        new LwM2mPath("/3//1");
+    }
+}
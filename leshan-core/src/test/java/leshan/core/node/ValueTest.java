@@ -31,6 +31,10 @@ package leshan.core.node;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
 import leshan.core.node.Value;
 
 import org.junit.Test;
@@ -62,4 +66,27 @@ public class ValueTest {
         assertNotEquals(Value.newStringValue("hello"), Value.newBinaryValue("hello".getBytes()));
     }
 
+    @Test
+    public void primitive_accessors() {
+        assertEquals(1245823L, Value.newIntegerValue(1245823).getLong());
+        assertEquals(Long.MAX_VALUE, Value.newLongValue(Long.MAX_VALUE).getLong());
+        assertEquals(56.4D, Value.newDoubleValue(56.4D).getDouble(), 0);
+        assertEquals(2.5D, Value.newFloatValue(2.5F).getDouble(), 0);
+        assertTrue(Value.newBooleanValue(true).getBoolean());
+        assertEquals(1367491215000L, Value.newDateValue(new Date(1367491215000L)).getLong());
+    }
+
+    @Test
+    public void primitive_values_keep_the_boxed_value() {
+        assertEquals(Integer.valueOf(1245823), Value.newIntegerValue(1245823).value);
+        assertEquals(Value.newIntegerValue(1245823), Value.newIntegerValue(1245823));
+        assertEquals(Value.newIntegerValue(12), Value.newIntegerValue(12));
+        assertNotEquals(Value.newIntegerValue(12), Value.newLongValue(12));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void string_has_no_numeric_value() {
+        Value.newStringValue("12").getLong();
+    }
+
 }
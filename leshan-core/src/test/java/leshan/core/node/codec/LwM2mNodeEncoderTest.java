@@ -29,7 +29,9 @@
  */
 package leshan.core.node.codec;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 
@@ -125,4 +127,20 @@ public class LwM2mNodeEncoderTest {
 
         Assert.assertArrayEquals(expected, encoded);
     }
+
+    @Test
+    public void tlv_encode_multiple_resource_into_direct_buffer() {
+        LwM2mResource resource = new LwM2mResource(6, new Value[] { Value.newIntegerValue(1), Value.newIntegerValue(5) });
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        buffer.put((byte) 42);
+        LwM2mNodeEncoder.encode(resource, ContentFormat.TLV, new LwM2mPath("/3/0/6"), buffer);
+        buffer.flip();
+
+        byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        Assert.assertArrayEquals(new byte[] { 42, -122, 6, 65, 0, 1, 65, 1, 5 }, encoded);
+        Assert.assertArrayEquals(Arrays.copyOfRange(encoded, 1, encoded.length),
+                LwM2mNodeEncoder.encode(resource, ContentFormat.TLV, new LwM2mPath("/3/0/6")));
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.core.objectspec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import leshan.util.Charsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link ModelsFolderWatcher}
+ */
+public class ModelsFolderWatcherTest {
+
+    // the watch service may poll the file system (e.g. on Mac OS)
+    private static final long TIMEOUT_MS = 30000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ModelsFolderWatcher watcher;
+
+    @Before
+    public void setUp() {
+        watcher = new ModelsFolderWatcher(folder.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        watcher.stop();
+        Resources.setObjectSpecs(new ArrayList<>(Resources.loadDefaultObjectSpecs()));
+    }
+
+    @Test
+    public void reload_created_modified_and_deleted_models() throws Exception {
+        writeModel("custom.json", 20000, "first");
+        watcher.start();
+
+        assertEquals(1, watcher.getReloadCount());
+        assertEquals("first", Resources.getObjectSpec(20000).name);
+        assertNotNull(Resources.getObjectSpec(3)); // defaults are kept
+
+        // create
+        writeModel("other.json", 20001, "other");
+        waitForReload(1);
+        assertNotNull(Resources.getObjectSpec(20001));
+
+        // modify
+        long count = watcher.getReloadCount();
+        writeModel("custom.json", 20000, "second");
+        waitForReload(count);
+        assertEquals("second", Resources.getObjectSpec(20000).name);
+
+        // delete
+        count = watcher.getReloadCount();
+        assertTrue(new File(folder.getRoot(), "custom.json").delete());
+        waitForReload(count);
+        assertNull(Resources.getObjectSpec(20000));
+        assertNotNull(Resources.getObjectSpec(20001));
+        assertTrue(watcher.getMaxReloadDuration(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void keep_previous_definitions_of_invalid_model() throws Exception {
+        writeModel("custom.json", 20000, "first");
+        watcher.start();
+
+        write("custom.json", "[ { \"id\": ");
+        waitForReload(1);
+        assertEquals("first", Resources.getObjectSpec(20000).name);
+    }
+
+    @Test
+    public void reuse_definitions_loaded_from_the_folder() throws Exception {
+        writeModel("custom.json", 20000, "first");
+        File model = new File(folder.getRoot(), "custom.json");
+        long modificationTime = System.currentTimeMillis() - 60000;
+        assertTrue(model.setLastModified(modificationTime));
+        Resources.load(folder.getRoot());
+
+        // not parsed again while its modification time is older than the load
+        write("custom.json", "[ { \"id\": ");
+        assertTrue(model.setLastModified(modificationTime));
+        watcher.start();
+
+        assertEquals(1, watcher.getReloadCount());
+        assertEquals("first", Resources.getObjectSpec(20000).name);
+        assertNotNull(Resources.getObjectSpec(3));
+    }
+
+    @Test
+    public void parse_models_changed_since_loaded() throws Exception {
+        writeModel("custom.json", 20000, "first");
+        writeModel("deleted.json", 20002, "deleted");
+        long modificationTime = System.currentTimeMillis() - 60000;
+        assertTrue(new File(folder.getRoot(), "custom.json").setLastModified(modificationTime));
+        assertTrue(new File(folder.getRoot(), "deleted.json").setLastModified(modificationTime));
+        Resources.load(folder.getRoot());
+
+        writeModel("custom.json", 20000, "second");
+        writeModel("other.json", 20001, "other");
+        assertTrue(new File(folder.getRoot(), "deleted.json").delete());
+        watcher.start();
+
+        assertEquals("second", Resources.getObjectSpec(20000).name);
+        assertNotNull(Resources.getObjectSpec(20001));
+        assertNull(Resources.getObjectSpec(20002));
+    }
+
+    @Test
+    public void merge_models_in_name_order() throws Exception {
+        writeModel("a.json", 20000, "a");
+        writeModel("b.json", 20000, "b");
+        Resources.load(folder.getRoot());
+        assertEquals("b", Resources.getObjectSpec(20000).name);
+
+        // the same definition wins after a reload
+        watcher.start();
+        long count = watcher.getReloadCount();
+        writeModel("a.json", 20000, "a2");
+        waitForReload(count);
+        assertEquals("b", Resources.getObjectSpec(20000).name);
+    }
+
+    private void waitForReload(long previousCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (watcher.getReloadCount() == previousCount) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("models folder not reloaded");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private void writeModel(String fileName, int objectId, String name) throws IOException {
+        write(fileName, "[ { \"id\": " + objectId + ", \"name\": \"" + name
+                + "\", \"instancetype\": \"single\", \"mandatory\": false, \"description\": \"\", "
+                + "\"resourcedefs\": [] } ]");
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        try (OutputStream out = new FileOutputStream(new File(folder.getRoot(), fileName))) {
+            out.write(content.getBytes(Charsets.UTF_8));
+        }
+    }
+}
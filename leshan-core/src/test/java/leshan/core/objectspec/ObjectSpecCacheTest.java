@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.core.objectspec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import leshan.util.Charsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link ObjectSpecCache}
+ */
+public class ObjectSpecCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_and_read_default_object_specs() throws IOException {
+        List<ObjectSpec> objectSpecs = Resources.loadDefaultObjectSpecs();
+        byte[] hash = ObjectSpecCache.hashSources(null);
+        File cacheFile = new File(folder.getRoot(), "objectspec.cache");
+
+        ObjectSpecCache.write(Collections.singletonMap(Resources.EMBEDDED_SOURCE, objectSpecs), hash, cacheFile);
+        List<ObjectSpec> cached = ObjectSpecCache.read(cacheFile, hash).get(Resources.EMBEDDED_SOURCE);
+
+        assertEquals(objectSpecs.size(), cached.size());
+        for (int i = 0; i < objectSpecs.size(); i++) {
+            assertObjectSpecEquals(objectSpecs.get(i), cached.get(i));
+        }
+    }
+
+    @Test
+    public void keep_the_source_of_each_object_spec() throws IOException {
+        Map<String, List<ObjectSpec>> objectSpecs = new LinkedHashMap<>();
+        objectSpecs.put(Resources.EMBEDDED_SOURCE, Resources.loadDefaultObjectSpecs().subList(0, 2));
+        objectSpecs.put("custom.xml", Resources.loadDefaultObjectSpecs().subList(2, 3));
+        byte[] hash = ObjectSpecCache.hashSources(null);
+        File cacheFile = new File(folder.getRoot(), "objectspec.cache");
+
+        ObjectSpecCache.write(objectSpecs, hash, cacheFile);
+        Map<String, List<ObjectSpec>> cached = ObjectSpecCache.read(cacheFile, hash);
+
+        assertEquals(objectSpecs.keySet(), cached.keySet());
+        assertEquals(2, cached.get(Resources.EMBEDDED_SOURCE).size());
+        assertObjectSpecEquals(objectSpecs.get("custom.xml").get(0), cached.get("custom.xml").get(0));
+    }
+
+    @Test
+    public void ignore_cache_of_other_sources() throws IOException {
+        File modelsFolder = folder.newFolder("models");
+        byte[] hash = ObjectSpecCache.hashSources(modelsFolder);
+        File cacheFile = new File(folder.getRoot(), "objectspec.cache");
+        ObjectSpecCache.write(new HashMap<String, List<ObjectSpec>>(), hash, cacheFile);
+
+        // files which are not models are ignored
+        write(new File(modelsFolder, "README"), "not a model");
+        assertArrayEquals(hash, ObjectSpecCache.hashSources(modelsFolder));
+
+        write(new File(modelsFolder, "custom.json"), "[]");
+        byte[] newHash = ObjectSpecCache.hashSources(modelsFolder);
+        assertFalse(Arrays.equals(hash, newHash));
+        assertNull(ObjectSpecCache.read(cacheFile, newHash));
+        assertNull(ObjectSpecCache.read(new File(folder.getRoot(), "missing.cache"), newHash));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_truncated_cache() throws IOException {
+        byte[] hash = ObjectSpecCache.hashSources(null);
+        File cacheFile = new File(folder.getRoot(), "objectspec.cache");
+        ObjectSpecCache.write(Resources.parseObjectSpecs(null), hash, cacheFile);
+
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        ObjectSpecCache.read(cacheFile, hash);
+    }
+
+    private static void assertObjectSpecEquals(ObjectSpec expected, ObjectSpec actual) {
+        assertEquals(expected.toString(), actual.toString());
+
+        // resources order is kept
+        Iterator<Integer> actualIds = actual.resources.keySet().iterator();
+        for (Integer id : expected.resources.keySet()) {
+            assertEquals(id, actualIds.next());
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(Charsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.core.objectspec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import leshan.core.objectspec.ResourceSpec.Operations;
+import leshan.core.objectspec.ResourceSpec.Type;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link ObjectSpecTable}
+ */
+public class ObjectSpecTableTest {
+
+    @Test
+    public void lookup_objects_and_resources() {
+        List<ObjectSpec> objectSpecs = new ArrayList<>();
+        for (int objectId : new int[] { 0, 1, 3, 1024, 10241, 65535 }) {
+            objectSpecs.add(newObjectSpec(objectId, 0, 1, 13, 65535));
+        }
+        ObjectSpecTable table = new ObjectSpecTable(objectSpecs);
+
+        assertEquals(6, table.getObjectSpecs().size());
+        for (ObjectSpec objectSpec : objectSpecs) {
+            assertSame(objectSpec, table.getObjectSpec(objectSpec.id));
+            for (ResourceSpec resourceSpec : objectSpec.resources.values()) {
+                assertSame(resourceSpec, table.getResourceSpec(objectSpec.id, resourceSpec.id));
+            }
+            assertNull(table.getResourceSpec(objectSpec.id, 2));
+        }
+        assertNull(table.getObjectSpec(2));
+        assertNull(table.getResourceSpec(2, 0));
+        assertNull(ObjectSpecTable.EMPTY.getResourceSpec(3, 0));
+    }
+
+    @Test
+    public void last_definition_wins() {
+        ObjectSpec first = newObjectSpec(3, 0, 1);
+        ObjectSpec second = newObjectSpec(3, 2);
+        ObjectSpecTable table = new ObjectSpecTable(Arrays.asList(first, second));
+
+        assertEquals(1, table.getObjectSpecs().size());
+        assertSame(second, table.getObjectSpec(3));
+        assertNull(table.getResourceSpec(3, 0));
+        assertSame(second.resources.get(2), table.getResourceSpec(3, 2));
+    }
+
+    private ObjectSpec newObjectSpec(int objectId, int... resourceIds) {
+        Map<Integer, ResourceSpec> resources = new HashMap<>();
+        for (int resourceId : resourceIds) {
+            resources.put(resourceId, new ResourceSpec(resourceId, "resource" + resourceId, Operations.R, false,
+                    false, Type.INTEGER, null, null, null));
+        }
+        return new ObjectSpec(objectId, "object" + objectId, null, false, false, resources);
+    }
+}
@@ -57,6 +57,15 @@ public class TlvDecoderTest {
         Assert.assertTrue(Arrays.equals(bytes, buff.array()));
     }
 
+    @Test
+    public void decode_signed_integers() throws TlvException {
+        Assert.assertEquals(-2L, TlvDecoder.decodeLong(new byte[] { -2 }));
+        Assert.assertEquals(-1234L, TlvDecoder.decodeLong(TlvEncoder.encodeInteger(-1234)));
+        Assert.assertEquals(Long.MIN_VALUE, TlvDecoder.decodeLong(TlvEncoder.encodeInteger(Long.MIN_VALUE)));
+        Assert.assertEquals((short) 1234, TlvDecoder.decodeInteger(new byte[] { 0x04, (byte) 0xD2 }));
+        Assert.assertEquals(-3.5D, TlvDecoder.decodeDouble(TlvEncoder.encodeFloat(-3.5D)), 0);
+    }
+
     protected byte[] hexStringToByteArray(String hexString) {
 
         if (hexString.length() % 2 > 0) {
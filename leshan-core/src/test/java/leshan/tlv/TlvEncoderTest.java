@@ -29,11 +29,14 @@
  */
 package leshan.tlv;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.nio.ByteBuffer;
 import java.util.Date;
 
+import leshan.tlv.Tlv.TlvType;
+
 import org.junit.Test;
 
 public class TlvEncoderTest {
@@ -89,4 +92,14 @@ public class TlvEncoderTest {
         assertEquals(1, encoded[0]);
     }
 
+    @Test
+    public void encode_16bits_identifier() {
+        Tlv[] tlvs = new Tlv[] { new Tlv(TlvType.RESOURCE_VALUE, null, new byte[] { 1 }, 1234) };
+        ByteBuffer b = ByteBuffer.allocate(TlvEncoder.encodedSize(tlvs));
+        TlvEncoder.encode(tlvs, b);
+
+        assertEquals(0, b.remaining());
+        assertArrayEquals(new byte[] { (byte) 0b11_1_00_001, 0x04, (byte) 0xD2, 1 }, b.array());
+    }
+
 }
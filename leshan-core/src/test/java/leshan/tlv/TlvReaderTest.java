@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.tlv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import leshan.tlv.Tlv.TlvType;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TlvReader}
+ */
+public class TlvReaderTest {
+
+    @Test
+    public void read_multiple_resource() throws TlvException {
+        // resource 6 with two instances (1 and 5) followed by resource 9 (100)
+        ByteBuffer b = ByteBuffer.wrap(new byte[] { -122, 6, 65, 0, 1, 65, 1, 5, -63, 9, 100 });
+        TlvReader reader = new TlvReader(b);
+
+        assertEquals(2, reader.count());
+
+        assertTrue(reader.next());
+        assertEquals(TlvType.MULTIPLE_RESOURCE, reader.getType());
+        assertEquals(6, reader.getIdentifier());
+
+        reader.enter();
+        assertEquals(2, reader.count());
+        assertTrue(reader.next());
+        assertEquals(TlvType.RESOURCE_INSTANCE, reader.getType());
+        assertEquals(0, reader.getIdentifier());
+        assertEquals(1, TlvDecoder.decodeInteger(b, reader.getValueOffset(), reader.getValueLength()));
+        assertTrue(reader.next());
+        assertEquals(1, reader.getIdentifier());
+        assertEquals(5, TlvDecoder.decodeInteger(b, reader.getValueOffset(), reader.getValueLength()));
+        assertFalse(reader.next());
+        reader.exit();
+
+        assertTrue(reader.next());
+        assertEquals(TlvType.RESOURCE_VALUE, reader.getType());
+        assertEquals(9, reader.getIdentifier());
+        assertEquals(100, TlvDecoder.decodeInteger(b, reader.getValueOffset(), reader.getValueLength()));
+        assertFalse(reader.next());
+
+        // the buffer is left untouched
+        assertEquals(0, b.position());
+    }
+
+    @Test
+    public void read_24bits_length() throws TlvException {
+        byte[] value = new byte[70_000];
+        ByteBuffer b = TlvEncoder.encode(new Tlv[] { new Tlv(TlvType.RESOURCE_VALUE, null, value, 1) });
+
+        TlvReader reader = new TlvReader(b);
+        assertTrue(reader.next());
+        assertEquals(70_000, reader.getValueLength());
+        assertFalse(reader.next());
+    }
+
+    @Test(expected = TlvException.class)
+    public void read_truncated_value() throws TlvException {
+        TlvReader reader = new TlvReader(ByteBuffer.wrap(new byte[] { -56, 0, 20, 79, 112 }));
+        reader.next();
+    }
+}
@@ -29,10 +29,15 @@
  */
 package leshan.server.californium;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 import leshan.server.LwM2mServer;
+import leshan.server.californium.impl.CaliforniumLwM2mRequestSender;
 import leshan.server.californium.impl.LeshanServer;
 import leshan.server.client.ClientRegistry;
 import leshan.server.impl.ClientRegistryImpl;
@@ -41,6 +46,10 @@ import leshan.server.impl.SecurityRegistryImpl;
 import leshan.server.observation.ObservationRegistry;
 import leshan.server.security.SecurityRegistry;
 
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Class helping you to build and configure a Californium based Leshan Lightweight M2M server. Usage: create it, call
  * the different setters for changing the configuration and then call the {@link #build()} method for creating the
@@ -48,6 +57,8 @@ import leshan.server.security.SecurityRegistry;
  */
 public class LeshanServerBuilder {
 
+    private static final Logger LOG = LoggerFactory.getLogger(LeshanServerBuilder.class);
+
     /** IANA assigned UDP port for CoAP (so for LWM2M) */
     public static final int PORT = 5683;
 
@@ -59,6 +70,10 @@ public class LeshanServerBuilder {
     private ClientRegistry clientRegistry;
     private InetSocketAddress localAddress;
     private InetSocketAddress localAddressSecure;
+    private final List<InetSocketAddress> additionalAddresses = new ArrayList<>();
+    private final List<InetSocketAddress> additionalAddressesSecure = new ArrayList<>();
+    private NetworkConfig networkConfig;
+    private int maxInFlightRequestsPerClient = CaliforniumLwM2mRequestSender.NO_IN_FLIGHT_LIMIT;
 
     public LeshanServerBuilder setLocalAddress(String hostname, int port) {
         this.localAddress = new InetSocketAddress(hostname, port);
@@ -80,6 +95,87 @@ public class LeshanServerBuilder {
         return this;
     }
 
+    /**
+     * Binds an additional CoAP endpoint. Each endpoint has its own socket, receive threads and protocol stage thread
+     * pool, use several endpoints (e.g. one per core or per network interface) to spread a heavy UDP load.
+     */
+    public LeshanServerBuilder addLocalAddress(InetSocketAddress localAddress) {
+        this.additionalAddresses.add(localAddress);
+        return this;
+    }
+
+    /**
+     * Binds an additional CoAP endpoint for DTLS connection.
+     * 
+     * @see #addLocalAddress(InetSocketAddress)
+     */
+    public LeshanServerBuilder addLocalAddressSecure(InetSocketAddress localAddressSecure) {
+        this.additionalAddressesSecure.add(localAddressSecure);
+        return this;
+    }
+
+    /**
+     * Sets the Californium configuration applied to each endpoint. The standard configuration is used by default.
+     */
+    public LeshanServerBuilder setNetworkConfig(NetworkConfig networkConfig) {
+        this.networkConfig = networkConfig;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads of the protocol stage pool of each endpoint.
+     */
+    public LeshanServerBuilder setProtocolStageThreadCount(int threadCount) {
+        networkConfig().setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, threadCount);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads receiving datagrams on each (non secure) endpoint.
+     */
+    public LeshanServerBuilder setReceiverThreadCount(int threadCount) {
+        networkConfig().setInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT, threadCount);
+        return this;
+    }
+
+    /**
+     * Sets the sizes of the socket buffers of each (non secure) endpoint, in bytes.
+     */
+    public LeshanServerBuilder setSocketBufferSizes(int receiveBufferSize, int sendBufferSize) {
+        networkConfig().setInt(NetworkConfig.Keys.UDP_CONNECTOR_RECEIVE_BUFFER, receiveBufferSize);
+        networkConfig().setInt(NetworkConfig.Keys.UDP_CONNECTOR_SEND_BUFFER, sendBufferSize);
+        return this;
+    }
+
+    /**
+     * Limits the number of requests in flight for each client, the next requests wait in a queue owned by the client.
+     * Constrained devices often handle a single exchange at a time (CoAP NSTART=1). There is no limit by default.
+     */
+    public LeshanServerBuilder setMaxInFlightRequestsPerClient(int maxInFlightRequestsPerClient) {
+        this.maxInFlightRequestsPerClient = maxInFlightRequestsPerClient;
+        return this;
+    }
+
+    /**
+     * The configuration changed by the shortcut setters: the one given to {@link #setNetworkConfig(NetworkConfig)} or a
+     * new one with the values of the Californium.properties file. The standard configuration is not changed, it is
+     * shared by the JVM.
+     */
+    private NetworkConfig networkConfig() {
+        if (networkConfig == null) {
+            networkConfig = new NetworkConfig();
+            File file = new File(NetworkConfig.DEFAULT);
+            if (file.exists()) {
+                try {
+                    networkConfig.load(file);
+                } catch (IOException e) {
+                    LOG.warn("Unable to load the Californium configuration " + file, e);
+                }
+            }
+        }
+        return networkConfig;
+    }
+
     public LeshanServerBuilder setClientRegistry(ClientRegistry clientRegistry) {
         this.clientRegistry = clientRegistry;
         return this;
@@ -106,6 +202,17 @@ public class LeshanServerBuilder {
             securityRegistry = new SecurityRegistryImpl();
         if (observationRegistry == null)
             observationRegistry = new ObservationRegistryImpl();
-        return new LeshanServer(localAddress, localAddressSecure, clientRegistry, securityRegistry, observationRegistry);
+        if (networkConfig == null)
+            networkConfig = NetworkConfig.getStandard();
+
+        List<InetSocketAddress> localAddresses = new ArrayList<>();
+        localAddresses.add(localAddress);
+        localAddresses.addAll(additionalAddresses);
+        List<InetSocketAddress> localAddressesSecure = new ArrayList<>();
+        localAddressesSecure.add(localAddressSecure);
+        localAddressesSecure.addAll(additionalAddressesSecure);
+
+        return new LeshanServer(localAddresses, localAddressesSecure, networkConfig, clientRegistry, securityRegistry,
+                observationRegistry, maxInFlightRequestsPerClient);
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium.impl;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import leshan.server.client.Client;
+import leshan.util.Validate;
+
+import org.eclipse.californium.core.network.Endpoint;
+
+/**
+ * Selects the CoAP endpoint bound to the same network address and port that the client connected to during
+ * registration.
+ * <p>
+ * Endpoints are indexed by address, so the lookup does not depend on the number of endpoints. Endpoint addresses may
+ * change when they are started (e.g. ephemeral port): when an address is not indexed, the endpoints are scanned and
+ * the index is rebuilt only if one of them has changed its address.
+ * </p>
+ */
+public class AddressEndpointSelector implements EndpointSelector {
+
+    private final Collection<Endpoint> endpoints;
+    private volatile Map<InetSocketAddress, Endpoint> endpointsByAddress;
+
+    /**
+     * @param endpoints the CoAP endpoints of the server
+     */
+    public AddressEndpointSelector(Collection<Endpoint> endpoints) {
+        Validate.notNull(endpoints);
+        this.endpoints = endpoints;
+        this.endpointsByAddress = index(endpoints);
+    }
+
+    @Override
+    public Endpoint getEndpoint(Client client) {
+        InetSocketAddress address = client.getRegistrationEndpointAddress();
+        Endpoint endpoint = endpointsByAddress.get(address);
+        if (endpoint == null) {
+            for (Endpoint e : endpoints) {
+                if (e.getAddress().equals(address)) {
+                    endpoint = e;
+                    break;
+                }
+            }
+            if (endpoint == null) {
+                throw new IllegalStateException("can't find the client endpoint for address : " + address);
+            }
+            // the endpoint address has changed since the index was built
+            endpointsByAddress = index(endpoints);
+        }
+        return endpoint;
+    }
+
+    private static Map<InetSocketAddress, Endpoint> index(Collection<Endpoint> endpoints) {
+        Map<InetSocketAddress, Endpoint> index = new HashMap<>();
+        for (Endpoint endpoint : endpoints) {
+            index.put(endpoint.getAddress(), endpoint);
+        }
+        return index;
+    }
+}
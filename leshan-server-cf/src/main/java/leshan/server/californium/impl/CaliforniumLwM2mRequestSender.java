@@ -29,18 +29,21 @@
  */
 package leshan.server.californium.impl;
 
-import java.net.InetSocketAddress;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 import leshan.core.response.ClientResponse;
 import leshan.core.response.ExceptionConsumer;
 import leshan.core.response.ResponseConsumer;
+import leshan.server.Destroyable;
+import leshan.server.californium.impl.ClientRequestDispatcher.SendListener;
 import leshan.server.client.Client;
 import leshan.server.observation.ObservationRegistry;
 import leshan.server.request.LwM2mRequest;
@@ -48,6 +51,7 @@ import leshan.server.request.LwM2mRequestSender;
 import leshan.server.request.RejectionException;
 import leshan.server.request.RequestTimeoutException;
 import leshan.server.request.ResourceAccessException;
+import leshan.server.request.ResponseFuture;
 import leshan.util.Validate;
 
 import org.eclipse.californium.core.coap.MessageObserverAdapter;
@@ -57,14 +61,19 @@ import org.eclipse.californium.core.network.Endpoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class CaliforniumLwM2mRequestSender implements LwM2mRequestSender {
+public class CaliforniumLwM2mRequestSender implements LwM2mRequestSender, Destroyable {
 
     private static final Logger LOG = LoggerFactory.getLogger(CaliforniumLwM2mRequestSender.class);
-    private static final int COAP_REQUEST_TIMEOUT_MILLIS = 5000;
+    static final int COAP_REQUEST_TIMEOUT_MILLIS = 5000;
 
-    private final Set<Endpoint> endpoints;
+    /** No limit on the number of requests in flight for a client, the default */
+    public static final int NO_IN_FLIGHT_LIMIT = Integer.MAX_VALUE;
+
+    private final EndpointSelector endpointSelector;
     private final ObservationRegistry observationRegistry;
     private final long timeoutMillis;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ClientRequestDispatcher dispatcher;
 
     /**
      * @param endpoints the CoAP endpoints to use for sending requests
@@ -77,120 +86,210 @@ public class CaliforniumLwM2mRequestSender implements LwM2mRequestSender {
     /**
      * @param endpoints the CoAP endpoints to use for sending requests
      * @param observationRegistry the registry for keeping track of observed resources
-     * @param timeoutMillis timeout for synchronously sending of CoAP request
+     * @param timeoutMillis timeout for sending of CoAP request
      */
     public CaliforniumLwM2mRequestSender(final Set<Endpoint> endpoints, final ObservationRegistry observationRegistry,
             final long timeoutMillis) {
-        Validate.notNull(endpoints);
+        this(endpoints, observationRegistry, timeoutMillis, NO_IN_FLIGHT_LIMIT);
+    }
+
+    /**
+     * @param endpoints the CoAP endpoints to use for sending requests
+     * @param observationRegistry the registry for keeping track of observed resources
+     * @param timeoutMillis timeout for sending of CoAP request, starting when the request leaves the client queue
+     * @param maxInFlightPerClient the maximum number of requests in flight for a given client, next requests are queued
+     *        ({@link #NO_IN_FLIGHT_LIMIT} to send all the requests at once). Constrained devices often handle a single
+     *        exchange at a time (CoAP NSTART=1).
+     */
+    public CaliforniumLwM2mRequestSender(final Set<Endpoint> endpoints, final ObservationRegistry observationRegistry,
+            final long timeoutMillis, final int maxInFlightPerClient) {
+        this(new AddressEndpointSelector(endpoints), observationRegistry, timeoutMillis, maxInFlightPerClient);
+    }
+
+    /**
+     * @param endpointSelector the strategy choosing the CoAP endpoint used to reach a client
+     * @param observationRegistry the registry for keeping track of observed resources
+     * @param timeoutMillis timeout for sending of CoAP request, starting when the request leaves the client queue
+     * @param maxInFlightPerClient the maximum number of requests in flight for a given client, next requests are queued
+     *        ({@link #NO_IN_FLIGHT_LIMIT} to send all the requests at once)
+     */
+    public CaliforniumLwM2mRequestSender(final EndpointSelector endpointSelector,
+            final ObservationRegistry observationRegistry, final long timeoutMillis, final int maxInFlightPerClient) {
+        Validate.notNull(endpointSelector);
         Validate.notNull(observationRegistry);
+        Validate.isTrue(maxInFlightPerClient > 0, "maxInFlightPerClient must be positive");
         this.observationRegistry = observationRegistry;
-        this.endpoints = endpoints;
+        this.endpointSelector = endpointSelector;
         this.timeoutMillis = timeoutMillis;
+        this.dispatcher = maxInFlightPerClient == NO_IN_FLIGHT_LIMIT ? null : new ClientRequestDispatcher(
+                maxInFlightPerClient);
+
+        // a single timer thread handles the timeouts of all the pending requests
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Leshan request timeouts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
     }
 
     @Override
     public <T extends ClientResponse> T send(final LwM2mRequest<T> request) {
+        final ResponseFuture<T> future = sendAsync(request);
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            // no idea why some other thread should have interrupted this thread
+            // but anyway, go ahead as if the timeout had been reached
+            LOG.debug("Caught an unexpected InterruptedException during execution of CoAP request", e);
+            future.cancel(false);
+            return null;
+        } catch (final CancellationException e) {
+            return null;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RejectionException) {
+                return null;
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    @Override
+    public <T extends ClientResponse> ResponseFuture<T> sendAsync(final LwM2mRequest<T> request) {
         // Create the CoAP request from LwM2m request
-        final CoapRequestBuilder CoapRequestBuilder = new CoapRequestBuilder();
-        request.accept(CoapRequestBuilder);
-        final Request coapRequest = CoapRequestBuilder.getRequest();
+        final Request coapRequest = buildCoapRequest(request);
 
-        // Send CoAP request synchronously
-        final SyncRequestObserver<T> syncMessageObserver = new SyncRequestObserver<T>(coapRequest, request.getClient(),
-                timeoutMillis) {
-            @Override
-            public T buildResponse(final Response coapResponse) {
-                // Build LwM2m response
-                final LwM2mResponseBuilder<T> lwm2mResponseBuilder = new LwM2mResponseBuilder<T>(coapRequest, coapResponse,
-                        observationRegistry);
-                request.accept(lwm2mResponseBuilder);
-                return lwm2mResponseBuilder.getResponse();
-            }
-        };
-        coapRequest.addMessageObserver(syncMessageObserver);
+        // Add CoAP request callback, completing the future
+        final FutureRequestObserver<T> observer = new FutureRequestObserver<T>(request, coapRequest);
+        coapRequest.addMessageObserver(observer);
 
         // Send CoAP request asynchronously
-        final Endpoint endpoint = getEndpointForClient(request.getClient());
-        endpoint.sendRequest(coapRequest);
+        dispatch(request.getClient(), coapRequest, observer);
 
-        // Wait for response, then return it
-        return syncMessageObserver.waitForResponse();
+        return observer.future;
+    }
+
+    /**
+     * Stops the timer used for request timeouts.
+     */
+    @Override
+    public void destroy() {
+        timer.shutdownNow();
     }
 
     @Override
     public <T extends ClientResponse> void send(final LwM2mRequest<T> request, final ResponseConsumer<T> responseCallback,
             final ExceptionConsumer errorCallback) {
         // Create the CoAP request from LwM2m request
-        final CoapRequestBuilder CoapRequestBuilder = new CoapRequestBuilder();
-        request.accept(CoapRequestBuilder);
-        final Request coapRequest = CoapRequestBuilder.getRequest();
+        final Request coapRequest = buildCoapRequest(request);
 
         // Add CoAP request callback
-        coapRequest.addMessageObserver(new AsyncRequestObserver<T>(coapRequest, request.getClient(), responseCallback,
-                errorCallback) {
-            @Override
-            public T buildResponse(final Response coapResponse) {
-                // Build LwM2m response
-                final LwM2mResponseBuilder<T> lwm2mResponseBuilder = new LwM2mResponseBuilder<T>(coapRequest, coapResponse,
-                        observationRegistry);
-                request.accept(lwm2mResponseBuilder);
-                return lwm2mResponseBuilder.getResponse();
-            }
-        });
+        final AsyncRequestObserver<T> observer = new AsyncRequestObserver<T>(request, coapRequest, responseCallback,
+                errorCallback);
+        coapRequest.addMessageObserver(observer);
 
         // Send CoAP request asynchronously
-        final Endpoint endpoint = getEndpointForClient(request.getClient());
-        endpoint.sendRequest(coapRequest);
+        dispatch(request.getClient(), coapRequest, observer);
+    }
+
+    private void dispatch(final Client client, final Request coapRequest, final SendListener listener) {
+        final Endpoint endpoint = endpointSelector.getEndpoint(client);
+        if (dispatcher == null) {
+            listener.onSent();
+            endpoint.sendRequest(coapRequest);
+        } else {
+            dispatcher.dispatch(client, endpoint, coapRequest, listener);
+        }
+    }
+
+    private static Request buildCoapRequest(final LwM2mRequest<?> request) {
+        final CoapRequestBuilder coapRequestBuilder = new CoapRequestBuilder();
+        request.accept(coapRequestBuilder);
+        return coapRequestBuilder.getRequest();
     }
 
     /**
-     * Gets the CoAP endpoint that should be used to communicate with a given client.
-     *
-     * @param client the client
-     * @return the CoAP endpoint bound to the same network address and port that the client connected to during
-     *         registration. If no such CoAP endpoint is available, the first CoAP endpoint from the list of registered
-     *         endpoints is returned
+     * @return the number of requests waiting for their client to have a free slot
      */
-    private Endpoint getEndpointForClient(final Client client) {
-        for (final Endpoint ep : endpoints) {
-            final InetSocketAddress endpointAddress = ep.getAddress();
-            if (endpointAddress.equals(client.getRegistrationEndpointAddress())) {
-                return ep;
-            }
-        }
-        throw new IllegalStateException("can't find the client endpoint for address : "
-                + client.getRegistrationEndpointAddress());
+    public int getQueuedRequestsCount() {
+        return dispatcher == null ? 0 : dispatcher.getQueuedCount();
+    }
+
+    /**
+     * @return the mean time spent by the requests waiting for their client to have a free slot, in milliseconds
+     */
+    public long getMeanQueueTime() {
+        return dispatcher == null ? 0 : dispatcher.getMeanQueueTime();
+    }
+
+    /**
+     * @return the max time spent by a request waiting for its client to have a free slot, in milliseconds
+     */
+    public long getMaxQueueTime() {
+        return dispatcher == null ? 0 : dispatcher.getMaxQueueTime();
     }
 
     // ////// Request Observer Class definition/////////////
 
     private abstract class AbstractRequestObserver<T extends ClientResponse> extends MessageObserverAdapter {
-        Request coapRequest;
-        Client client;
+        final LwM2mRequest<T> request;
+        final Request coapRequest;
+        final Client client;
 
-        public AbstractRequestObserver(final Request coapRequest, final Client client) {
+        public AbstractRequestObserver(final LwM2mRequest<T> request, final Request coapRequest) {
+            this.request = request;
             this.coapRequest = coapRequest;
-            this.client = client;
+            this.client = request.getClient();
         }
 
-        public abstract T buildResponse(Response coapResponse);
+        T buildResponse(final Response coapResponse) {
+            return LwM2mResponseBuilder.buildResponse(request, coapRequest, coapResponse, observationRegistry);
+        }
     }
 
-    private abstract class AsyncRequestObserver<T extends ClientResponse> extends AbstractRequestObserver<T> {
+    /**
+     * Calls the callbacks of a request, also acting as the task failing the request on timeout. The timeout is
+     * scheduled on the shared timer when the request leaves the client queue, the callbacks are called only once.
+     */
+    private class AsyncRequestObserver<T extends ClientResponse> extends AbstractRequestObserver<T> implements
+            Runnable, SendListener {
 
-        ResponseConsumer<T> responseCallback;
-        ExceptionConsumer errorCallback;
+        final ResponseConsumer<T> responseCallback;
+        final ExceptionConsumer errorCallback;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        volatile ScheduledFuture<?> timeoutTask;
 
-        AsyncRequestObserver(final Request coapRequest, final Client client, final ResponseConsumer<T> responseCallback,
-                final ExceptionConsumer errorCallback) {
-            super(coapRequest, client);
+        AsyncRequestObserver(final LwM2mRequest<T> request, final Request coapRequest,
+                final ResponseConsumer<T> responseCallback, final ExceptionConsumer errorCallback) {
+            super(request, coapRequest);
             this.responseCallback = responseCallback;
             this.errorCallback = errorCallback;
         }
 
+        @Override
+        public void onSent() {
+            timeoutTask = timer.schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            // the request has timed out
+            if (complete()) {
+                client.markLastRequestTimedout();
+                coapRequest.cancel();
+                errorCallback.accept(new RequestTimeoutException(coapRequest.getURI(), timeoutMillis));
+            }
+        }
+
         @Override
         public void onResponse(final Response coapResponse) {
             LOG.debug("Received coap response: {}", coapResponse);
+            if (!complete()) {
+                return;
+            }
             try {
                 final T lwM2mResponseT = buildResponse(coapResponse);
                 if (lwM2mResponseT != null) {
@@ -198,98 +297,116 @@ public class CaliforniumLwM2mRequestSender implements LwM2mRequestSender {
                 }
             } catch (final ResourceAccessException e) {
                 errorCallback.accept(e);
-            } finally {
-                coapRequest.removeMessageObserver(this);
             }
         }
 
         @Override
         public void onTimeout() {
-            client.markLastRequestTimedout();
-            errorCallback.accept(new TimeoutException());
+            if (complete()) {
+                client.markLastRequestTimedout();
+                errorCallback.accept(new TimeoutException());
+            }
         }
 
         @Override
         public void onCancel() {
-            errorCallback.accept(new CancellationException());
+            if (complete()) {
+                errorCallback.accept(new CancellationException());
+            }
         }
 
         @Override
         public void onReject() {
-            errorCallback.accept(new RejectionException());
+            if (complete()) {
+                errorCallback.accept(new RejectionException());
+            }
         }
 
+        private boolean complete() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            final ScheduledFuture<?> task = timeoutTask;
+            if (task != null) {
+                task.cancel(false);
+            }
+            coapRequest.removeMessageObserver(this);
+            return true;
+        }
     }
 
-    private abstract class SyncRequestObserver<T extends ClientResponse> extends AbstractRequestObserver<T> {
+    /**
+     * Completes the future of a request, also acting as the task failing the request on timeout. The timeout is
+     * scheduled on the shared timer when the request leaves the client queue.
+     */
+    private class FutureRequestObserver<T extends ClientResponse> extends AbstractRequestObserver<T> implements
+            Runnable, SendListener {
 
-        CountDownLatch latch = new CountDownLatch(1);
-        AtomicReference<T> ref = new AtomicReference<T>(null);
-        AtomicBoolean coapTimeout = new AtomicBoolean(false);
-        AtomicReference<RuntimeException> exception = new AtomicReference<>();
+        final ResponseFuture<T> future;
+        volatile ScheduledFuture<?> timeoutTask;
 
-        long timeout;
+        FutureRequestObserver(final LwM2mRequest<T> request, final Request coapRequest) {
+            super(request, coapRequest);
+            this.future = new ResponseFuture<T>(new Runnable() {
+                @Override
+                public void run() {
+                    coapRequest.cancel();
+                }
+            });
+        }
 
-        public SyncRequestObserver(final Request coapRequest, final Client client, final long timeout) {
-            super(coapRequest, client);
-            this.timeout = timeout;
+        @Override
+        public void onSent() {
+            timeoutTask = timer.schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            // the request has timed out
+            if (future.fail(new RequestTimeoutException(coapRequest.getURI(), timeoutMillis))) {
+                client.markLastRequestTimedout();
+                coapRequest.cancel();
+            }
         }
 
         @Override
         public void onResponse(final Response coapResponse) {
             LOG.debug("Received coap response: {}", coapResponse);
             try {
-                final T lwM2mResponseT = buildResponse(coapResponse);
-                if (lwM2mResponseT != null) {
-                    ref.set(lwM2mResponseT);
-                }
+                future.complete(buildResponse(coapResponse));
             } catch (final RuntimeException e) {
-                exception.set(e);
+                future.fail(e);
             } finally {
-                latch.countDown();
+                release();
             }
         }
 
         @Override
         public void onTimeout() {
-            coapTimeout.set(true);
-            latch.countDown();
+            if (future.fail(new RequestTimeoutException(coapRequest.getURI(), timeoutMillis))) {
+                client.markLastRequestTimedout();
+            }
+            release();
         }
 
         @Override
         public void onCancel() {
-            latch.countDown();
+            future.fail(new CancellationException());
+            release();
         }
 
         @Override
         public void onReject() {
-            latch.countDown();
+            future.fail(new RejectionException());
+            release();
         }
 
-        public T waitForResponse() {
-            try {
-                final boolean latchTimeout = latch.await(timeout, TimeUnit.MILLISECONDS);
-                if (!latchTimeout || coapTimeout.get()) {
-                    client.markLastRequestTimedout();
-                    coapRequest.cancel();
-                    if (exception.get() != null) {
-                        throw exception.get();
-                    } else {
-                        throw new RequestTimeoutException(coapRequest.getURI(), timeout);
-                    }
-                }
-            } catch (final InterruptedException e) {
-                // no idea why some other thread should have interrupted this thread
-                // but anyway, go ahead as if the timeout had been reached
-                LOG.debug("Caught an unexpected InterruptedException during execution of CoAP request", e);
-            } finally {
-                coapRequest.removeMessageObserver(this);
-            }
-
-            if (exception.get() != null) {
-                throw exception.get();
+        private void release() {
+            final ScheduledFuture<?> task = timeoutTask;
+            if (task != null) {
+                task.cancel(false);
             }
-            return ref.get();
+            coapRequest.removeMessageObserver(this);
         }
     }
 }
@@ -32,14 +32,11 @@ package leshan.server.californium.impl;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-import leshan.ResponseCode;
-import leshan.core.node.LwM2mNode;
 import leshan.core.node.LwM2mPath;
 import leshan.core.node.codec.InvalidValueException;
-import leshan.core.node.codec.LwM2mNodeDecoder;
 import leshan.core.request.ContentFormat;
-import leshan.core.response.ValueResponse;
 import leshan.server.client.Client;
+import leshan.server.observation.Notification;
 import leshan.server.observation.Observation;
 import leshan.server.observation.ObservationListener;
 import leshan.util.Validate;
@@ -88,17 +85,17 @@ public final class CaliforniumObservation extends MessageObserverAdapter impleme
     @Override
     public void onResponse(Response coapResponse) {
         if (coapResponse.getCode() == CoAP.ResponseCode.CHANGED) {
-            try {
-                LwM2mNode content = LwM2mNodeDecoder.decode(coapResponse.getPayload(),
-                        ContentFormat.fromCode(coapResponse.getOptions().getContentFormat()), path);
-                ValueResponse response = new ValueResponse(ResponseCode.CHANGED, content);
-
-                for (ObservationListener listener : listeners) {
-                    listener.newValue(this, response.getContent());
+            // the payload is decoded at most once, and only if a listener needs the content
+            Notification notification = new Notification(coapResponse.getPayload(),
+                    ContentFormat.fromCode(coapResponse.getOptions().getContentFormat()), path);
+
+            for (ObservationListener listener : listeners) {
+                try {
+                    notification.deliverTo(listener, this);
+                } catch (InvalidValueException e) {
+                    String msg = String.format("[%s] ([%s])", e.getMessage(), e.getPath().toString());
+                    LOG.debug(msg);
                 }
-            } catch (InvalidValueException e) {
-                String msg = String.format("[%s] ([%s])", e.getMessage(), e.getPath().toString());
-                LOG.debug(msg);
             }
         }
     }
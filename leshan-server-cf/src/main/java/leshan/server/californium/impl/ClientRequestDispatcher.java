@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import leshan.server.client.Client;
+
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+
+/**
+ * Limits the number of CoAP requests in flight for each client.
+ * <p>
+ * Constrained devices can only handle a few outstanding exchanges (NSTART=1 by default): requests exceeding the limit
+ * wait in a FIFO queue owned by the client and are sent as soon as a previous exchange completes (response, timeout,
+ * cancellation or rejection). Each client has its own queue, so a busy client never delays the requests to the others.
+ * </p>
+ */
+class ClientRequestDispatcher {
+
+    /**
+     * Notified when a request leaves the queue to be sent.
+     */
+    interface SendListener {
+
+        void onSent();
+    }
+
+    private final int maxInFlight;
+
+    // registration id => queue
+    private final ConcurrentMap<String, ClientQueue> queues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong dequeuedCount = new AtomicLong();
+    private final AtomicLong totalQueueTime = new AtomicLong();
+    private final AtomicLong maxQueueTime = new AtomicLong();
+
+    ClientRequestDispatcher(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Sends the request to the client, or queues it if the client already has too many requests in flight.
+     * 
+     * @param listener notified just before the request is actually sent (may be <code>null</code>)
+     */
+    void dispatch(Client client, Endpoint endpoint, Request coapRequest, SendListener listener) {
+        String registrationId = client.getRegistrationId();
+        Dispatch dispatch;
+        for (;;) {
+            ClientQueue queue = queues.get(registrationId);
+            if (queue == null) {
+                queue = new ClientQueue(registrationId);
+                ClientQueue previous = queues.putIfAbsent(registrationId, queue);
+                if (previous != null) {
+                    queue = previous;
+                }
+            }
+            dispatch = new Dispatch(queue, endpoint, coapRequest, listener);
+            synchronized (queue) {
+                if (queue.removed) {
+                    // the queue has just been released, retry with a new one
+                    continue;
+                }
+                if (queue.inFlight >= maxInFlight) {
+                    dispatch.queued = true;
+                    queue.waiting.add(dispatch);
+                    queuedCount.incrementAndGet();
+                    coapRequest.addMessageObserver(dispatch);
+                    return;
+                }
+                queue.inFlight++;
+            }
+            break;
+        }
+        coapRequest.addMessageObserver(dispatch);
+        dispatch.send();
+    }
+
+    /**
+     * Called when an exchange is over: hands the slot over to the next waiting request of the client.
+     */
+    private void release(ClientQueue queue) {
+        Dispatch next;
+        synchronized (queue) {
+            next = queue.waiting.poll();
+            if (next != null) {
+                queuedCount.decrementAndGet();
+            } else {
+                queue.inFlight--;
+                if (queue.inFlight == 0) {
+                    queue.removed = true;
+                    queues.remove(queue.registrationId, queue);
+                }
+            }
+        }
+        if (next != null) {
+            next.send();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting for a free slot
+     */
+    int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    /**
+     * @return the number of requests sent to the clients
+     */
+    long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * @return the mean time spent waiting for a free slot by the requests which were queued, in milliseconds
+     */
+    long getMeanQueueTime() {
+        long count = dequeuedCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueueTime.get() / count);
+    }
+
+    /**
+     * @return the max time spent by a request waiting for a free slot, in milliseconds
+     */
+    long getMaxQueueTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxQueueTime.get());
+    }
+
+    private static class ClientQueue {
+
+        final String registrationId;
+
+        // guarded by this
+        final Deque<Dispatch> waiting = new ArrayDeque<>();
+        int inFlight = 0;
+        boolean removed = false;
+
+        ClientQueue(String registrationId) {
+            this.registrationId = registrationId;
+        }
+    }
+
+    /**
+     * A request going through the dispatcher, observing its exchange to release the slot it holds.
+     */
+    private class Dispatch extends MessageObserverAdapter {
+
+        private final ClientQueue queue;
+        private final Endpoint endpoint;
+        private final Request coapRequest;
+        private final SendListener listener;
+        private final long queuedAt = System.nanoTime();
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        // set before the dispatch is published in the queue
+        private boolean queued = false;
+
+        Dispatch(ClientQueue queue, Endpoint endpoint, Request coapRequest, SendListener listener) {
+            this.queue = queue;
+            this.endpoint = endpoint;
+            this.coapRequest = coapRequest;
+            this.listener = listener;
+        }
+
+        private void send() {
+            if (completed.get()) {
+                // cancelled while waiting, the slot has already been released
+                return;
+            }
+            if (queued) {
+                long queueTime = System.nanoTime() - queuedAt;
+                totalQueueTime.addAndGet(queueTime);
+                long max;
+                while ((max = maxQueueTime.get()) < queueTime && !maxQueueTime.compareAndSet(max, queueTime)) {
+                }
+                dequeuedCount.incrementAndGet();
+            }
+            dispatchedCount.incrementAndGet();
+            if (listener != null) {
+                listener.onSent();
+            }
+            endpoint.sendRequest(coapRequest);
+        }
+
+        private void complete() {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            boolean wasWaiting;
+            synchronized (queue) {
+                wasWaiting = queue.waiting.remove(this);
+            }
+            if (wasWaiting) {
+                queuedCount.decrementAndGet();
+                coapRequest.removeMessageObserver(this);
+            } else {
+                release(queue);
+            }
+        }
+
+        @Override
+        public void onResponse(Response response) {
+            // the slot is released on the first response, observe notifications do not count
+            coapRequest.removeMessageObserver(this);
+            complete();
+        }
+
+        @Override
+        public void onTimeout() {
+            complete();
+        }
+
+        @Override
+        public void onCancel() {
+            complete();
+        }
+
+        @Override
+        public void onReject() {
+            complete();
+        }
+    }
+}
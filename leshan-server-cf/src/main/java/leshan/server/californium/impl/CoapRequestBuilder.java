@@ -29,6 +29,11 @@
  */
 package leshan.server.californium.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import leshan.core.node.LwM2mPath;
 import leshan.core.node.codec.LwM2mNodeEncoder;
 import leshan.server.client.Client;
@@ -48,6 +53,21 @@ import org.eclipse.californium.core.coap.Request;
 
 public class CoapRequestBuilder implements LwM2mRequestVisitor {
 
+    // URI path segments of the most common object, instance and resource ids
+    private static final String[] SEGMENTS = new String[1024];
+    static {
+        for (int i = 0; i < SEGMENTS.length; i++) {
+            SEGMENTS[i] = Integer.toString(i).intern();
+        }
+    }
+
+    // root path => URI path segments, clients usually share a handful of root paths
+    private static final int MAX_ROOT_PATHS = 256;
+    private static final ConcurrentMap<String, String[]> ROOT_PATHS = new ConcurrentHashMap<>();
+    private static final String[] NO_SEGMENT = new String[0];
+
+    // no content format cache: the option set belongs to each message and boxes the content format itself
+
     private Request coapRequest;
 
     @Override
@@ -119,29 +139,51 @@ public class CoapRequestBuilder implements LwM2mRequestVisitor {
 
         // root path
         if (client.getRootPath() != null) {
-            for (String rootPath : client.getRootPath().split("/")) {
-                if (!StringUtils.isEmpty(rootPath)) {
-                    coapRequest.getOptions().addUriPath(rootPath);
-                }
+            for (String rootPath : rootPathSegments(client.getRootPath())) {
+                coapRequest.getOptions().addUriPath(rootPath);
             }
         }
 
         // objectId
-        coapRequest.getOptions().addUriPath(Integer.toString(path.getObjectId()));
+        coapRequest.getOptions().addUriPath(segment(path.getObjectId()));
 
         // objectInstanceId
         if (path.getObjectInstanceId() == null) {
             if (path.getResourceId() != null) {
-                coapRequest.getOptions().addUriPath("0"); // default instanceId
+                coapRequest.getOptions().addUriPath(SEGMENTS[0]); // default instanceId
             }
         } else {
-            coapRequest.getOptions().addUriPath(Integer.toString(path.getObjectInstanceId()));
+            coapRequest.getOptions().addUriPath(segment(path.getObjectInstanceId()));
         }
 
         // resourceId
         if (path.getResourceId() != null) {
-            coapRequest.getOptions().addUriPath(Integer.toString(path.getResourceId()));
+            coapRequest.getOptions().addUriPath(segment(path.getResourceId()));
+        }
+    }
+
+    private static String segment(int id) {
+        return id >= 0 && id < SEGMENTS.length ? SEGMENTS[id] : Integer.toString(id);
+    }
+
+    private static String[] rootPathSegments(String rootPath) {
+        if ("/".equals(rootPath)) {
+            return NO_SEGMENT;
+        }
+        String[] segments = ROOT_PATHS.get(rootPath);
+        if (segments == null) {
+            List<String> list = new ArrayList<>();
+            for (String segment : rootPath.split("/")) {
+                if (!StringUtils.isEmpty(segment)) {
+                    list.add(segment);
+                }
+            }
+            segments = list.toArray(new String[list.size()]);
+            if (ROOT_PATHS.size() < MAX_ROOT_PATHS) {
+                ROOT_PATHS.put(rootPath, segments);
+            }
         }
+        return segments;
     }
 
     public Request getRequest() {
@@ -32,8 +32,14 @@ package leshan.server.californium.impl;
 import java.net.InetSocketAddress;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import leshan.core.objectspec.Resources;
 import leshan.core.response.ClientResponse;
@@ -48,12 +54,14 @@ import leshan.server.client.ClientRegistry;
 import leshan.server.client.ClientRegistryListener;
 import leshan.server.observation.ObservationRegistry;
 import leshan.server.request.LwM2mRequest;
+import leshan.server.request.ResponseFuture;
 import leshan.server.security.SecurityRegistry;
 import leshan.util.Validate;
 
 import org.eclipse.californium.core.CoapServer;
 import org.eclipse.californium.core.network.CoAPEndpoint;
 import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.scandium.DTLSConnector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -82,6 +90,8 @@ public class LeshanServer implements LwM2mServer {
 
     private final SecurityRegistry securityRegistry;
 
+    private final List<ScheduledExecutorService> endpointExecutors = new ArrayList<>();
+
     /**
      * Initialize a server which will bind to default UDP port for CoAP (5684).
      */
@@ -118,8 +128,46 @@ public class LeshanServer implements LwM2mServer {
     public LeshanServer(InetSocketAddress localAddress, InetSocketAddress localAddressSecure,
             final ClientRegistry clientRegistry, final SecurityRegistry securityRegistry,
             final ObservationRegistry observationRegistry) {
-        Validate.notNull(localAddress, "IP address cannot be null");
-        Validate.notNull(localAddressSecure, "Secure IP address cannot be null");
+        this(Collections.singletonList(localAddress), Collections.singletonList(localAddressSecure), NetworkConfig
+                .getStandard(), clientRegistry, securityRegistry, observationRegistry);
+    }
+
+    /**
+     * Initialize a server which will bind a CoAP endpoint to each of the given addresses.
+     * <p>
+     * Several endpoints spread the UDP load over several sockets: each endpoint has its own receive threads and its
+     * own protocol stage thread pool. All the endpoints share the same registries.
+     * </p>
+     *
+     * @param localAddresses the addresses to bind the CoAP endpoints.
+     * @param localAddressesSecure the addresses to bind the CoAP endpoints for DTLS connection.
+     * @param networkConfig the Californium configuration applied to each endpoint (thread counts, socket buffers...).
+     */
+    public LeshanServer(final List<InetSocketAddress> localAddresses, final List<InetSocketAddress> localAddressesSecure,
+            final NetworkConfig networkConfig, final ClientRegistry clientRegistry,
+            final SecurityRegistry securityRegistry, final ObservationRegistry observationRegistry) {
+        this(localAddresses, localAddressesSecure, networkConfig, clientRegistry, securityRegistry,
+                observationRegistry, CaliforniumLwM2mRequestSender.NO_IN_FLIGHT_LIMIT);
+    }
+
+    /**
+     * Initialize a server which will bind a CoAP endpoint to each of the given addresses.
+     *
+     * @param localAddresses the addresses to bind the CoAP endpoints.
+     * @param localAddressesSecure the addresses to bind the CoAP endpoints for DTLS connection.
+     * @param networkConfig the Californium configuration applied to each endpoint (thread counts, socket buffers...).
+     * @param maxInFlightRequestsPerClient the maximum number of requests in flight for a given client, next requests
+     *        are queued ({@link CaliforniumLwM2mRequestSender#NO_IN_FLIGHT_LIMIT} for no limit).
+     */
+    public LeshanServer(final List<InetSocketAddress> localAddresses, final List<InetSocketAddress> localAddressesSecure,
+            final NetworkConfig networkConfig, final ClientRegistry clientRegistry,
+            final SecurityRegistry securityRegistry, final ObservationRegistry observationRegistry,
+            final int maxInFlightRequestsPerClient) {
+        Validate.notEmpty(localAddresses, "IP addresses cannot be empty");
+        Validate.notNull(localAddressesSecure, "Secure IP addresses cannot be null");
+        Validate.noNullElements(localAddresses, "IP address cannot be null");
+        Validate.noNullElements(localAddressesSecure, "Secure IP address cannot be null");
+        Validate.notNull(networkConfig, "networkConfig cannot be null");
         Validate.notNull(clientRegistry, "clientRegistry cannot be null");
         Validate.notNull(securityRegistry, "securityRegistry cannot be null");
         Validate.notNull(observationRegistry, "observationRegistry cannot be null");
@@ -147,30 +195,45 @@ public class LeshanServer implements LwM2mServer {
         });
 
         // init CoAP server
-        coapServer = new CoapServer();
-        final Endpoint endpoint = new CoAPEndpoint(localAddress);
-        coapServer.addEndpoint(endpoint);
+        coapServer = new CoapServer(networkConfig);
+        final List<Endpoint> endpoints = new ArrayList<>();
+        for (final InetSocketAddress localAddress : localAddresses) {
+            endpoints.add(new CoAPEndpoint(localAddress, networkConfig));
+        }
 
-        // init init DTLS server
-        DTLSConnector connector = new DTLSConnector(localAddressSecure);
-        connector.getConfig().setPskStore(new LwM2mPskStore(this.securityRegistry, this.clientRegistry));
-        PrivateKey privateKey = this.securityRegistry.getServerPrivateKey();
-        PublicKey publicKey = this.securityRegistry.getServerPublicKey();
-        if (privateKey != null && publicKey != null)
-            connector.getConfig().setPrivateKey(privateKey, publicKey);
+        // init DTLS server
+        final LwM2mPskStore pskStore = new LwM2mPskStore(this.securityRegistry, this.clientRegistry);
+        final PrivateKey privateKey = this.securityRegistry.getServerPrivateKey();
+        final PublicKey publicKey = this.securityRegistry.getServerPublicKey();
+        for (final InetSocketAddress localAddressSecure : localAddressesSecure) {
+            final DTLSConnector connector = new DTLSConnector(localAddressSecure);
+            connector.getConfig().setPskStore(pskStore);
+            if (privateKey != null && publicKey != null)
+                connector.getConfig().setPrivateKey(privateKey, publicKey);
+            endpoints.add(new SecureEndpoint(connector, networkConfig));
+        }
 
-        final Endpoint secureEndpoint = new SecureEndpoint(connector);
-        coapServer.addEndpoint(secureEndpoint);
+        // each endpoint gets its own protocol stage thread pool, the pool of the first endpoint replaces the one
+        // created by the CoAP server, which is shut down before running any task
+        final int threadCount = networkConfig.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT);
+        for (final Endpoint endpoint : endpoints) {
+            final ScheduledExecutorService executor = Executors.newScheduledThreadPool(threadCount,
+                    new EndpointThreadFactory(endpoint.getAddress()));
+            if (endpointExecutors.isEmpty()) {
+                coapServer.setExecutor(executor);
+            }
+            coapServer.addEndpoint(endpoint);
+            endpoint.setExecutor(executor);
+            endpointExecutors.add(executor);
+        }
 
         // define /rd resource
         final RegisterResource rdResource = new RegisterResource(this.clientRegistry, this.securityRegistry);
         coapServer.add(rdResource);
 
         // create sender
-        final Set<Endpoint> endpoints = new HashSet<>();
-        endpoints.add(endpoint);
-        endpoints.add(secureEndpoint);
-        requestSender = new CaliforniumLwM2mRequestSender(endpoints, this.observationRegistry);
+        requestSender = new CaliforniumLwM2mRequestSender(new HashSet<>(endpoints), this.observationRegistry,
+                CaliforniumLwM2mRequestSender.COAP_REQUEST_TIMEOUT_MILLIS, maxInFlightRequestsPerClient);
     }
 
     @Override
@@ -217,6 +280,10 @@ public class LeshanServer implements LwM2mServer {
     public void destroy() {
         // Destroy server
         coapServer.destroy();
+        requestSender.destroy();
+        for (final ScheduledExecutorService executor : endpointExecutors) {
+            executor.shutdown();
+        }
 
         // Destroy registries
         if (clientRegistry instanceof Destroyable) {
@@ -257,4 +324,26 @@ public class LeshanServer implements LwM2mServer {
             final ResponseConsumer<T> responseCallback, final ExceptionConsumer errorCallback) {
         requestSender.send(request, responseCallback, errorCallback);
     }
+
+    @Override
+    public <T extends ClientResponse> ResponseFuture<T> sendAsync(final LwM2mRequest<T> request) {
+        return requestSender.sendAsync(request);
+    }
+
+    private static class EndpointThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        EndpointThreadFactory(final InetSocketAddress address) {
+            this.prefix = "CoAP endpoint " + address + " #";
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
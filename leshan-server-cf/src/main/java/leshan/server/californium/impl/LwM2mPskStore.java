@@ -31,9 +31,12 @@ package leshan.server.californium.impl;
 
 import java.net.InetSocketAddress;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import leshan.server.client.Client;
 import leshan.server.client.ClientRegistry;
+import leshan.server.client.ClientRegistryListener;
 import leshan.server.security.SecurityInfo;
 import leshan.server.security.SecurityStore;
 
@@ -44,6 +47,14 @@ public class LwM2mPskStore implements PskStore {
     private SecurityStore securityStore;
     private ClientRegistry clientRegistry;
 
+    // registered end-points by source address, fed by the client registry events
+    private final ConcurrentMap<InetSocketAddress, String /* end-point */> endpointsByAddress =
+            new ConcurrentHashMap<>();
+
+    // source address of each registration, to clean the index when the address changes
+    private final ConcurrentMap<String /* registration id */, InetSocketAddress> addressesByRegId =
+            new ConcurrentHashMap<>();
+
     public LwM2mPskStore(SecurityStore securityStore) {
         this(securityStore, null);
     }
@@ -51,6 +62,19 @@ public class LwM2mPskStore implements PskStore {
     public LwM2mPskStore(SecurityStore securityStore, ClientRegistry clientRegistry) {
         this.securityStore = securityStore;
         this.clientRegistry = clientRegistry;
+
+        if (clientRegistry != null) {
+            clientRegistry.addListener(new AddressIndexer());
+            for (Client client : clientRegistry.allClients()) {
+                // skip the clients de-registered since the snapshot, their event may already be handled
+                if (isRegistered(client)) {
+                    index(client);
+                    if (!isRegistered(client)) {
+                        unindex(client);
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -69,15 +93,60 @@ public class LwM2mPskStore implements PskStore {
         if (clientRegistry == null)
             return null;
 
-        for (Client c : clientRegistry.allClients()) {
-            if (inetAddress.getPort() == c.getPort() && inetAddress.getAddress().equals(c.getAddress())) {
-                SecurityInfo securityInfo = securityStore.getByEndpoint(c.getEndpoint());
-                if (securityInfo != null) {
-                    return securityInfo.getIdentity();
-                }
-                return null;
+        String endpoint = endpointsByAddress.get(inetAddress);
+        if (endpoint != null) {
+            SecurityInfo securityInfo = securityStore.getByEndpoint(endpoint);
+            if (securityInfo != null) {
+                return securityInfo.getIdentity();
             }
         }
         return null;
     }
+
+    private boolean isRegistered(Client client) {
+        Client registered = clientRegistry.get(client.getEndpoint());
+        return registered != null && registered.getRegistrationId() != null
+                && registered.getRegistrationId().equals(client.getRegistrationId());
+    }
+
+    private void index(Client client) {
+        if (client.getRegistrationId() == null) {
+            return;
+        }
+        InetSocketAddress address = new InetSocketAddress(client.getAddress(), client.getPort());
+        InetSocketAddress previous = addressesByRegId.put(client.getRegistrationId(), address);
+        if (previous != null && !previous.equals(address)) {
+            endpointsByAddress.remove(previous, client.getEndpoint());
+        }
+        endpointsByAddress.put(address, client.getEndpoint());
+    }
+
+    private void unindex(Client client) {
+        if (client.getRegistrationId() == null) {
+            return;
+        }
+        InetSocketAddress previous = addressesByRegId.remove(client.getRegistrationId());
+        if (previous != null) {
+            endpointsByAddress.remove(previous, client.getEndpoint());
+        }
+    }
+
+    private class AddressIndexer implements ClientRegistryListener {
+
+        @Override
+        public void registered(Client client) {
+            index(client);
+        }
+
+        @Override
+        public void updated(Client clientUpdated) {
+            // the address or port may have changed
+            index(clientUpdated);
+        }
+
+        @Override
+        public void unregistered(Client client) {
+            unindex(client);
+        }
+    }
 }
@@ -29,6 +29,9 @@
  */
 package leshan.server.californium.impl;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import leshan.LinkObject;
 import leshan.ResponseCode;
 import leshan.core.node.LwM2mNode;
@@ -46,7 +49,7 @@ import leshan.server.request.CreateRequest;
 import leshan.server.request.DeleteRequest;
 import leshan.server.request.DiscoverRequest;
 import leshan.server.request.ExecuteRequest;
-import leshan.server.request.LwM2mRequestVisitor;
+import leshan.server.request.LwM2mRequest;
 import leshan.server.request.ObserveRequest;
 import leshan.server.request.ReadRequest;
 import leshan.server.request.ResourceAccessException;
@@ -61,15 +64,18 @@ import org.eclipse.californium.core.coap.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class LwM2mResponseBuilder<T extends ClientResponse> implements LwM2mRequestVisitor {
+/**
+ * Translates CoAP responses into LWM2M responses.
+ * <p>
+ * Translators are stateless and precomputed for each type of request, so translating a response does not allocate
+ * anything but the LWM2M response itself. A subclass of a request type uses the translator of its closest known
+ * superclass.
+ * </p>
+ */
+public class LwM2mResponseBuilder {
 
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mResponseBuilder.class);
 
-    private ClientResponse lwM2mresponse;
-    private final Request coapRequest;
-    private final Response coapResponse;
-    private final ObservationRegistry observationRegistry;
-
     public static ResponseCode fromCoapCode(final int code) {
         Validate.notNull(code);
 
@@ -96,167 +102,173 @@ public class LwM2mResponseBuilder<T extends ClientResponse> implements LwM2mRequ
         }
     }
 
-    public LwM2mResponseBuilder(final Request coapRequest, final Response coapResponse, final ObservationRegistry observationRegistry) {
-        super();
-        this.coapRequest = coapRequest;
-        this.coapResponse = coapResponse;
-        this.observationRegistry = observationRegistry;
-    }
-
-    @Override
-    public void visit(final ReadRequest request) {
-        switch (coapResponse.getCode()) {
-        case CONTENT:
-            lwM2mresponse = buildContentResponse(request.getPath(), coapResponse);
-            break;
-        case UNAUTHORIZED:
-        case NOT_FOUND:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new ValueResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
+    /**
+     * Builds the LWM2M response to the given request.
+     *
+     * @return the LWM2M response or <code>null</code> if the CoAP response is a notification
+     * @throws ResourceAccessException if the client returned an unexpected response code or an invalid content
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends ClientResponse> T buildResponse(final LwM2mRequest<T> request, final Request coapRequest,
+            final Response coapResponse, final ObservationRegistry observationRegistry) {
+        final Translator translator = translator(request.getClass());
+        if (translator == null) {
+            throw new IllegalArgumentException("Unsupported request type: " + request.getClass());
         }
+        return (T) translator.translate(request, coapRequest, coapResponse, observationRegistry);
     }
 
-    @Override
-    public void visit(final DiscoverRequest request) {
-        switch (coapResponse.getCode()) {
-        case CONTENT:
-            LinkObject[] links = null;
-            if (MediaTypeRegistry.APPLICATION_LINK_FORMAT != coapResponse.getOptions().getContentFormat()) {
-                LOG.debug("Expected LWM2M Client [{}] to return application/link-format [{}] content but got [{}]",
-                        request.getClient().getEndpoint(), MediaTypeRegistry.APPLICATION_LINK_FORMAT, coapResponse
-                                .getOptions().getContentFormat());
-                links = new LinkObject[] {}; // empty list
-            } else {
-                links = LinkObject.parse(coapResponse.getPayload());
+    private static Translator translator(final Class<?> requestClass) {
+        Translator translator = TRANSLATORS.get(requestClass);
+        if (translator == null) {
+            // a subclass of a known request type, remember its translator for the next time
+            for (Class<?> c = requestClass.getSuperclass(); c != null && translator == null; c = c.getSuperclass()) {
+                translator = TRANSLATORS.get(c);
+            }
+            if (translator != null) {
+                TRANSLATORS.putIfAbsent(requestClass, translator);
             }
-            lwM2mresponse = new DiscoverResponse(fromCoapCode(coapResponse.getCode().value), links);
-            break;
-        case NOT_FOUND:
-        case UNAUTHORIZED:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new DiscoverResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
         }
+        return translator;
     }
 
-    @Override
-    public void visit(final WriteRequest request) {
-        switch (coapResponse.getCode()) {
-        case CHANGED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        case BAD_REQUEST:
-        case NOT_FOUND:
-        case UNAUTHORIZED:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
-        }
-    }
+    private static abstract class Translator {
 
-    @Override
-    public void visit(final WriteAttributesRequest request) {
-        switch (coapResponse.getCode()) {
-        case CHANGED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        case BAD_REQUEST:
-        case NOT_FOUND:
-        case UNAUTHORIZED:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
-        }
+        abstract ClientResponse translate(LwM2mRequest<?> request, Request coapRequest, Response coapResponse,
+                ObservationRegistry observationRegistry);
     }
 
-    @Override
-    public void visit(final ExecuteRequest request) {
-        switch (coapResponse.getCode()) {
-        case CHANGED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        case BAD_REQUEST:
-        case UNAUTHORIZED:
-        case NOT_FOUND:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
-        }
+    private static final ConcurrentMap<Class<?>, Translator> TRANSLATORS = new ConcurrentHashMap<>();
 
-    }
+    static {
+        TRANSLATORS.put(ReadRequest.class, new Translator() {
+            @Override
+            ClientResponse translate(final LwM2mRequest<?> request, final Request coapRequest,
+                    final Response coapResponse, final ObservationRegistry observationRegistry) {
+                switch (coapResponse.getCode()) {
+                case CONTENT:
+                    return buildContentResponse(request.getPath(), coapResponse);
+                case UNAUTHORIZED:
+                case NOT_FOUND:
+                case METHOD_NOT_ALLOWED:
+                    return new ValueResponse(fromCoapCode(coapResponse.getCode().value));
+                default:
+                    throw unexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
+                }
+            }
+        });
 
-    @Override
-    public void visit(final CreateRequest request) {
-        switch (coapResponse.getCode()) {
-        case CREATED:
-            lwM2mresponse = new CreateResponse(fromCoapCode(coapResponse.getCode().value), coapResponse.getOptions()
-                    .getLocationPathString());
-            break;
-        case BAD_REQUEST:
-        case UNAUTHORIZED:
-        case NOT_FOUND:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new CreateResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
-        }
-    }
+        TRANSLATORS.put(DiscoverRequest.class, new Translator() {
+            @Override
+            ClientResponse translate(final LwM2mRequest<?> request, final Request coapRequest,
+                    final Response coapResponse, final ObservationRegistry observationRegistry) {
+                switch (coapResponse.getCode()) {
+                case CONTENT:
+                    LinkObject[] links = null;
+                    if (MediaTypeRegistry.APPLICATION_LINK_FORMAT != coapResponse.getOptions().getContentFormat()) {
+                        LOG.debug("Expected LWM2M Client [{}] to return application/link-format [{}] content but got [{}]",
+                                request.getClient().getEndpoint(), MediaTypeRegistry.APPLICATION_LINK_FORMAT,
+                                coapResponse.getOptions().getContentFormat());
+                        links = new LinkObject[] {}; // empty list
+                    } else {
+                        links = LinkObject.parse(coapResponse.getPayload());
+                    }
+                    return new DiscoverResponse(fromCoapCode(coapResponse.getCode().value), links);
+                case NOT_FOUND:
+                case UNAUTHORIZED:
+                case METHOD_NOT_ALLOWED:
+                    return new DiscoverResponse(fromCoapCode(coapResponse.getCode().value));
+                default:
+                    throw unexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
+                }
+            }
+        });
 
-    @Override
-    public void visit(final DeleteRequest request) {
-        switch (coapResponse.getCode()) {
-        case DELETED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        case UNAUTHORIZED:
-        case NOT_FOUND:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new ClientResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
-        }
-    }
+        // write, write attributes and execute share the same response codes
+        final Translator changeTranslator = new Translator() {
+            @Override
+            ClientResponse translate(final LwM2mRequest<?> request, final Request coapRequest,
+                    final Response coapResponse, final ObservationRegistry observationRegistry) {
+                switch (coapResponse.getCode()) {
+                case CHANGED:
+                case BAD_REQUEST:
+                case NOT_FOUND:
+                case UNAUTHORIZED:
+                case METHOD_NOT_ALLOWED:
+                    return new ClientResponse(fromCoapCode(coapResponse.getCode().value));
+                default:
+                    throw unexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
+                }
+            }
+        };
+        TRANSLATORS.put(WriteRequest.class, changeTranslator);
+        TRANSLATORS.put(WriteAttributesRequest.class, changeTranslator);
+        TRANSLATORS.put(ExecuteRequest.class, changeTranslator);
 
-    @Override
-    public void visit(final ObserveRequest request) {
-        switch (coapResponse.getCode()) {
-        case CHANGED:
-            // ignore changed response (this is probably a NOTIFY)
-            lwM2mresponse = null;
-            break;
-        case CONTENT:
-            lwM2mresponse = buildContentResponse(request.getPath(), coapResponse);
-            if (coapResponse.getOptions().hasObserve()) {
-                // observe request succeed so we can add and observation to registry
-                final CaliforniumObservation observation = new CaliforniumObservation(coapRequest, request.getClient(),
-                        request.getPath());
-                coapRequest.addMessageObserver(observation);
-                observationRegistry.addObservation(observation);
+        TRANSLATORS.put(CreateRequest.class, new Translator() {
+            @Override
+            ClientResponse translate(final LwM2mRequest<?> request, final Request coapRequest,
+                    final Response coapResponse, final ObservationRegistry observationRegistry) {
+                switch (coapResponse.getCode()) {
+                case CREATED:
+                    return new CreateResponse(fromCoapCode(coapResponse.getCode().value), coapResponse.getOptions()
+                            .getLocationPathString());
+                case BAD_REQUEST:
+                case UNAUTHORIZED:
+                case NOT_FOUND:
+                case METHOD_NOT_ALLOWED:
+                    return new CreateResponse(fromCoapCode(coapResponse.getCode().value));
+                default:
+                    throw unexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
+                }
             }
-            break;
-        case NOT_FOUND:
-        case METHOD_NOT_ALLOWED:
-            lwM2mresponse = new ValueResponse(fromCoapCode(coapResponse.getCode().value));
-            break;
-        default:
-            handleUnexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
-        }
+        });
+
+        TRANSLATORS.put(DeleteRequest.class, new Translator() {
+            @Override
+            ClientResponse translate(final LwM2mRequest<?> request, final Request coapRequest,
+                    final Response coapResponse, final ObservationRegistry observationRegistry) {
+                switch (coapResponse.getCode()) {
+                case DELETED:
+                case UNAUTHORIZED:
+                case NOT_FOUND:
+                case METHOD_NOT_ALLOWED:
+                    return new ClientResponse(fromCoapCode(coapResponse.getCode().value));
+                default:
+                    throw unexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
+                }
+            }
+        });
+
+        TRANSLATORS.put(ObserveRequest.class, new Translator() {
+            @Override
+            ClientResponse translate(final LwM2mRequest<?> request, final Request coapRequest,
+                    final Response coapResponse, final ObservationRegistry observationRegistry) {
+                switch (coapResponse.getCode()) {
+                case CHANGED:
+                    // ignore changed response (this is probably a NOTIFY)
+                    return null;
+                case CONTENT:
+                    final ValueResponse response = buildContentResponse(request.getPath(), coapResponse);
+                    if (coapResponse.getOptions().hasObserve()) {
+                        // observe request succeed so we can add and observation to registry
+                        final CaliforniumObservation observation = new CaliforniumObservation(coapRequest,
+                                request.getClient(), request.getPath());
+                        coapRequest.addMessageObserver(observation);
+                        observationRegistry.addObservation(observation);
+                    }
+                    return response;
+                case NOT_FOUND:
+                case METHOD_NOT_ALLOWED:
+                    return new ValueResponse(fromCoapCode(coapResponse.getCode().value));
+                default:
+                    throw unexpectedResponseCode(request.getClient(), coapRequest, coapResponse);
+                }
+            }
+        });
     }
 
-    private ValueResponse buildContentResponse(final LwM2mPath path, final Response coapResponse) {
+    private static ValueResponse buildContentResponse(final LwM2mPath path, final Response coapResponse) {
         final ResponseCode code = ResponseCode.CONTENT;
         LwM2mNode content;
         try {
@@ -269,21 +281,13 @@ public class LwM2mResponseBuilder<T extends ClientResponse> implements LwM2mRequ
         return new ValueResponse(code, content);
     }
 
-    @SuppressWarnings("unchecked")
-    public T getResponse() {
-        return (T) lwM2mresponse;
-    }
-
     /**
-     * Throws a generic {@link ResourceAccessException} indicating that the client returned an unexpected response code.
-     *
-     * @param request
-     * @param coapRequest
-     * @param coapResponse
+     * Builds a generic {@link ResourceAccessException} indicating that the client returned an unexpected response code.
      */
-    private void handleUnexpectedResponseCode(final Client client, final Request coapRequest, final Response coapResponse) {
+    private static ResourceAccessException unexpectedResponseCode(final Client client, final Request coapRequest,
+            final Response coapResponse) {
         final String msg = String.format("Client [%s] returned unexpected response code [%s]", client.getEndpoint(),
                 coapResponse.getCode());
-        throw new ResourceAccessException(fromCoapCode(coapResponse.getCode().value), coapRequest.getURI(), msg);
+        return new ResourceAccessException(fromCoapCode(coapResponse.getCode().value), coapRequest.getURI(), msg);
     }
 }
@@ -41,6 +41,7 @@ import leshan.server.client.Client;
 import leshan.server.client.ClientRegistrationException;
 import leshan.server.client.ClientRegistry;
 import leshan.server.client.ClientUpdate;
+import leshan.server.client.ObjectLinksCache;
 import leshan.server.security.SecurityInfo;
 import leshan.server.security.SecurityStore;
 import leshan.util.RandomStringUtils;
@@ -81,6 +82,9 @@ public class RegisterResource extends CoapResource {
 
     private final SecurityStore securityStore;
 
+    // identical registration and update payloads share the same object links
+    private final ObjectLinksCache objectLinksCache = new ObjectLinksCache();
+
     public RegisterResource(ClientRegistry clientRegistry, SecurityStore securityStore) {
         super(RESOURCE_NAME);
 
@@ -132,7 +136,7 @@ public class RegisterResource extends CoapResource {
                 // register
                 String registrationId = RegisterResource.createRegistrationId();
                 if (request.getPayload() != null) {
-                    objectLinks = LinkObject.parse(request.getPayload());
+                    objectLinks = objectLinksCache.parse(request.getPayload());
                 }
 
                 // do we have security information for this client?
@@ -256,7 +260,7 @@ public class RegisterResource extends CoapResource {
         }
 
         if (request.getPayload() != null && request.getPayload().length > 0) {
-            objectLinks = LinkObject.parse(request.getPayload());
+            objectLinks = objectLinksCache.parse(request.getPayload());
         }
 
         ClientUpdate client = new ClientUpdate(registrationId, request.getSource(), request.getSourcePort(), lifetime,
@@ -46,7 +46,11 @@ public class SecureEndpoint extends CoAPEndpoint {
     private final DTLSConnector connector;
 
     public SecureEndpoint(DTLSConnector connector) {
-        super(connector, NetworkConfig.getStandard());
+        this(connector, NetworkConfig.getStandard());
+    }
+
+    public SecureEndpoint(DTLSConnector connector, NetworkConfig config) {
+        super(connector, config);
         this.connector = connector;
     }
 
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.BindException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+import leshan.server.LwM2mServer;
+import leshan.server.impl.SecurityRegistryImpl;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.junit.After;
+import org.junit.Test;
+
+public class LeshanServerBuilderTest {
+
+    private LwM2mServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.destroy();
+        }
+    }
+
+    @Test
+    public void bind_several_endpoints() throws Exception {
+        File securityFile = File.createTempFile("security", ".data");
+        securityFile.delete();
+        int standardThreadCount = NetworkConfig.getStandard().getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT);
+
+        int[] ports = freePorts(2);
+        int[] securePorts = freePorts(2);
+        server = new LeshanServerBuilder().setLocalAddress("localhost", ports[0])
+                .addLocalAddress(new InetSocketAddress("localhost", ports[1]))
+                .setLocalAddressSecure("localhost", securePorts[0])
+                .addLocalAddressSecure(new InetSocketAddress("localhost", securePorts[1]))
+                .setProtocolStageThreadCount(standardThreadCount + 1).setSocketBufferSizes(1 << 20, 1 << 20)
+                .setSecurityRegistry(new SecurityRegistryImpl(securityFile.getPath(), null, null)).build();
+        server.start();
+
+        // all the non secure endpoints answer
+        for (int port : ports) {
+            CoapClient client = new CoapClient("coap://localhost:" + port + "/.well-known/core");
+            client.setTimeout(2000);
+            CoapResponse response = client.get();
+            assertNotNull("no response on port " + port, response);
+            assertEquals(ResponseCode.CONTENT, response.getCode());
+        }
+
+        // all the secure endpoints are bound
+        for (int port : securePorts) {
+            try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress("localhost", port))) {
+                fail("no endpoint bound on port " + port);
+            } catch (BindException e) {
+                // bound by the server
+            }
+        }
+
+        // the shortcuts do not change the configuration shared by the JVM
+        assertEquals(standardThreadCount,
+                NetworkConfig.getStandard().getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT));
+    }
+
+    private static int[] freePorts(int count) throws SocketException {
+        // the sockets are kept open until all the ports are known, so that they differ
+        DatagramSocket[] sockets = new DatagramSocket[count];
+        int[] ports = new int[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new DatagramSocket(new InetSocketAddress("localhost", 0));
+                ports[i] = sockets[i].getLocalPort();
+            }
+        } finally {
+            for (DatagramSocket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        return ports;
+    }
+}
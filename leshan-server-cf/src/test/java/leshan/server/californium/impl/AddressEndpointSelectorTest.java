@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium.impl;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Date;
+
+import leshan.server.client.Client;
+
+import org.eclipse.californium.core.network.Endpoint;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AddressEndpointSelectorTest {
+
+    private Endpoint coap;
+    private Endpoint coaps;
+    private AddressEndpointSelector selector;
+
+    @Before
+    public void setUp() {
+        coap = endpoint(new InetSocketAddress(5683));
+        coaps = endpoint(new InetSocketAddress(5684));
+        selector = new AddressEndpointSelector(Arrays.asList(coap, coaps));
+    }
+
+    @Test
+    public void select_registration_endpoint() throws Exception {
+        assertSame(coap, selector.getEndpoint(client(new InetSocketAddress(5683))));
+        assertSame(coaps, selector.getEndpoint(client(new InetSocketAddress(5684))));
+    }
+
+    @Test
+    public void select_endpoint_with_updated_address() throws Exception {
+        // e.g. endpoint bound to an ephemeral port on start
+        when(coap.getAddress()).thenReturn(new InetSocketAddress(40000));
+
+        assertSame(coap, selector.getEndpoint(client(new InetSocketAddress(40000))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknown_registration_endpoint() throws Exception {
+        selector.getEndpoint(client(new InetSocketAddress(9999)));
+    }
+
+    @Test
+    public void do_not_rebuild_index_for_unknown_address() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try {
+                selector.getEndpoint(client(new InetSocketAddress(9999)));
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+        // one scan per miss, plus the initial index
+        verify(coap, times(4)).getAddress();
+    }
+
+    private static Endpoint endpoint(InetSocketAddress address) {
+        Endpoint endpoint = mock(Endpoint.class);
+        when(endpoint.getAddress()).thenReturn(address);
+        return endpoint;
+    }
+
+    private static Client client(InetSocketAddress registrationAddress) throws Exception {
+        return new Client("ID", "urn:client", InetAddress.getLoopbackAddress(), 10000, "1.0", 10000L, null, null, null,
+                new Date(), registrationAddress);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import leshan.ResponseCode;
+import leshan.core.response.ExceptionConsumer;
+import leshan.core.response.ResponseConsumer;
+import leshan.core.response.ValueResponse;
+import leshan.server.client.Client;
+import leshan.server.observation.ObservationRegistry;
+import leshan.server.request.ReadRequest;
+import leshan.server.request.RejectionException;
+import leshan.server.request.RequestTimeoutException;
+import leshan.server.request.ResponseFuture;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class CaliforniumLwM2mRequestSenderTest extends CaliforniumTestSupport {
+
+    private Endpoint endpoint;
+    private CaliforniumLwM2mRequestSender sender;
+
+    @Before
+    public void setUp() throws Exception {
+        givenASimpleClient();
+        endpoint = mock(Endpoint.class);
+        when(endpoint.getAddress()).thenReturn(registrationAddress);
+        sender = new CaliforniumLwM2mRequestSender(Collections.singleton(endpoint), mock(ObservationRegistry.class),
+                200, 1);
+    }
+
+    @After
+    public void tearDown() {
+        sender.destroy();
+    }
+
+    @Test
+    public void complete_on_response() throws Exception {
+        ResponseFuture<ValueResponse> future = sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+        assertEquals(false, future.isDone());
+
+        sentRequest().setResponse(new Response(CoAP.ResponseCode.NOT_FOUND));
+
+        assertEquals(ResponseCode.NOT_FOUND, future.get(1, TimeUnit.SECONDS).getCode());
+    }
+
+    @Test
+    public void cancel_coap_request() throws Exception {
+        ResponseFuture<ValueResponse> future = sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+
+        future.cancel(false);
+
+        assertTrue(sentRequest().isCanceled());
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void fail_on_rejection() throws Exception {
+        ResponseFuture<ValueResponse> future = sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+
+        sentRequest().setRejected(true);
+
+        assertEquals(RejectionException.class, failureOf(future).getClass());
+    }
+
+    @Test
+    public void fail_after_timeout() throws Exception {
+        long start = System.currentTimeMillis();
+        ResponseFuture<ValueResponse> future = sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+
+        assertEquals(RequestTimeoutException.class, failureOf(future).getClass());
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        // the CoAP request is cancelled right after the future fails
+        Request coapRequest = sentRequest();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!coapRequest.isCanceled() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(coapRequest.isCanceled());
+    }
+
+    @Test
+    public void synchronous_send_returns_null_on_cancel() throws Exception {
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((Request) invocation.getArguments()[0]).cancel();
+                return null;
+            }
+        }).when(endpoint).sendRequest(Mockito.any(Request.class));
+
+        assertEquals(null, sender.send(new ReadRequest(client, 3, 0, 1)));
+    }
+
+    @Test
+    public void queue_requests_beyond_in_flight_limit() throws Exception {
+        ResponseFuture<ValueResponse> first = sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+        ResponseFuture<ValueResponse> second = sender.sendAsync(new ReadRequest(client, 3, 0, 2));
+        ResponseFuture<ValueResponse> third = sender.sendAsync(new ReadRequest(client, 3, 0, 3));
+
+        assertEquals(1, sentRequests().size());
+        assertEquals(2, sender.getQueuedRequestsCount());
+
+        // a cancelled request leaves the queue without being sent
+        second.cancel(false);
+        assertEquals(1, sender.getQueuedRequestsCount());
+
+        sentRequests().get(0).setResponse(new Response(CoAP.ResponseCode.NOT_FOUND));
+        assertTrue(first.isDone());
+
+        List<Request> sent = sentRequests();
+        assertEquals(2, sent.size());
+        assertEquals("3/0/3", sent.get(1).getOptions().getUriPathString());
+        assertEquals(0, sender.getQueuedRequestsCount());
+
+        sent.get(1).setResponse(new Response(CoAP.ResponseCode.NOT_FOUND));
+        assertEquals(ResponseCode.NOT_FOUND, third.get(1, TimeUnit.SECONDS).getCode());
+    }
+
+    @Test
+    public void do_not_delay_other_clients() throws Exception {
+        Client other = new Client("ID2", "urn:other", client.getAddress(), 10001, "1.0", 10000L, null, null, null,
+                new Date(), registrationAddress);
+
+        sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+        sender.sendAsync(new ReadRequest(client, 3, 0, 2));
+        sender.sendAsync(new ReadRequest(other, 3, 0, 1));
+
+        assertEquals(2, sentRequests().size());
+        assertEquals(1, sender.getQueuedRequestsCount());
+    }
+
+    @Test
+    public void start_timeout_when_request_leaves_queue() throws Exception {
+        final AtomicInteger timeouts = new AtomicInteger();
+        client.setTimeoutHandler(new Runnable() {
+            @Override
+            public void run() {
+                timeouts.incrementAndGet();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        ResponseFuture<ValueResponse> first = sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+        ResponseFuture<ValueResponse> second = sender.sendAsync(new ReadRequest(client, 3, 0, 2));
+
+        assertEquals(RequestTimeoutException.class, failureOf(first).getClass());
+        assertEquals(RequestTimeoutException.class, failureOf(second).getClass());
+        // the second request was given the full timeout once sent
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertEquals(2, sentRequests().size());
+        // the client is marked once the future failed
+        long deadline = System.currentTimeMillis() + 1000;
+        while (timeouts.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, timeouts.get());
+        assertEquals(0, sender.getQueuedRequestsCount());
+    }
+
+    @Test
+    public void no_in_flight_limit_by_default() throws Exception {
+        CaliforniumLwM2mRequestSender unlimited = new CaliforniumLwM2mRequestSender(Collections.singleton(endpoint),
+                mock(ObservationRegistry.class), 200);
+        try {
+            unlimited.sendAsync(new ReadRequest(client, 3, 0, 1));
+            unlimited.sendAsync(new ReadRequest(client, 3, 0, 2));
+
+            assertEquals(2, sentRequests().size());
+            assertEquals(0, unlimited.getQueuedRequestsCount());
+        } finally {
+            unlimited.destroy();
+        }
+    }
+
+    @Test
+    public void mean_queue_time_of_queued_requests() throws Exception {
+        sender.sendAsync(new ReadRequest(client, 3, 0, 1));
+        sender.sendAsync(new ReadRequest(client, 3, 0, 2));
+
+        Thread.sleep(100);
+        sentRequests().get(0).setResponse(new Response(CoAP.ResponseCode.NOT_FOUND));
+
+        // the first request was sent at once, it does not count
+        assertEquals(2, sentRequests().size());
+        assertTrue(sender.getMeanQueueTime() >= 100);
+    }
+
+    @Test
+    public void callback_fails_after_timeout() throws Exception {
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final CountDownLatch called = new CountDownLatch(2);
+        ExceptionConsumer errorCallback = new ExceptionConsumer() {
+            @Override
+            public void accept(Exception e) {
+                failure.compareAndSet(null, e);
+                called.countDown();
+            }
+        };
+        ResponseConsumer<ValueResponse> responseCallback = new ResponseConsumer<ValueResponse>() {
+            @Override
+            public void accept(ValueResponse response) {
+                called.countDown();
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        sender.send(new ReadRequest(client, 3, 0, 1), responseCallback, errorCallback);
+        sender.send(new ReadRequest(client, 3, 0, 2), responseCallback, errorCallback);
+
+        // the queued request is sent once the first one timed out, then times out too
+        assertTrue(called.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 400);
+        assertEquals(RequestTimeoutException.class, failure.get().getClass());
+        assertEquals(2, sentRequests().size());
+        assertTrue(sentRequests().get(0).isCanceled());
+    }
+
+    private List<Request> sentRequests() {
+        ArgumentCaptor<Request> captor = ArgumentCaptor.forClass(Request.class);
+        Mockito.verify(endpoint, Mockito.atLeast(0)).sendRequest(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private Request sentRequest() {
+        ArgumentCaptor<Request> captor = ArgumentCaptor.forClass(Request.class);
+        Mockito.verify(endpoint).sendRequest(captor.capture());
+        return captor.getValue();
+    }
+
+    private static Exception failureOf(ResponseFuture<?> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+        } catch (CancellationException e) {
+            return e;
+        } catch (ExecutionException e) {
+            return (Exception) e.getCause();
+        }
+        throw new AssertionError("failure expected");
+    }
+}
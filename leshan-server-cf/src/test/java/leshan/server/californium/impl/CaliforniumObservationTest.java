@@ -30,9 +30,15 @@
 package leshan.server.californium.impl;
 
 import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import leshan.core.node.LwM2mNode;
 import leshan.core.node.LwM2mPath;
 import leshan.core.node.LwM2mResource;
+import leshan.server.observation.Notification;
+import leshan.server.observation.NotificationListener;
 import leshan.server.observation.Observation;
 import leshan.server.observation.ObservationListener;
 
@@ -82,6 +88,36 @@ public class CaliforniumObservationTest {
         observation.onResponse(coapResponse);
     }
 
+    @Test
+    public void coapNotification_is_forwarded_undecoded_to_notificationListener() {
+        final List<Notification> notifications = new ArrayList<>();
+        NotificationListener listener = new NotificationListener() {
+            @Override
+            public void newValue(Observation observation, LwM2mNode value) {
+                fail("newValue must not be called on a NotificationListener");
+            }
+
+            @Override
+            public void cancelled(Observation observation) {
+            }
+
+            @Override
+            public void newNotification(Observation observation, Notification notification) {
+                notifications.add(notification);
+            }
+        };
+        givenAnObserveRequest(target);
+        CaliforniumObservation observation = new CaliforniumObservation(coapRequest, support.client, target);
+        observation.addListener(listener);
+        Response coapResponse = new Response(ResponseCode.CHANGED);
+        coapResponse.setPayload(reportedValue);
+        observation.onResponse(coapResponse);
+
+        assertEquals(1, notifications.size());
+        assertEquals(target, notifications.get(0).getPath());
+        assertEquals(reportedValue, new String(notifications.get(0).getPayload()));
+    }
+
     @Test
     public void cancel_Observation_cancel_coapRequest() {
 
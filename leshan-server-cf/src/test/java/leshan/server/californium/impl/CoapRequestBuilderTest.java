@@ -101,6 +101,21 @@ public class CoapRequestBuilderTest {
         assertEquals("coap://localhost/lwm2m/3/0/1", coapRequest.getURI());
     }
 
+    @Test
+    public void build_read_request_with_nested_root_path_and_large_ids() throws Exception {
+        Client client = newClient();
+        when(client.getRootPath()).thenReturn("/a/b/");
+
+        // test
+        CoapRequestBuilder builder = new CoapRequestBuilder();
+        builder.visit(new ReadRequest(client, 3, 0, 1));
+        builder.visit(new ReadRequest(client, 10241, 2048, 65535));
+
+        // verify
+        Request coapRequest = builder.getRequest();
+        assertEquals("coap://localhost/a/b/10241/2048/65535", coapRequest.getURI());
+    }
+
     @Test
     public void build_read_request_with_root_path() throws Exception {
         Client client = newClient();
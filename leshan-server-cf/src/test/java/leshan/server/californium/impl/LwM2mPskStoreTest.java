@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+
+import leshan.server.client.Client;
+import leshan.server.client.ClientUpdate;
+import leshan.server.impl.ClientRegistryImpl;
+import leshan.server.security.SecurityInfo;
+import leshan.server.security.SecurityStore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LwM2mPskStoreTest {
+
+    ClientRegistryImpl registry;
+    SecurityStore securityStore;
+    LwM2mPskStore pskStore;
+    InetAddress address;
+
+    @Before
+    public void setUp() throws Exception {
+        address = InetAddress.getByName("127.0.0.1");
+        registry = new ClientRegistryImpl();
+        securityStore = new SecurityStore() {
+
+            @Override
+            public SecurityInfo getByIdentity(String identity) {
+                return null;
+            }
+
+            @Override
+            public SecurityInfo getByEndpoint(String endpoint) {
+                return SecurityInfo.newPreSharedKeyInfo(endpoint, endpoint + "-identity", new byte[] { 1 });
+            }
+        };
+        pskStore = new LwM2mPskStore(securityStore, registry);
+    }
+
+    @Test
+    public void identity_of_registered_client() {
+        registry.registerClient(newClient("reg1", "ep1", 5684));
+
+        assertEquals("ep1-identity", pskStore.getIdentity(new InetSocketAddress(address, 5684)));
+        assertNull(pskStore.getIdentity(new InetSocketAddress(address, 5685)));
+
+        registry.deregisterClient("reg1");
+        assertNull(pskStore.getIdentity(new InetSocketAddress(address, 5684)));
+    }
+
+    @Test
+    public void identity_follows_address_update() {
+        registry.registerClient(newClient("reg1", "ep1", 5684));
+        registry.updateClient(new ClientUpdate("reg1", address, 6000));
+
+        assertNull(pskStore.getIdentity(new InetSocketAddress(address, 5684)));
+        assertEquals("ep1-identity", pskStore.getIdentity(new InetSocketAddress(address, 6000)));
+    }
+
+    @Test
+    public void address_reused_by_another_client() {
+        registry.registerClient(newClient("reg1", "ep1", 5684));
+        registry.registerClient(newClient("reg2", "ep2", 5684));
+        registry.deregisterClient("reg1");
+
+        assertEquals("ep2-identity", pskStore.getIdentity(new InetSocketAddress(address, 5684)));
+    }
+
+    @Test
+    public void client_deregistered_after_the_snapshot_is_not_indexed() {
+        final Client deregistered = newClient("reg1", "ep1", 5684);
+        ClientRegistryImpl staleRegistry = new ClientRegistryImpl() {
+            @Override
+            public Collection<Client> allClients() {
+                // de-registered between the listener registration and the snapshot
+                return Arrays.asList(deregistered);
+            }
+        };
+        LwM2mPskStore store = new LwM2mPskStore(securityStore, staleRegistry);
+
+        assertNull(store.getIdentity(new InetSocketAddress(address, 5684)));
+    }
+
+    private Client newClient(String registrationId, String endpoint, int port) {
+        return new Client(registrationId, endpoint, address, port, null, null, null, null, null, null,
+                InetSocketAddress.createUnresolved("localhost", 5684));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium.impl;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import leshan.ResponseCode;
+import leshan.core.response.ValueResponse;
+import leshan.server.client.Client;
+import leshan.server.observation.ObservationRegistry;
+import leshan.server.request.ReadRequest;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link LwM2mResponseBuilder}
+ */
+public class LwM2mResponseBuilderTest {
+
+    private static class CustomReadRequest extends ReadRequest {
+
+        CustomReadRequest(Client client) {
+            super(client, 3, 0);
+        }
+    }
+
+    @Test
+    public void build_response_of_a_request_subclass() {
+        Client client = mock(Client.class);
+        Response coapResponse = new Response(CoAP.ResponseCode.NOT_FOUND);
+
+        ValueResponse response = LwM2mResponseBuilder.buildResponse(new CustomReadRequest(client), Request.newGet(),
+                coapResponse, mock(ObservationRegistry.class));
+
+        assertEquals(ResponseCode.NOT_FOUND, response.getCode());
+        assertNull(response.getContent());
+    }
+}
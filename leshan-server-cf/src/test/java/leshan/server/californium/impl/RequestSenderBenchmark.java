@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.californium.impl;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import leshan.core.request.ContentFormat;
+import leshan.core.node.LwM2mResource;
+import leshan.core.node.Value;
+import leshan.server.client.Client;
+import leshan.server.impl.ObservationRegistryImpl;
+import leshan.server.request.ExecuteRequest;
+import leshan.server.request.ReadRequest;
+import leshan.server.request.WriteRequest;
+
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.EndpointObserver;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptor;
+import org.eclipse.californium.core.server.MessageDeliverer;
+
+/**
+ * Measures the cost of translating LWM2M requests to CoAP and CoAP responses back to LWM2M in
+ * {@link CaliforniumLwM2mRequestSender}, using an endpoint answering synchronously.
+ * <p>
+ * Reports the time and the heap allocated per request (measured with the HotSpot thread allocation counter).
+ * </p>
+ */
+public class RequestSenderBenchmark {
+
+    private static final int REQUESTS = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress registrationAddress = new InetSocketAddress(5683);
+        Client client = new Client("ID", "urn:client", InetAddress.getLoopbackAddress(), 10000, "1.0", 10000L, null,
+                null, null, new Date(), registrationAddress);
+        CaliforniumLwM2mRequestSender sender = new CaliforniumLwM2mRequestSender(
+                Collections.<Endpoint> singleton(new AnsweringEndpoint(registrationAddress)),
+                new ObservationRegistryImpl());
+
+        // warm up, then measure
+        run(sender, client, REQUESTS / 5);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        run(sender, client, REQUESTS);
+        long duration = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+
+        System.out.println(String.format("%d ns/request, %d bytes/request", duration / REQUESTS, allocated / REQUESTS));
+        sender.destroy();
+    }
+
+    private static void run(CaliforniumLwM2mRequestSender sender, Client client, int requests) {
+        LwM2mResource value = new LwM2mResource(15, Value.newStringValue("Europe/Paris"));
+        for (int i = 0; i < requests; i++) {
+            switch (i % 3) {
+            case 0:
+                sender.send(new ReadRequest(client, 3, 0, 0));
+                break;
+            case 1:
+                sender.send(new WriteRequest(client, 3, 0, 15, value, ContentFormat.TEXT, true));
+                break;
+            default:
+                sender.send(new ExecuteRequest(client, 3, 0, 4));
+                break;
+            }
+        }
+    }
+
+    /**
+     * An endpoint answering synchronously to each request.
+     */
+    private static class AnsweringEndpoint implements Endpoint {
+
+        private final InetSocketAddress address;
+
+        AnsweringEndpoint(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public void sendRequest(Request request) {
+            Response response;
+            if (request.getCode() == org.eclipse.californium.core.coap.CoAP.Code.GET) {
+                response = new Response(ResponseCode.CONTENT);
+                response.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+                response.setPayload("Open Mobile Alliance");
+            } else {
+                response = new Response(ResponseCode.CHANGED);
+            }
+            request.setResponse(response);
+        }
+
+        @Override
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public boolean isStarted() {
+            return true;
+        }
+
+        @Override
+        public void setExecutor(ScheduledExecutorService executor) {
+        }
+
+        @Override
+        public void addObserver(EndpointObserver obs) {
+        }
+
+        @Override
+        public void removeObserver(EndpointObserver obs) {
+        }
+
+        @Override
+        public void addInterceptor(MessageInterceptor interceptor) {
+        }
+
+        @Override
+        public void removeInterceptor(MessageInterceptor interceptor) {
+        }
+
+        @Override
+        public List<MessageInterceptor> getInterceptors() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void sendResponse(Exchange exchange, Response response) {
+        }
+
+        @Override
+        public void sendEmptyMessage(Exchange exchange, EmptyMessage message) {
+        }
+
+        @Override
+        public void setMessageDeliverer(MessageDeliverer deliverer) {
+        }
+
+        @Override
+        public NetworkConfig getConfig() {
+            return null;
+        }
+    }
+}
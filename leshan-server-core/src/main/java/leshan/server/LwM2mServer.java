@@ -35,6 +35,7 @@ import leshan.core.response.ResponseConsumer;
 import leshan.server.client.ClientRegistry;
 import leshan.server.observation.ObservationRegistry;
 import leshan.server.request.LwM2mRequest;
+import leshan.server.request.ResponseFuture;
 import leshan.server.security.SecurityRegistry;
 
 /**
@@ -74,6 +75,13 @@ public interface LwM2mServer {
     <T extends ClientResponse> void send(LwM2mRequest<T> request, ResponseConsumer<T> responseCallback,
             ExceptionConsumer errorCallback);
 
+    /**
+     * Send a Lightweight M2M request asynchronously, without blocking the calling thread.
+     * 
+     * @return the future response; cancelling it cancels the underlying request
+     */
+    <T extends ClientResponse> ResponseFuture<T> sendAsync(LwM2mRequest<T> request);
+
     /**
      * Get the client registry containing the list of connected clients. You can use this object for listening client
      * registration/deregistration.
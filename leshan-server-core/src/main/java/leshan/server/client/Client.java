@@ -83,6 +83,9 @@ public class Client {
     // true, if the client failed to answer the last server request
     private boolean LastRequesttimedout = false;
 
+    // run when the client failed to answer a request
+    private Runnable timeoutHandler;
+
     public Client(String registrationId, String endpoint, InetAddress address, int port,
             InetSocketAddress registrationEndpoint) {
         this(registrationId, endpoint, address, port, null, null, null, null, null, registrationEndpoint);
@@ -98,6 +101,18 @@ public class Client {
     public Client(String registrationId, String endpoint, InetAddress address, int port, String lwM2mVersion,
             Long lifetime, String smsNumber, BindingMode binding, LinkObject[] objectLinks, Date registrationDate,
             InetSocketAddress registrationEndpoint) {
+        this(registrationId, endpoint, address, port, lwM2mVersion, lifetime, smsNumber, binding, objectLinks,
+                registrationDate, null, registrationEndpoint);
+    }
+
+    /**
+     * Creates a client from a stored registration, keeping the time of its last registration update.
+     * 
+     * @param lastUpdate the time of the last registration update, the current time if <code>null</code>
+     */
+    public Client(String registrationId, String endpoint, InetAddress address, int port, String lwM2mVersion,
+            Long lifetime, String smsNumber, BindingMode binding, LinkObject[] objectLinks, Date registrationDate,
+            Date lastUpdate, InetSocketAddress registrationEndpoint) {
 
         Validate.notEmpty(endpoint);
         Validate.notNull(address);
@@ -116,7 +131,7 @@ public class Client {
         this.lwM2mVersion = lwM2mVersion == null ? DEFAULT_LWM2M_VERSION : lwM2mVersion;
         bindingMode = binding == null ? BindingMode.U : binding;
         this.smsNumber = smsNumber;
-        lastUpdate = new Date();
+        this.lastUpdate = lastUpdate == null ? new Date() : lastUpdate;
         registrationEndpointAddress = registrationEndpoint;
     }
 
@@ -308,8 +323,30 @@ public class Client {
         this.lastUpdate = lastUpdate;
     }
 
-    public synchronized void markLastRequestTimedout() {
-        LastRequesttimedout = true;
+    public void markLastRequestTimedout() {
+        Runnable handler;
+        synchronized (this) {
+            LastRequesttimedout = true;
+            handler = timeoutHandler;
+        }
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * Sets the handler to run when the client failed to answer a request. The client registry uses it to remove the
+     * client without waiting for the end of its lifetime.
+     */
+    public synchronized void setTimeoutHandler(Runnable timeoutHandler) {
+        this.timeoutHandler = timeoutHandler;
+    }
+
+    /**
+     * @return the time in milliseconds since 1970/1/1 after which the registration is not valid anymore
+     */
+    public synchronized long getExpirationTime() {
+        return LastRequesttimedout ? 0 : lastUpdate.getTime() + lifeTimeInSec * 1000;
     }
 
     public synchronized boolean isMarkLastRequestTimedout() {
@@ -317,7 +354,7 @@ public class Client {
     }
 
     public synchronized boolean isAlive() {
-        return LastRequesttimedout ? false : lastUpdate.getTime() + lifeTimeInSec * 1000 > System.currentTimeMillis();
+        return getExpirationTime() > System.currentTimeMillis();
     }
 
     @Override
@@ -107,8 +107,16 @@ public class ClientUpdate {
         return port;
     }
 
+    /**
+     * @return a copy of the objects and object instances the client hosts/supports, or <code>null</code> if they did
+     *         not change
+     */
     public LinkObject[] getObjectLinks() {
-        return objectLinks;
+        // the array may be shared with other registrations through the object links cache
+        if (objectLinks == null) {
+            return null;
+        }
+        return Arrays.copyOf(objectLinks, objectLinks.length);
     }
 
     public Long getLifeTimeInSec() {
@@ -139,8 +147,8 @@ public class ClientUpdate {
             client.setPort(getPort());
         }
 
-        if (getObjectLinks() != null) {
-            client.setObjectLinks(getObjectLinks());
+        if (objectLinks != null) {
+            client.setObjectLinks(objectLinks);
         }
 
         if (getLifeTimeInSec() != null) {
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.client;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import leshan.LinkObject;
+import leshan.util.Validate;
+
+/**
+ * Canonicalizes the object links sent by the clients at registration and update time.
+ * <p>
+ * Devices of the same fleet usually send byte-identical link-format payloads: each distinct payload is parsed once and
+ * the resulting array is shared by all the {@link Client}s and {@link ClientUpdate}s built from it. The cache keeps the
+ * most recently used payloads, up to a maximum number of entries.
+ * </p>
+ * <p>
+ * The returned arrays are shared: they must not be modified.
+ * </p>
+ */
+public class ObjectLinksCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final Map<Payload, LinkObject[]> cache;
+
+    private long hits;
+
+    private long misses;
+
+    public ObjectLinksCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries the maximum number of distinct payloads kept in the cache
+     */
+    public ObjectLinksCache(final int maxEntries) {
+        Validate.isTrue(maxEntries > 0, "maxEntries must be positive");
+        this.cache = new LinkedHashMap<Payload, LinkObject[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<Payload, LinkObject[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the object links of a link-format payload, parsing it only if the same payload is not already in the cache.
+     * 
+     * @param content the link-format payload
+     * @return the shared object links
+     */
+    public LinkObject[] parse(byte[] content) {
+        Validate.notNull(content);
+
+        Payload payload = new Payload(content);
+        synchronized (cache) {
+            LinkObject[] objectLinks = cache.get(payload);
+            if (objectLinks != null) {
+                hits++;
+                return objectLinks;
+            }
+        }
+
+        // parse outside of the lock, concurrent parsing of the same new payload keeps the first result
+        LinkObject[] objectLinks = LinkObject.parse(content);
+        synchronized (cache) {
+            misses++;
+            LinkObject[] previous = cache.get(payload);
+            if (previous != null) {
+                return previous;
+            }
+            // the request payload is not ours, keep a copy as key
+            cache.put(new Payload(Arrays.copyOf(content, content.length), payload.hash), objectLinks);
+        }
+        return objectLinks;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    /**
+     * A payload used as cache key: the content is compared byte per byte, the hash is only a shortcut.
+     */
+    private static class Payload {
+
+        private final byte[] content;
+
+        private final int hash;
+
+        Payload(byte[] content) {
+            this(content, Arrays.hashCode(content));
+        }
+
+        Payload(byte[] content, int hash) {
+            this.content = content;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Payload)) {
+                return false;
+            }
+            Payload other = (Payload) obj;
+            return hash == other.hash && Arrays.equals(content, other.content);
+        }
+    }
+}
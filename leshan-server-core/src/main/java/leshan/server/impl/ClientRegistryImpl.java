@@ -59,6 +59,14 @@ public class ClientRegistryImpl implements ClientRegistry, Startable, Stopable {
 
     private final Map<String /* end-point */, Client> clientsByEp = new ConcurrentHashMap<>();
 
+    private final Map<String /* registration id */, Client> clientsByRegId = new ConcurrentHashMap<>();
+
+    // keeps the two indexes consistent on registration and de-registration, lookups do not lock
+    private final Object writeLock = new Object();
+
+    // registrations by expiration time, with a 1 second precision
+    private final TimingWheel<Client> expirations = new TimingWheel<>(1000, 65536, System.currentTimeMillis());
+
     private final List<ClientRegistryListener> listeners = new CopyOnWriteArrayList<>();
 
     @Override
@@ -87,7 +95,20 @@ public class ClientRegistryImpl implements ClientRegistry, Startable, Stopable {
 
         LOG.debug("Registering new client: {}", client);
 
-        Client previous = clientsByEp.put(client.getEndpoint(), client);
+        Client previous;
+        synchronized (writeLock) {
+            previous = clientsByEp.put(client.getEndpoint(), client);
+            if (previous != null && previous.getRegistrationId() != null) {
+                clientsByRegId.remove(previous.getRegistrationId());
+            }
+            if (client.getRegistrationId() != null) {
+                clientsByRegId.put(client.getRegistrationId(), client);
+            }
+        }
+        if (previous != null) {
+            unscheduleExpiration(previous);
+        }
+        scheduleExpiration(client);
         if (previous != null) {
             for (ClientRegistryListener l : listeners) {
                 l.unregistered(previous);
@@ -110,6 +131,7 @@ public class ClientRegistryImpl implements ClientRegistry, Startable, Stopable {
             return null;
         } else {
             clientUpdated.apply(client);
+            expirations.schedule(client, client.getExpirationTime());
             for (ClientRegistryListener l : listeners) {
                 l.updated(client);
             }
@@ -123,11 +145,17 @@ public class ClientRegistryImpl implements ClientRegistry, Startable, Stopable {
 
         LOG.debug("Deregistering client with registrationId: {}", registrationId);
 
-        Client toBeUnregistered = findByRegistrationId(registrationId);
-        if (toBeUnregistered == null) {
+        Client unregistered;
+        synchronized (writeLock) {
+            unregistered = clientsByRegId.remove(registrationId);
+            if (unregistered != null) {
+                clientsByEp.remove(unregistered.getEndpoint());
+            }
+        }
+        if (unregistered == null) {
             return null;
         } else {
-            Client unregistered = clientsByEp.remove(toBeUnregistered.getEndpoint());
+            unscheduleExpiration(unregistered);
             for (ClientRegistryListener l : listeners) {
                 l.unregistered(unregistered);
             }
@@ -137,16 +165,26 @@ public class ClientRegistryImpl implements ClientRegistry, Startable, Stopable {
     }
 
     private Client findByRegistrationId(String id) {
-        Client result = null;
-        if (id != null) {
-            for (Client client : clientsByEp.values()) {
-                if (id.equals(client.getRegistrationId())) {
-                    result = client;
-                    break;
-                }
-            }
+        return id == null ? null : clientsByRegId.get(id);
+    }
+
+    private void scheduleExpiration(final Client client) {
+        if (client.getRegistrationId() == null) {
+            return;
         }
-        return result;
+        // a client which does not answer is removed at the next clean-up
+        client.setTimeoutHandler(new Runnable() {
+            @Override
+            public void run() {
+                expirations.schedule(client, 0);
+            }
+        });
+        expirations.schedule(client, client.getExpirationTime());
+    }
+
+    private void unscheduleExpiration(Client client) {
+        client.setTimeoutHandler(null);
+        expirations.cancel(client);
     }
 
     /**
@@ -154,9 +192,8 @@ public class ClientRegistryImpl implements ClientRegistry, Startable, Stopable {
      */
     @Override
     public void start() {
-        // every 2 seconds clean the registration list
-        // TODO re-consider clean-up interval: wouldn't 5 minutes do as well?
-        schedExecutor.scheduleAtFixedRate(new Cleaner(), 2, 2, TimeUnit.SECONDS);
+        // every second remove the expired registrations
+        schedExecutor.scheduleAtFixedRate(new Cleaner(), 1, 1, TimeUnit.SECONDS);
     }
 
     /**
@@ -178,11 +215,18 @@ public class ClientRegistryImpl implements ClientRegistry, Startable, Stopable {
 
         @Override
         public void run() {
-            for (Client client : clientsByEp.values()) {
+            for (Client client : expirations.advance(System.currentTimeMillis())) {
                 synchronized (client) {
+                    if (findByRegistrationId(client.getRegistrationId()) != client) {
+                        // already de-registered
+                        continue;
+                    }
                     if (!client.isAlive()) {
                         // force de-registration
                         deregisterClient(client.getRegistrationId());
+                    } else {
+                        // updated in the meantime
+                        expirations.schedule(client, client.getExpirationTime());
                     }
                 }
             }
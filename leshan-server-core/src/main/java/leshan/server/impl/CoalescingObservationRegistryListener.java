@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.LwM2mPath;
+import leshan.core.node.codec.InvalidValueException;
+import leshan.server.observation.Notification;
+import leshan.server.observation.NotificationListener;
+import leshan.server.observation.Observation;
+import leshan.server.observation.ObservationRegistryListener;
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link ObservationRegistryListener} protecting another listener from notification storms, for instance from
+ * clients ignoring the <code>pmin</code> attribute.
+ * <p>
+ * For each observation, at most one notification is delivered per coalescing window: the notifications received during
+ * the window are merged, only the latest value is delivered at the end of the window. The window can be configured by
+ * object, object instance or resource path ({@link #setWindow(String, long)}), the most specific path wins.
+ * </p>
+ * <p>
+ * The number of notifications delivered for each client can also be limited: the notifications exceeding the rate are
+ * merged and delivered later.
+ * </p>
+ * <p>
+ * The first notification of a window is delivered in the calling thread, the merged notifications are delivered by the
+ * given scheduler.
+ * The notifications of an observation are delivered one at a time, in the order they were received.
+ * </p>
+ */
+public class CoalescingObservationRegistryListener implements ObservationRegistryListener, NotificationListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingObservationRegistryListener.class);
+
+    private final ObservationRegistryListener delegate;
+    private final long defaultWindow;
+    private final int maxRatePerClient;
+    private final ScheduledExecutorService scheduler;
+
+    // coalescing window by object, object instance or resource path
+    private final Map<LwM2mPath, Long> windows = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String /* registration id */, ClientState> clients = new ConcurrentHashMap<>();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param delegate the listener to protect
+     * @param defaultWindow the default coalescing window in milliseconds (0 to deliver all the notifications)
+     * @param maxRatePerClient the maximum number of notifications delivered per second for a client (0 for no limit)
+     * @param scheduler the scheduler delivering the merged notifications
+     */
+    public CoalescingObservationRegistryListener(ObservationRegistryListener delegate, long defaultWindow,
+            int maxRatePerClient, ScheduledExecutorService scheduler) {
+        Validate.notNull(delegate);
+        Validate.isTrue(defaultWindow >= 0, "window must be positive or zero");
+        Validate.isTrue(maxRatePerClient >= 0, "rate must be positive or zero");
+        Validate.notNull(scheduler);
+
+        this.delegate = delegate;
+        this.defaultWindow = defaultWindow;
+        this.maxRatePerClient = maxRatePerClient;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets the coalescing window of an object (e.g. "/3"), an object instance ("/3/0") or a resource ("/3/0/13").
+     *
+     * @param path the path
+     * @param window the window in milliseconds (0 to deliver all the notifications)
+     */
+    public void setWindow(String path, long window) {
+        Validate.isTrue(window >= 0, "window must be positive or zero");
+        windows.put(LwM2mPath.valueOf(path), window);
+    }
+
+    private long windowOf(LwM2mPath path) {
+        if (windows.isEmpty()) {
+            return defaultWindow;
+        }
+        Long window = null;
+        if (path.isResource()) {
+            window = windows.get(path);
+        }
+        if (window == null && path.getObjectInstanceId() != null) {
+            window = windows.get(new LwM2mPath(path.getObjectId(), path.getObjectInstanceId()));
+        }
+        if (window == null) {
+            window = windows.get(new LwM2mPath(path.getObjectId()));
+        }
+        return window == null ? defaultWindow : window;
+    }
+
+    @Override
+    public void newObservation(Observation observation) {
+        delegate.newObservation(observation);
+    }
+
+    @Override
+    public void cancelled(Observation observation) {
+        String registrationId = observation.getClient().getRegistrationId();
+        ClientState client = clients.get(registrationId);
+        if (client != null) {
+            synchronized (client) {
+                ObservationState state = client.observations.remove(observation);
+                if (state != null && state.pending) {
+                    state.clearPending();
+                    dropped.incrementAndGet();
+                }
+                if (client.observations.isEmpty()) {
+                    client.removed = true;
+                    clients.remove(registrationId, client);
+                }
+            }
+        }
+        delegate.cancelled(observation);
+    }
+
+    @Override
+    public void newValue(Observation observation, LwM2mNode value) {
+        onNotification(observation, value, null);
+    }
+
+    @Override
+    public void newNotification(Observation observation, Notification notification) {
+        onNotification(observation, null, notification);
+    }
+
+    private void onNotification(Observation observation, LwM2mNode value, Notification notification) {
+        long window = windowOf(observation.getPath());
+        while (true) {
+            ClientState client = clientState(observation.getClient().getRegistrationId());
+            ObservationState state;
+            synchronized (client) {
+                if (client.removed) {
+                    // removed concurrently, use the new one
+                    continue;
+                }
+                state = client.observations.get(observation);
+                if (state == null) {
+                    state = new ObservationState();
+                    client.observations.put(observation, state);
+                }
+
+                if (state.pending) {
+                    // a notification is already waiting: keep only the latest value
+                    state.value = value;
+                    state.notification = notification;
+                    merged.incrementAndGet();
+                    return;
+                }
+
+                if (state.delivering) {
+                    // delivered once the previous notification is, so that the listener gets the values in order
+                    state.pending = true;
+                    state.value = value;
+                    state.notification = notification;
+                    return;
+                }
+
+                long now = now();
+                long deliveryTime = Math.max(state.lastDelivery + window, client.nextTokenTime(now));
+                if (deliveryTime > now) {
+                    state.pending = true;
+                    state.value = value;
+                    state.notification = notification;
+                    state.flush = scheduler.schedule(new Flush(observation, state, client, window), deliveryTime
+                            - now, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                client.takeToken(now);
+                state.lastDelivery = now;
+                state.delivering = true;
+            }
+            // decode and call the listener outside of the lock
+            try {
+                deliver(observation, value, notification);
+            } finally {
+                synchronized (client) {
+                    endDelivery(observation, state, client, window);
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Ends the delivery of a notification and schedules the notification received meanwhile, if any. Called with the
+     * client lock held.
+     */
+    private void endDelivery(Observation observation, ObservationState state, ClientState client, long window) {
+        state.delivering = false;
+        if (state.pending && state.flush == null && client.observations.get(observation) == state) {
+            long now = now();
+            long deliveryTime = Math.max(state.lastDelivery + window, client.nextTokenTime(now));
+            state.flush = scheduler.schedule(new Flush(observation, state, client, window),
+                    Math.max(0, deliveryTime - now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private ClientState clientState(String registrationId) {
+        ClientState client = clients.get(registrationId);
+        if (client == null) {
+            ClientState newClient = new ClientState(maxRatePerClient, now());
+            client = clients.putIfAbsent(registrationId, newClient);
+            if (client == null) {
+                client = newClient;
+            }
+        }
+        return client;
+    }
+
+    private void deliver(Observation observation, LwM2mNode value, Notification notification) {
+        delivered.incrementAndGet();
+        try {
+            if (notification != null) {
+                notification.deliverTo(delegate, observation);
+            } else {
+                delegate.newValue(observation, value);
+            }
+        } catch (InvalidValueException e) {
+            LOG.debug("Unable to decode notification {}", notification, e);
+        } catch (RuntimeException e) {
+            LOG.error("Observation listener failed to handle notification", e);
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * @return the number of notifications delivered to the listener
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of notifications replaced by a more recent one
+     */
+    public long getMergedCount() {
+        return merged.get();
+    }
+
+    /**
+     * @return the number of waiting notifications dropped because the observation was cancelled
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private class Flush implements Runnable {
+
+        private final Observation observation;
+        private final ObservationState state;
+        private final ClientState client;
+        private final long window;
+
+        Flush(Observation observation, ObservationState state, ClientState client, long window) {
+            this.observation = observation;
+            this.state = state;
+            this.client = client;
+            this.window = window;
+        }
+
+        @Override
+        public void run() {
+            LwM2mNode value;
+            Notification notification;
+            synchronized (client) {
+                if (!state.pending || client.observations.get(observation) != state) {
+                    return;
+                }
+                if (state.delivering) {
+                    // scheduled again once the delivery in progress ends
+                    state.flush = null;
+                    return;
+                }
+
+                long now = now();
+                long deliveryTime = Math.max(state.lastDelivery + window, client.nextTokenTime(now));
+                if (deliveryTime > now) {
+                    // no token available yet
+                    state.flush = scheduler.schedule(this, deliveryTime - now, TimeUnit.MILLISECONDS);
+                    return;
+                }
+
+                // take the pending notification, it is delivered outside of the lock
+                client.takeToken(now);
+                state.lastDelivery = now;
+                value = state.value;
+                notification = state.notification;
+                state.clearPending();
+                state.delivering = true;
+            }
+            try {
+                deliver(observation, value, notification);
+            } finally {
+                synchronized (client) {
+                    endDelivery(observation, state, client, window);
+                }
+            }
+        }
+    }
+
+    /**
+     * The observations and the delivery rate of a client, guarded by the instance lock.
+     */
+    private static class ClientState {
+
+        final Map<Observation, ObservationState> observations = new IdentityHashMap<>();
+
+        // token bucket allowing 'rate' deliveries per second, 0 for no limit
+        final int rate;
+        double tokens;
+        long lastRefill;
+
+        boolean removed = false;
+
+        ClientState(int rate, long now) {
+            this.rate = rate;
+            this.tokens = rate;
+            this.lastRefill = now;
+        }
+
+        long nextTokenTime(long now) {
+            if (rate == 0) {
+                return now;
+            }
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1000d);
+            lastRefill = now;
+            if (tokens >= 1) {
+                return now;
+            }
+            return now + (long) Math.ceil((1 - tokens) * 1000 / rate);
+        }
+
+        void takeToken(long now) {
+            if (rate != 0) {
+                nextTokenTime(now);
+                tokens--;
+            }
+        }
+    }
+
+    /**
+     * The delivery state of an observation, guarded by the lock of its client.
+     */
+    private static class ObservationState {
+
+        long lastDelivery = Long.MIN_VALUE;
+
+        // a notification is being delivered outside of the client lock
+        boolean delivering = false;
+
+        boolean pending = false;
+        LwM2mNode value;
+        Notification notification;
+        ScheduledFuture<?> flush;
+
+        void clearPending() {
+            pending = false;
+            value = null;
+            notification = null;
+            if (flush != null) {
+                flush.cancel(false);
+                flush = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import leshan.LinkObject;
+import leshan.server.Startable;
+import leshan.server.Stopable;
+import leshan.server.client.BindingMode;
+import leshan.server.client.Client;
+import leshan.server.client.ClientRegistry;
+import leshan.server.client.ClientRegistryListener;
+import leshan.server.client.ClientUpdate;
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In memory client registry for large deployments.
+ * <p>
+ * Unlike {@link ClientRegistryImpl}, this registry does not keep the {@link Client} objects: each registration is a
+ * slot in a set of primitive arrays (one array per property). The values shared by many clients (LWM2M version,
+ * registration end point, object links) are stored once in dictionaries and referenced by id, and the end-point and
+ * registration id indexes are open addressing tables of slots. A million registrations are thus a few dozen large
+ * arrays instead of tens of millions of small objects for the garbage collector to trace.
+ * </p>
+ * <p>
+ * The {@link Client}s returned by this registry are views built on demand: two lookups of the same registration return
+ * different (but equal) instances, and changes made on a view are not stored, except
+ * {@link Client#markLastRequestTimedout()} which is reported to the registry. Object links with the same content are
+ * stored once. IPv6 scope ids are not kept.
+ * </p>
+ * <p>
+ * Expired registrations are found with a timing wheel of registration ids, and checked against the slot once expired.
+ * </p>
+ */
+public class CompactClientRegistry implements ClientRegistry, Startable, Stopable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactClientRegistry.class);
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int ADDRESS_SIZE = 16;
+
+    private static final int NO_VALUE = -1;
+
+    private static final BindingMode[] BINDING_MODES = BindingMode.values();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // registration columns, indexed by slot. A slot is free when its endpoint is null.
+    private String[] endpoints;
+    private String[] registrationIds;
+    private byte[] addresses;
+    private byte[] addressLengths;
+    private int[] ports;
+    private long[] registrationDates;
+    private long[] lastUpdates;
+    private long[] lifetimes;
+    private String[] smsNumbers;
+    private byte[] bindingModes;
+    private boolean[] timedOut;
+    private int[] lwM2mVersions;
+    private int[] registrationEndpoints;
+    private int[] objectLinks;
+
+    private final ValueDictionary<String> lwM2mVersionDictionary = new ValueDictionary<>();
+    private final ValueDictionary<InetSocketAddress> registrationEndpointDictionary = new ValueDictionary<>();
+    private final ValueDictionary<List<LinkObject>> objectLinksDictionary = new ValueDictionary<>();
+
+    private final SlotIndex slotsByEndpoint = new SlotIndex() {
+        @Override
+        String keyOf(int slot) {
+            return endpoints[slot];
+        }
+    };
+
+    private final SlotIndex slotsByRegistrationId = new SlotIndex() {
+        @Override
+        String keyOf(int slot) {
+            return registrationIds[slot];
+        }
+    };
+
+    // slots below the high water mark which were released
+    private int[] freeSlots = new int[16];
+    private int freeSlotsCount;
+    private int highWaterMark;
+    private int size;
+
+    // expiration of each registration, keyed by the registration id instance of its slot
+    private final TimingWheel<String> expirations = new TimingWheel<>(1000, 65536, System.currentTimeMillis());
+
+    private final List<ClientRegistryListener> listeners = new CopyOnWriteArrayList<>();
+
+    public CompactClientRegistry() {
+        allocateColumns(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void addListener(ClientRegistryListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(ClientRegistryListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public Collection<Client> allClients() {
+        lock.readLock().lock();
+        try {
+            List<Client> clients = new ArrayList<>(size);
+            for (int slot = 0; slot < highWaterMark; slot++) {
+                if (endpoints[slot] != null) {
+                    clients.add(toClient(slot));
+                }
+            }
+            return Collections.unmodifiableList(clients);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Client get(String endpoint) {
+        if (endpoint == null) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            int slot = slotsByEndpoint.find(endpoint);
+            return slot == NO_VALUE ? null : toClient(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of registered clients
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Client registerClient(Client client) {
+        Validate.notNull(client);
+
+        LOG.debug("Registering new client: {}", client);
+
+        Client previous = null;
+        lock.writeLock().lock();
+        try {
+            int previousSlot = slotsByEndpoint.find(client.getEndpoint());
+            if (previousSlot != NO_VALUE) {
+                previous = toClient(previousSlot);
+                release(previousSlot);
+            }
+
+            int slot = allocate();
+            endpoints[slot] = client.getEndpoint();
+            registrationIds[slot] = client.getRegistrationId();
+            store(slot, client);
+            slotsByEndpoint.put(client.getEndpoint(), slot);
+            if (client.getRegistrationId() != null) {
+                slotsByRegistrationId.put(client.getRegistrationId(), slot);
+                expirations.schedule(registrationIds[slot], expirationTime(slot));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (previous != null) {
+            previous.setTimeoutHandler(null);
+        }
+        client.setTimeoutHandler(timeoutHandler(client.getRegistrationId()));
+        if (previous != null) {
+            for (ClientRegistryListener l : listeners) {
+                l.unregistered(previous);
+            }
+        }
+        for (ClientRegistryListener l : listeners) {
+            l.registered(client);
+        }
+
+        return previous;
+    }
+
+    @Override
+    public Client updateClient(ClientUpdate clientUpdated) {
+        Validate.notNull(clientUpdated);
+
+        LOG.debug("Updating registration for client: {}", clientUpdated);
+
+        Client client;
+        lock.writeLock().lock();
+        try {
+            int slot = findByRegistrationId(clientUpdated.getRegistrationId());
+            if (slot == NO_VALUE) {
+                return null;
+            }
+            client = toClient(slot);
+            clientUpdated.apply(client);
+            releaseValues(slot);
+            store(slot, client);
+            expirations.schedule(registrationIds[slot], expirationTime(slot));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (ClientRegistryListener l : listeners) {
+            l.updated(client);
+        }
+        return client;
+    }
+
+    @Override
+    public Client deregisterClient(String registrationId) {
+        Validate.notNull(registrationId);
+
+        LOG.debug("Deregistering client with registrationId: {}", registrationId);
+
+        Client unregistered = remove(registrationId, Long.MAX_VALUE);
+        if (unregistered != null) {
+            LOG.debug("Deregistered client: {}", unregistered);
+        }
+        return unregistered;
+    }
+
+    /**
+     * Removes a registration if it expired before the given time.
+     */
+    private Client remove(String registrationId, long expiredBefore) {
+        Client unregistered;
+        lock.writeLock().lock();
+        try {
+            int slot = findByRegistrationId(registrationId);
+            if (slot == NO_VALUE || expirationTime(slot) > expiredBefore) {
+                return null;
+            }
+            unregistered = toClient(slot);
+            release(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        unregistered.setTimeoutHandler(null);
+        for (ClientRegistryListener l : listeners) {
+            l.unregistered(unregistered);
+        }
+        return unregistered;
+    }
+
+    private int findByRegistrationId(String id) {
+        return id == null ? NO_VALUE : slotsByRegistrationId.find(id);
+    }
+
+    private void markTimedOut(String registrationId) {
+        lock.writeLock().lock();
+        try {
+            int slot = findByRegistrationId(registrationId);
+            if (slot != NO_VALUE) {
+                timedOut[slot] = true;
+                expirations.schedule(registrationIds[slot], 0);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Runnable timeoutHandler(final String registrationId) {
+        if (registrationId == null) {
+            return null;
+        }
+        // a client which does not answer is removed at the next clean-up
+        return new Runnable() {
+            @Override
+            public void run() {
+                markTimedOut(registrationId);
+            }
+        };
+    }
+
+    private long expirationTime(int slot) {
+        return timedOut[slot] ? 0 : lastUpdates[slot] + lifetimes[slot] * 1000;
+    }
+
+    /**
+     * Stores the mutable registration properties of a client in a slot.
+     */
+    private void store(int slot, Client client) {
+        byte[] address = client.getAddress().getAddress();
+        System.arraycopy(address, 0, addresses, slot * ADDRESS_SIZE, address.length);
+        addressLengths[slot] = (byte) address.length;
+        ports[slot] = client.getPort();
+        registrationDates[slot] = client.getRegistrationDate().getTime();
+        lastUpdates[slot] = client.getLastUpdate().getTime();
+        lifetimes[slot] = client.getLifeTimeInSec();
+        smsNumbers[slot] = client.getSmsNumber();
+        bindingModes[slot] = (byte) client.getBindingMode().ordinal();
+        timedOut[slot] = client.isMarkLastRequestTimedout();
+        lwM2mVersions[slot] = lwM2mVersionDictionary.acquire(client.getLwM2mVersion());
+        registrationEndpoints[slot] = registrationEndpointDictionary.acquire(client
+                .getRegistrationEndpointAddress());
+        LinkObject[] links = client.getObjectLinks();
+        objectLinks[slot] = objectLinksDictionary.acquire(links == null ? null : Arrays.asList(links));
+    }
+
+    private Client toClient(int slot) {
+        int offset = slot * ADDRESS_SIZE;
+        InetAddress address;
+        try {
+            address = InetAddress.getByAddress(Arrays.copyOfRange(addresses, offset, offset + addressLengths[slot]));
+        } catch (UnknownHostException e) {
+            // only thrown for illegal address lengths
+            throw new IllegalStateException(e);
+        }
+
+        List<LinkObject> links = objectLinksDictionary.get(objectLinks[slot]);
+        Client client = new Client(registrationIds[slot], endpoints[slot], address, ports[slot],
+                lwM2mVersionDictionary.get(lwM2mVersions[slot]), lifetimes[slot], smsNumbers[slot],
+                BINDING_MODES[bindingModes[slot]], links == null ? null : links.toArray(new LinkObject[links.size()]),
+                new Date(registrationDates[slot]), new Date(lastUpdates[slot]),
+                registrationEndpointDictionary.get(registrationEndpoints[slot]));
+        if (timedOut[slot]) {
+            client.markLastRequestTimedout();
+        }
+        client.setTimeoutHandler(timeoutHandler(registrationIds[slot]));
+        return client;
+    }
+
+    private int allocate() {
+        int slot;
+        if (freeSlotsCount > 0) {
+            slot = freeSlots[--freeSlotsCount];
+        } else {
+            if (highWaterMark == endpoints.length) {
+                allocateColumns(endpoints.length * 2);
+            }
+            slot = highWaterMark++;
+        }
+        size++;
+        return slot;
+    }
+
+    private void release(int slot) {
+        slotsByEndpoint.remove(endpoints[slot]);
+        if (registrationIds[slot] != null) {
+            slotsByRegistrationId.remove(registrationIds[slot]);
+            expirations.cancel(registrationIds[slot]);
+        }
+        releaseValues(slot);
+        endpoints[slot] = null;
+        registrationIds[slot] = null;
+        smsNumbers[slot] = null;
+
+        if (freeSlotsCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotsCount++] = slot;
+        size--;
+    }
+
+    private void releaseValues(int slot) {
+        lwM2mVersionDictionary.release(lwM2mVersions[slot]);
+        registrationEndpointDictionary.release(registrationEndpoints[slot]);
+        objectLinksDictionary.release(objectLinks[slot]);
+    }
+
+    private void allocateColumns(int capacity) {
+        if (endpoints == null) {
+            endpoints = new String[capacity];
+            registrationIds = new String[capacity];
+            addresses = new byte[capacity * ADDRESS_SIZE];
+            addressLengths = new byte[capacity];
+            ports = new int[capacity];
+            registrationDates = new long[capacity];
+            lastUpdates = new long[capacity];
+            lifetimes = new long[capacity];
+            smsNumbers = new String[capacity];
+            bindingModes = new byte[capacity];
+            timedOut = new boolean[capacity];
+            lwM2mVersions = new int[capacity];
+            registrationEndpoints = new int[capacity];
+            objectLinks = new int[capacity];
+        } else {
+            endpoints = Arrays.copyOf(endpoints, capacity);
+            registrationIds = Arrays.copyOf(registrationIds, capacity);
+            addresses = Arrays.copyOf(addresses, capacity * ADDRESS_SIZE);
+            addressLengths = Arrays.copyOf(addressLengths, capacity);
+            ports = Arrays.copyOf(ports, capacity);
+            registrationDates = Arrays.copyOf(registrationDates, capacity);
+            lastUpdates = Arrays.copyOf(lastUpdates, capacity);
+            lifetimes = Arrays.copyOf(lifetimes, capacity);
+            smsNumbers = Arrays.copyOf(smsNumbers, capacity);
+            bindingModes = Arrays.copyOf(bindingModes, capacity);
+            timedOut = Arrays.copyOf(timedOut, capacity);
+            lwM2mVersions = Arrays.copyOf(lwM2mVersions, capacity);
+            registrationEndpoints = Arrays.copyOf(registrationEndpoints, capacity);
+            objectLinks = Arrays.copyOf(objectLinks, capacity);
+        }
+    }
+
+    /**
+     * start the registration manager, will start regular cleanup of dead registrations.
+     */
+    @Override
+    public void start() {
+        // every second remove the expired registrations
+        schedExecutor.scheduleAtFixedRate(new Cleaner(), 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the underlying cleanup of the registrations.
+     */
+    @Override
+    public void stop() {
+        schedExecutor.shutdownNow();
+        try {
+            schedExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOG.warn("Clean up registration thread was interrupted.", e);
+        }
+    }
+
+    private final ScheduledExecutorService schedExecutor = Executors.newScheduledThreadPool(1);
+
+    private class Cleaner implements Runnable {
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            for (String registrationId : expirations.advance(now)) {
+                if (remove(registrationId, now) == null) {
+                    // updated in the meantime
+                    reschedule(registrationId);
+                }
+            }
+        }
+
+        private void reschedule(String registrationId) {
+            lock.writeLock().lock();
+            try {
+                int slot = findByRegistrationId(registrationId);
+                if (slot != NO_VALUE) {
+                    expirations.schedule(registrationIds[slot], expirationTime(slot));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * An open addressing hash table (linear probing) from a string key to a slot. The keys are not stored in the
+     * table but read from the registration columns.
+     */
+    private abstract static class SlotIndex {
+
+        private int[] table = newTable(INITIAL_CAPACITY * 2);
+
+        private int count;
+
+        abstract String keyOf(int slot);
+
+        int find(String key) {
+            int mask = table.length - 1;
+            for (int i = indexFor(key, mask);; i = (i + 1) & mask) {
+                int slot = table[i];
+                if (slot == NO_VALUE) {
+                    return NO_VALUE;
+                }
+                if (key.equals(keyOf(slot))) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * Adds a key which is not in the table yet.
+         */
+        void put(String key, int slot) {
+            if ((count + 1) * 2 > table.length) {
+                resize(table.length * 2);
+            }
+            insert(table, key, slot);
+            count++;
+        }
+
+        void remove(String key) {
+            int mask = table.length - 1;
+            int i = indexFor(key, mask);
+            while (table[i] != NO_VALUE && !key.equals(keyOf(table[i]))) {
+                i = (i + 1) & mask;
+            }
+            if (table[i] == NO_VALUE) {
+                return;
+            }
+            table[i] = NO_VALUE;
+            count--;
+
+            // shift back the following entries of the cluster which can no longer be reached
+            for (int j = (i + 1) & mask; table[j] != NO_VALUE; j = (j + 1) & mask) {
+                int home = indexFor(keyOf(table[j]), mask);
+                boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+                if (!reachable) {
+                    table[i] = table[j];
+                    table[j] = NO_VALUE;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize(int length) {
+            int[] newTable = newTable(length);
+            for (int slot : table) {
+                if (slot != NO_VALUE) {
+                    insert(newTable, keyOf(slot), slot);
+                }
+            }
+            table = newTable;
+        }
+
+        private static void insert(int[] table, String key, int slot) {
+            int mask = table.length - 1;
+            int i = indexFor(key, mask);
+            while (table[i] != NO_VALUE) {
+                i = (i + 1) & mask;
+            }
+            table[i] = slot;
+        }
+
+        private static int indexFor(String key, int mask) {
+            int h = key.hashCode();
+            // spread the high bits, as in HashMap
+            h ^= (h >>> 20) ^ (h >>> 12);
+            return (h ^ (h >>> 7) ^ (h >>> 4)) & mask;
+        }
+
+        private static int[] newTable(int length) {
+            int[] table = new int[length];
+            Arrays.fill(table, NO_VALUE);
+            return table;
+        }
+    }
+
+    /**
+     * Reference counted values identified by an int id.
+     */
+    private static class ValueDictionary<T> {
+
+        private final Map<T, Integer> ids = new HashMap<>();
+
+        private final List<T> values = new ArrayList<>();
+
+        private int[] references = new int[16];
+
+        private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+        int acquire(T value) {
+            if (value == null) {
+                return NO_VALUE;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                if (freeIds.isEmpty()) {
+                    id = values.size();
+                    values.add(value);
+                    if (id == references.length) {
+                        references = Arrays.copyOf(references, id * 2);
+                    }
+                } else {
+                    id = freeIds.pop();
+                    values.set(id, value);
+                }
+                ids.put(value, id);
+            }
+            references[id]++;
+            return id;
+        }
+
+        T get(int id) {
+            return id == NO_VALUE ? null : values.get(id);
+        }
+
+        void release(int id) {
+            if (id != NO_VALUE && --references[id] == 0) {
+                ids.remove(values.get(id));
+                values.set(id, null);
+                freeIds.push(id);
+            }
+        }
+    }
+}
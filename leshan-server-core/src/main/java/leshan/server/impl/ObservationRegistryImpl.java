@@ -35,13 +35,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import leshan.core.node.LwM2mNode;
 import leshan.core.node.LwM2mPath;
+import leshan.core.node.codec.InvalidValueException;
 import leshan.server.client.Client;
+import leshan.server.observation.Notification;
+import leshan.server.observation.NotificationListener;
 import leshan.server.observation.Observation;
-import leshan.server.observation.ObservationListener;
 import leshan.server.observation.ObservationRegistry;
 import leshan.server.observation.ObservationRegistryListener;
 
@@ -50,36 +53,64 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A <code>Map</code> based registry for keeping track of this server's observed resources on LWM2M Clients.
- * 
+ * <p>
+ * The observations are stored by registration id, then by resource path. All the observations of a client are
+ * released at once when it is de-registered, and the observations cancelled by any other means are removed, so the
+ * registry only holds the active observations.
+ * </p>
+ * <p>
+ * The observations of a client are modified under a lock chosen by its registration id (lock striping), so the
+ * observations of different clients can be added and cancelled concurrently. The observations are cancelled outside of
+ * the locks.
+ * </p>
  */
-public class ObservationRegistryImpl implements ObservationRegistry, ObservationListener {
+public class ObservationRegistryImpl implements ObservationRegistry, NotificationListener {
+
+    private static final int STRIPES = 64;
 
     private final Logger LOG = LoggerFactory.getLogger(ObservationRegistryImpl.class);
-    private final Map<String /* registration id */, Map<LwM2mPath /* resource path */, Observation>> observationsByClientAndResource;
+    private final Map<String /* registration id */, ConcurrentMap<LwM2mPath /* resource path */, Observation>> observationsByClientAndResource;
+
+    private final Object[] locks = new Object[STRIPES];
 
     private final List<ObservationRegistryListener> listeners = new CopyOnWriteArrayList<>();
 
     public ObservationRegistryImpl() {
-        observationsByClientAndResource = new ConcurrentHashMap<String, Map<LwM2mPath, Observation>>();
+        observationsByClientAndResource = new ConcurrentHashMap<String, ConcurrentMap<LwM2mPath, Observation>>();
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private Object lockFor(String registrationId) {
+        int h = registrationId == null ? 0 : registrationId.hashCode();
+        // spread the high bits, as in HashMap
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return locks[h & (STRIPES - 1)];
     }
 
     @Override
-    public synchronized void addObservation(Observation observation) {
+    public void addObservation(Observation observation) {
 
         if (observation != null) {
             String registrationID = observation.getClient().getRegistrationId();
 
-            Map<LwM2mPath, Observation> clientObservations = observationsByClientAndResource.get(registrationID);
-            if (clientObservations == null) {
-                clientObservations = new ConcurrentHashMap<LwM2mPath, Observation>();
-                observationsByClientAndResource.put(registrationID, clientObservations);
+            Observation oldObservation;
+            synchronized (lockFor(registrationID)) {
+                ConcurrentMap<LwM2mPath, Observation> clientObservations = observationsByClientAndResource
+                        .get(registrationID);
+                if (clientObservations == null) {
+                    clientObservations = new ConcurrentHashMap<LwM2mPath, Observation>();
+                    observationsByClientAndResource.put(registrationID, clientObservations);
+                }
+                // replace the previous observation of the same resource
+                oldObservation = clientObservations.put(observation.getPath(), observation);
             }
 
-            Observation oldObservation = clientObservations.get(observation.getPath());
-            if (oldObservation != null) {
+            if (oldObservation != null && oldObservation != observation) {
                 oldObservation.cancel();
             }
-            clientObservations.put(observation.getPath(), observation);
             for (ObservationRegistryListener listener : listeners) {
                 listener.newObservation(observation);
             }
@@ -88,11 +119,14 @@ public class ObservationRegistryImpl implements ObservationRegistry, Observation
     }
 
     @Override
-    public synchronized int cancelObservations(Client client) {
+    public int cancelObservations(Client client) {
         int count = 0;
         if (client != null) {
-            Map<LwM2mPath, Observation> clientObservations = observationsByClientAndResource.get(client
-                    .getRegistrationId());
+            ConcurrentMap<LwM2mPath, Observation> clientObservations;
+            synchronized (lockFor(client.getRegistrationId())) {
+                // release all the observations of the client at once
+                clientObservations = observationsByClientAndResource.remove(client.getRegistrationId());
+            }
 
             if (clientObservations != null) {
                 count = clientObservations.size();
@@ -102,33 +136,34 @@ public class ObservationRegistryImpl implements ObservationRegistry, Observation
                 for (Observation obs : clientObservations.values()) {
                     obs.cancel();
                 }
-                clientObservations.clear();
-                observationsByClientAndResource.remove(client.getEndpoint());
             }
         }
         return count;
     }
 
     @Override
-    public synchronized void cancelObservation(Client client, String resourcepath) {
+    public void cancelObservation(Client client, String resourcepath) {
         if (client != null && resourcepath != null) {
-            Map<LwM2mPath, Observation> clientObservations = observationsByClientAndResource.get(client
-                    .getRegistrationId());
-
-            if (clientObservations != null) {
-                LwM2mPath lwM2mResourcePath = new LwM2mPath(resourcepath);
-                Observation observation = clientObservations.get(lwM2mResourcePath);
-                if (observation != null) {
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Canceling {} observation of client {}", resourcepath, client.getEndpoint());
-                    }
-                    observation.cancel();
-                    clientObservations.remove(lwM2mResourcePath);
-                    if (clientObservations.isEmpty()) {
-                        observationsByClientAndResource.remove(client.getEndpoint());
+            LwM2mPath lwM2mResourcePath = LwM2mPath.valueOf(resourcepath);
+            Observation observation = null;
+            synchronized (lockFor(client.getRegistrationId())) {
+                ConcurrentMap<LwM2mPath, Observation> clientObservations = observationsByClientAndResource.get(client
+                        .getRegistrationId());
+
+                if (clientObservations != null) {
+                    observation = clientObservations.remove(lwM2mResourcePath);
+                    if (observation != null && clientObservations.isEmpty()) {
+                        observationsByClientAndResource.remove(client.getRegistrationId());
                     }
                 }
             }
+
+            if (observation != null) {
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("Canceling {} observation of client {}", resourcepath, client.getEndpoint());
+                }
+                observation.cancel();
+            }
         }
     }
 
@@ -141,6 +176,24 @@ public class ObservationRegistryImpl implements ObservationRegistry, Observation
             return Collections.unmodifiableSet(new HashSet<Observation>(observations.values()));
     }
 
+    /**
+     * @return the number of clients having active observations
+     */
+    int getObservedClientsCount() {
+        return observationsByClientAndResource.size();
+    }
+
+    /**
+     * @return the number of active observations
+     */
+    int getObservationsCount() {
+        int count = 0;
+        for (Map<LwM2mPath, Observation> clientObservations : observationsByClientAndResource.values()) {
+            count += clientObservations.size();
+        }
+        return count;
+    }
+
     @Override
     public void addListener(ObservationRegistryListener listener) {
         listeners.add(listener);
@@ -153,6 +206,17 @@ public class ObservationRegistryImpl implements ObservationRegistry, Observation
 
     @Override
     public void cancelled(Observation observation) {
+        // the observation may have been cancelled without the registry (e.g. by the client)
+        String registrationId = observation.getClient().getRegistrationId();
+        synchronized (lockFor(registrationId)) {
+            ConcurrentMap<LwM2mPath, Observation> clientObservations = observationsByClientAndResource
+                    .get(registrationId);
+            if (clientObservations != null && clientObservations.remove(observation.getPath(), observation)
+                    && clientObservations.isEmpty()) {
+                observationsByClientAndResource.remove(registrationId);
+            }
+        }
+
         for (ObservationRegistryListener listener : listeners) {
             listener.cancelled(observation);
         }
@@ -164,4 +228,16 @@ public class ObservationRegistryImpl implements ObservationRegistry, Observation
             listener.newValue(observation, value);
         }
     }
+
+    @Override
+    public void newNotification(Observation observation, Notification notification) {
+        for (ObservationRegistryListener listener : listeners) {
+            try {
+                notification.deliverTo(listener, observation);
+            } catch (InvalidValueException e) {
+                LOG.debug("Unable to decode notification {} of client {}", notification, observation.getClient()
+                        .getEndpoint(), e);
+            }
+        }
+    }
 }
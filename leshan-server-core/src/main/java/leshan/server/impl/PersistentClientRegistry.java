@@ -0,0 +1,852 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import leshan.LinkObject;
+import leshan.server.Destroyable;
+import leshan.server.Startable;
+import leshan.server.Stopable;
+import leshan.server.client.BindingMode;
+import leshan.server.client.Client;
+import leshan.server.client.ClientRegistrationException;
+import leshan.server.client.ClientRegistry;
+import leshan.server.client.ClientRegistryListener;
+import leshan.server.client.ClientUpdate;
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A client registry persisting the registrations in a log file, so that the clients do not have to register again
+ * when the server restarts.
+ * <p>
+ * The registrations are held by an in memory registry ({@link ClientRegistryImpl} by default). Each registration,
+ * update and de-registration event is appended to a memory-mapped log file, and the log is replayed in the in memory
+ * registry on creation. The registrations which expired while the server was down are removed by the in memory
+ * registry once started.
+ * </p>
+ * <p>
+ * Appending only writes in the mapped memory: the events survive a crash of the server process right away, and are
+ * flushed to the disk in batches, every 100 milliseconds by default. A power loss may thus lose the last events. When
+ * the log contains much more events than registered clients, it is compacted: a snapshot of the registered clients
+ * is written in a new file which replaces the log.
+ * </p>
+ * 
+ * <pre>
+ * magic (4) | version (4) | records: length (4), CRC32 (4), record
+ * record: type (1), registration id (UTF), [client properties for the registration and update records]
+ * </pre>
+ * 
+ * A record with a zero length ends the log. An invalid record is skipped when valid records follow it, otherwise it is
+ * a partially written record and ends the log.
+ * <p>
+ * The changes made through this registry are logged in the order they are made. The changes made by the in memory
+ * registry itself (the expirations) are logged once the changes in progress are logged.
+ * </p>
+ */
+public class PersistentClientRegistry implements ClientRegistry, Startable, Stopable, Destroyable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentClientRegistry.class);
+
+    // default location for persistence
+    private static final String DEFAULT_FILE = "data/registrations.log";
+
+    private static final long DEFAULT_SYNC_INTERVAL = 100;
+
+    private static final int MAGIC = 0x4c57524c; // "LWRL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte REGISTERED = 1;
+    private static final byte UPDATED = 2;
+    private static final byte UNREGISTERED = 3;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte INTEGER_VALUE = 1;
+    private static final byte STRING_VALUE = 2;
+
+    private static final BindingMode[] BINDING_MODES = BindingMode.values();
+
+    private static final int MIN_MAPPED_SIZE = 1 << 20;
+
+    // the log is not compacted below this number of records
+    private static final int MIN_COMPACTION_RECORDS = 10000;
+
+    private final ClientRegistry delegate;
+
+    private final File file;
+
+    private final long syncInterval;
+
+    // held from the change of the in memory registry until its record is written
+    private final ReentrantLock changeLock = new ReentrantLock();
+
+    // the records waiting to be written, in the order of the changes
+    private final Queue<PendingRecord> pendingRecords = new ConcurrentLinkedQueue<>();
+
+    // guards the log file, its mapping and the counters
+    private final Object logLock = new Object();
+
+    // serializes the flushes and the release of the replaced mappings, without blocking the appends
+    private final Object syncLock = new Object();
+
+    // mappings replaced by a larger one or by the compacted log, released by the next sync
+    private final List<MappedByteBuffer> replacedMappings = new ArrayList<>();
+
+    private FileChannel channel;
+
+    private MappedByteBuffer log;
+
+    private int recordsCount;
+
+    private int liveClients;
+
+    private boolean dirty;
+
+    private boolean closed;
+
+    // records appended while a compaction writes the snapshot, null when no compaction is running
+    private List<byte[]> compactionBacklog;
+
+    private final ScheduledExecutorService schedExecutor = Executors.newScheduledThreadPool(1);
+
+    public PersistentClientRegistry() {
+        this(new ClientRegistryImpl(), DEFAULT_FILE);
+    }
+
+    /**
+     * @param delegate the in memory registry holding the registrations
+     * @param file the file path of the log
+     */
+    public PersistentClientRegistry(ClientRegistry delegate, String file) {
+        this(delegate, file, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * @param delegate the in memory registry holding the registrations
+     * @param file the file path of the log
+     * @param syncInterval the maximum time in milliseconds an event waits before being flushed to the disk
+     */
+    public PersistentClientRegistry(ClientRegistry delegate, String file, long syncInterval) {
+        Validate.notNull(delegate);
+        Validate.notEmpty(file);
+        Validate.isTrue(syncInterval > 0, "sync interval must be positive");
+
+        this.delegate = delegate;
+        this.file = new File(file);
+        this.syncInterval = syncInterval;
+
+        try {
+            open();
+            long start = System.nanoTime();
+            int replayed = replay();
+            recordsCount = replayed;
+            liveClients = delegate.allClients().size();
+            LOG.info("{} registrations loaded from {} records in {} ms", liveClients, replayed,
+                    (System.nanoTime() - start) / 1000000);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the registration log " + file, e);
+        }
+
+        // persist the events from now on, before the other listeners are notified
+        delegate.addListener(new ClientRegistryListener() {
+
+            @Override
+            public void registered(Client client) {
+                append(REGISTERED, client);
+            }
+
+            @Override
+            public void updated(Client clientUpdated) {
+                append(UPDATED, clientUpdated);
+            }
+
+            @Override
+            public void unregistered(Client client) {
+                append(UNREGISTERED, client);
+            }
+        });
+    }
+
+    @Override
+    public Client get(String endpoint) {
+        return delegate.get(endpoint);
+    }
+
+    @Override
+    public Collection<Client> allClients() {
+        return delegate.allClients();
+    }
+
+    @Override
+    public void addListener(ClientRegistryListener listener) {
+        delegate.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(ClientRegistryListener listener) {
+        delegate.removeListener(listener);
+    }
+
+    @Override
+    public Client registerClient(Client client) throws ClientRegistrationException {
+        changeLock.lock();
+        try {
+            return delegate.registerClient(client);
+        } finally {
+            changeLock.unlock();
+            writePendingRecords();
+        }
+    }
+
+    @Override
+    public Client updateClient(ClientUpdate update) throws ClientRegistrationException {
+        changeLock.lock();
+        try {
+            return delegate.updateClient(update);
+        } finally {
+            changeLock.unlock();
+            writePendingRecords();
+        }
+    }
+
+    @Override
+    public Client deregisterClient(String registrationId) throws ClientRegistrationException {
+        changeLock.lock();
+        try {
+            return delegate.deregisterClient(registrationId);
+        } finally {
+            changeLock.unlock();
+            writePendingRecords();
+        }
+    }
+
+    /**
+     * Starts the in memory registry and the periodic flush of the log.
+     */
+    @Override
+    public void start() {
+        if (delegate instanceof Startable) {
+            ((Startable) delegate).start();
+        }
+        schedExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync();
+                    if (needsCompaction()) {
+                        compact();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Unable to sync the registration log", e);
+                }
+            }
+        }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the in memory registry and flushes the log.
+     */
+    @Override
+    public void stop() {
+        if (delegate instanceof Stopable) {
+            ((Stopable) delegate).stop();
+        }
+        schedExecutor.shutdownNow();
+        try {
+            schedExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOG.warn("Registration log sync thread was interrupted.", e);
+        }
+        sync();
+    }
+
+    /**
+     * Flushes and closes the log.
+     */
+    @Override
+    public void destroy() {
+        schedExecutor.shutdownNow();
+        writePendingRecords();
+        synchronized (syncLock) {
+            synchronized (logLock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                log.force();
+                releaseReplacedMappings();
+                unmap(log);
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.warn("Unable to close the registration log", e);
+                }
+            }
+        }
+        if (delegate instanceof Destroyable) {
+            ((Destroyable) delegate).destroy();
+        }
+    }
+
+    // /////// Log file
+
+    private void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Registration log too large: " + size + " bytes");
+        }
+        log = channel.map(MapMode.READ_WRITE, 0, Math.max(MIN_MAPPED_SIZE, size));
+
+        if (size < HEADER_SIZE) {
+            log.putInt(MAGIC);
+            log.putInt(VERSION);
+        } else if (log.getInt() != MAGIC || log.getInt() != VERSION) {
+            throw new IOException("Not a registration log: " + file);
+        }
+    }
+
+    /**
+     * Applies the log records to the in memory registry.
+     * 
+     * @return the number of records
+     */
+    private int replay() throws IOException {
+        int count = 0;
+        CRC32 crc = new CRC32();
+        // the clients of a fleet share the same object links, decode them once
+        Map<ByteBuffer, LinkObject[]> objectLinks = new HashMap<>();
+        int position = log.position();
+        while (log.limit() - position >= RECORD_HEADER_SIZE && log.getInt(position) != 0) {
+            byte[] record = readRecord(position, crc);
+            if (record == null) {
+                int next = findRecord(position + 1, crc);
+                if (next < 0) {
+                    // a partially written record: erase it so that it is not mistaken for the end of the new records
+                    LOG.warn("Registration log truncated after {} records", count);
+                    erase(position);
+                    break;
+                }
+                LOG.warn("Skipping {} invalid bytes of the registration log after {} records", next - position, count);
+                position = next;
+                continue;
+            }
+
+            try {
+                apply(record, objectLinks);
+            } catch (IOException | ClientRegistrationException | RuntimeException e) {
+                LOG.warn("Ignoring invalid registration record", e);
+            }
+            position += RECORD_HEADER_SIZE + record.length;
+            count++;
+        }
+        log.position(position);
+        return count;
+    }
+
+    /**
+     * @return the record at the given position, or <code>null</code> if there is no valid record there
+     */
+    private byte[] readRecord(int position, CRC32 crc) {
+        if (log.limit() - position < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int length = log.getInt(position);
+        if (length <= 0 || length > log.limit() - position - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        byte[] record = new byte[length];
+        ByteBuffer buffer = log.duplicate();
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.get(record);
+        crc.reset();
+        crc.update(record);
+        return (int) crc.getValue() == log.getInt(position + 4) ? record : null;
+    }
+
+    /**
+     * @return the position of the first valid record from the given position, or -1 if there is none
+     */
+    private int findRecord(int from, CRC32 crc) {
+        for (int position = from; log.limit() - position >= RECORD_HEADER_SIZE; position++) {
+            if (log.getInt(position) != 0 && readRecord(position, crc) != null) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Zeroes the log from the given position to its last non zero byte.
+     */
+    private void erase(int from) {
+        int end = log.limit();
+        while (end > from && log.get(end - 1) == 0) {
+            end--;
+        }
+        for (int i = from; i < end; i++) {
+            log.put(i, (byte) 0);
+        }
+    }
+
+    private void apply(byte[] record, Map<ByteBuffer, LinkObject[]> objectLinks) throws IOException,
+            ClientRegistrationException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        String registrationId = in.readUTF();
+        if (type == UNREGISTERED) {
+            delegate.deregisterClient(registrationId);
+            return;
+        }
+
+        Client client = readClient(registrationId, record, in, objectLinks);
+        if (type == UPDATED) {
+            Client registered = delegate.get(client.getEndpoint());
+            if (registered == null || !registrationId.equals(registered.getRegistrationId())) {
+                // the registration was replaced or de-registered before
+                return;
+            }
+        }
+        // the latest state of the client replaces the previous one
+        delegate.registerClient(client);
+    }
+
+    private void append(byte type, Client client) {
+        if (client.getRegistrationId() == null) {
+            // cannot be updated nor de-registered, not worth persisting
+            return;
+        }
+
+        byte[] record;
+        try {
+            record = encode(type, client);
+        } catch (IOException e) {
+            LOG.warn("Unable to persist registration event for client " + client.getEndpoint(), e);
+            return;
+        }
+
+        // a change not made through this registry (an expiration) waits for the changes in progress
+        pendingRecords.add(new PendingRecord(type, record, client.getEndpoint()));
+        writePendingRecords();
+    }
+
+    /**
+     * Writes the queued records, unless a change is in progress in another thread: that thread writes them once done.
+     */
+    private void writePendingRecords() {
+        while (!pendingRecords.isEmpty() && changeLock.tryLock()) {
+            try {
+                PendingRecord pending;
+                while ((pending = pendingRecords.poll()) != null) {
+                    persist(pending);
+                }
+            } finally {
+                changeLock.unlock();
+            }
+        }
+    }
+
+    private void persist(PendingRecord pending) {
+        synchronized (logLock) {
+            if (closed) {
+                LOG.warn("Registration log closed, event not persisted for client {}", pending.endpoint);
+                return;
+            }
+            try {
+                write(pending.record);
+            } catch (IOException e) {
+                LOG.warn("Unable to persist registration event for client " + pending.endpoint, e);
+                return;
+            }
+            if (pending.type == REGISTERED) {
+                liveClients++;
+            } else if (pending.type == UNREGISTERED) {
+                liveClients--;
+            }
+            if (compactionBacklog != null) {
+                compactionBacklog.add(pending.record);
+            }
+        }
+    }
+
+    private void write(byte[] record) throws IOException {
+        // keep room for the zero length ending the log
+        long needed = (long) log.position() + RECORD_HEADER_SIZE + record.length + 4;
+        if (needed > log.capacity()) {
+            long size = Math.max(needed, 2L * log.capacity());
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Registration log too large: " + size + " bytes");
+            }
+            int position = log.position();
+            replacedMappings.add(log);
+            log = channel.map(MapMode.READ_WRITE, 0, size);
+            log.position(position);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        log.putInt(record.length);
+        log.putInt((int) crc.getValue());
+        log.put(record);
+        recordsCount++;
+        dirty = true;
+    }
+
+    /**
+     * Flushes the appended records to the disk.
+     */
+    void sync() {
+        writePendingRecords();
+        synchronized (syncLock) {
+            MappedByteBuffer buffer;
+            synchronized (logLock) {
+                if (closed) {
+                    return;
+                }
+                releaseReplacedMappings();
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                buffer = log;
+            }
+            // do not block the appends during the flush
+            buffer.force();
+        }
+    }
+
+    private void releaseReplacedMappings() {
+        // flushed first, a mapping replaced by a larger one may hold records not flushed yet
+        for (MappedByteBuffer mapping : replacedMappings) {
+            mapping.force();
+            unmap(mapping);
+        }
+        replacedMappings.clear();
+    }
+
+    /**
+     * Releases the mapping right away instead of waiting for the buffer to be garbage collected, which keeps the file
+     * mapped (even when it was replaced by the compacted log). The buffer must not be used anymore.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        try {
+            // java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), mapping);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not available
+        }
+        try {
+            Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(mapping);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Unable to release a registration log mapping, released once garbage collected", e);
+        }
+    }
+
+    private boolean needsCompaction() {
+        synchronized (logLock) {
+            return !closed && recordsCount > Math.max(MIN_COMPACTION_RECORDS, 2 * liveClients);
+        }
+    }
+
+    /**
+     * Replaces the log by a snapshot of the registered clients. The events appended while the snapshot is written are
+     * added after it.
+     */
+    void compact() throws IOException {
+        synchronized (logLock) {
+            if (closed || compactionBacklog != null) {
+                return;
+            }
+            compactionBacklog = new ArrayList<>();
+        }
+
+        File snapshot = new File(file.getPath() + ".tmp");
+        try {
+            int count = 0;
+            int size = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            try (FileOutputStream fileOut = new FileOutputStream(snapshot);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (Client client : delegate.allClients()) {
+                    if (client.getRegistrationId() == null) {
+                        continue;
+                    }
+                    byte[] record = encode(REGISTERED, client);
+                    crc.reset();
+                    crc.update(record);
+                    out.writeInt(record.length);
+                    out.writeInt((int) crc.getValue());
+                    out.write(record);
+                    size += RECORD_HEADER_SIZE + record.length;
+                    count++;
+                }
+                out.flush();
+                fileOut.getChannel().force(true);
+            }
+
+            synchronized (logLock) {
+                if (closed) {
+                    return;
+                }
+                Files.move(snapshot.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                replacedMappings.add(log);
+                log = channel.map(MapMode.READ_WRITE, 0, Math.max(MIN_MAPPED_SIZE, 2L * size));
+                log.position(size);
+                recordsCount = count;
+                for (byte[] record : compactionBacklog) {
+                    write(record);
+                }
+                dirty = true;
+                LOG.debug("Registration log compacted: {} clients, {} events appended meanwhile", count,
+                        compactionBacklog.size());
+            }
+        } finally {
+            synchronized (logLock) {
+                compactionBacklog = null;
+            }
+            snapshot.delete();
+        }
+    }
+
+    /**
+     * @return the number of records in the log
+     */
+    int getRecordsCount() {
+        synchronized (logLock) {
+            return recordsCount;
+        }
+    }
+
+    // /////// Records
+
+    private static class PendingRecord {
+        final byte type;
+        final byte[] record;
+        final String endpoint;
+
+        PendingRecord(byte type, byte[] record, String endpoint) {
+            this.type = type;
+            this.record = record;
+            this.endpoint = endpoint;
+        }
+    }
+
+    private static byte[] encode(byte type, Client client) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeUTF(client.getRegistrationId());
+        if (type != UNREGISTERED) {
+            writeClient(client, out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeClient(Client client, DataOutputStream out) throws IOException {
+        out.writeUTF(client.getEndpoint());
+        writeAddress(client.getAddress(), out);
+        out.writeInt(client.getPort());
+        writeString(client.getLwM2mVersion(), out);
+        out.writeLong(client.getLifeTimeInSec());
+        writeString(client.getSmsNumber(), out);
+        out.writeByte(client.getBindingMode().ordinal());
+        out.writeLong(client.getRegistrationDate().getTime());
+        out.writeLong(client.getLastUpdate().getTime());
+        out.writeBoolean(client.isMarkLastRequestTimedout());
+
+        InetSocketAddress registrationEndpoint = client.getRegistrationEndpointAddress();
+        out.writeBoolean(registrationEndpoint.isUnresolved());
+        if (registrationEndpoint.isUnresolved()) {
+            out.writeUTF(registrationEndpoint.getHostString());
+        } else {
+            writeAddress(registrationEndpoint.getAddress(), out);
+        }
+        out.writeInt(registrationEndpoint.getPort());
+
+        LinkObject[] objectLinks = client.getObjectLinks();
+        out.writeInt(objectLinks == null ? -1 : objectLinks.length);
+        if (objectLinks != null) {
+            for (LinkObject link : objectLinks) {
+                out.writeUTF(link.getUrl());
+                out.writeInt(link.getAttributes().size());
+                for (Entry<String, Object> attribute : link.getAttributes().entrySet()) {
+                    out.writeUTF(attribute.getKey());
+                    Object value = attribute.getValue();
+                    if (value == null) {
+                        out.writeByte(NULL_VALUE);
+                    } else if (value instanceof Integer) {
+                        out.writeByte(INTEGER_VALUE);
+                        out.writeInt((Integer) value);
+                    } else {
+                        out.writeByte(STRING_VALUE);
+                        out.writeUTF(value.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    private static Client readClient(String registrationId, byte[] record, DataInputStream in,
+            Map<ByteBuffer, LinkObject[]> objectLinksCache) throws IOException {
+        String endpoint = in.readUTF();
+        InetAddress address = readAddress(in);
+        int port = in.readInt();
+        String lwM2mVersion = readString(in);
+        long lifetime = in.readLong();
+        String smsNumber = readString(in);
+        BindingMode bindingMode = BINDING_MODES[in.readByte()];
+        Date registrationDate = new Date(in.readLong());
+        Date lastUpdate = new Date(in.readLong());
+        boolean timedOut = in.readBoolean();
+
+        InetSocketAddress registrationEndpoint;
+        if (in.readBoolean()) {
+            String host = in.readUTF();
+            registrationEndpoint = InetSocketAddress.createUnresolved(host, in.readInt());
+        } else {
+            InetAddress host = readAddress(in);
+            registrationEndpoint = new InetSocketAddress(host, in.readInt());
+        }
+
+        // the object links end the record
+        ByteBuffer linksKey = ByteBuffer.wrap(record, record.length - in.available(), in.available());
+        LinkObject[] objectLinks = objectLinksCache.get(linksKey);
+        int linksCount = objectLinks == null ? in.readInt() : -1;
+        if (linksCount >= 0) {
+            objectLinks = new LinkObject[linksCount];
+            for (int i = 0; i < linksCount; i++) {
+                String url = in.readUTF();
+                int attributesCount = in.readInt();
+                Map<String, Object> attributes = new HashMap<>();
+                for (int j = 0; j < attributesCount; j++) {
+                    String key = in.readUTF().intern();
+                    byte valueType = in.readByte();
+                    if (valueType == INTEGER_VALUE) {
+                        attributes.put(key, in.readInt());
+                    } else if (valueType == STRING_VALUE) {
+                        attributes.put(key, in.readUTF());
+                    } else {
+                        attributes.put(key, null);
+                    }
+                }
+                objectLinks[i] = new LinkObject(url, attributes);
+            }
+            objectLinksCache.put(linksKey, objectLinks);
+        }
+
+        Client client = new Client(registrationId, endpoint, address, port, lwM2mVersion, lifetime, smsNumber,
+                bindingMode, objectLinks, registrationDate, lastUpdate, registrationEndpoint);
+        if (timedOut) {
+            client.markLastRequestTimedout();
+        }
+        return client;
+    }
+
+    private static void writeAddress(InetAddress address, DataOutputStream out) throws IOException {
+        byte[] bytes = address.getAddress();
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    private static InetAddress readAddress(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readByte()];
+        in.readFully(bytes);
+        return InetAddress.getByAddress(bytes);
+    }
+
+    private static void writeString(String value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.codec.InvalidValueException;
+import leshan.server.observation.Notification;
+import leshan.server.observation.NotificationListener;
+import leshan.server.observation.Observation;
+import leshan.server.observation.ObservationRegistryListener;
+import leshan.util.Validate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link ObservationRegistryListener} which queues the events and delivers them to another listener from an
+ * {@link Executor}, so a slow listener does not stall the thread receiving the notifications (e.g. the CoAP stack).
+ * <p>
+ * The queue is bounded: when it is full, the {@link OverflowPolicy} decides what happens to new notifications. The
+ * observation lifecycle events (new observation, cancellation) are never dropped.
+ * </p>
+ * <p>
+ * The events are delivered in order, by one task at a time, so several listeners can share the same worker pool. The
+ * executor must not run the tasks in the calling thread when using {@link OverflowPolicy#BLOCK}.
+ * </p>
+ * <p>
+ * The raw {@link Notification}s are queued as is: if the listener needs the decoded content, the payload is decoded by
+ * the worker thread.
+ * </p>
+ */
+public class QueuedObservationRegistryListener implements ObservationRegistryListener, NotificationListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueuedObservationRegistryListener.class);
+
+    // number of events delivered before yielding the worker thread to other listeners
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * What to do with a new notification when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** drop the oldest queued notification */
+        DROP_OLDEST,
+        /**
+         * keep only the latest value of each observation: a new notification replaces the queued notification of the
+         * same observation, the oldest notification is dropped if there is none
+         */
+        COALESCE,
+        /** wait until there is space in the queue */
+        BLOCK
+    }
+
+    private final ObservationRegistryListener delegate;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Event> queue = new ArrayDeque<>();
+    // queued notification by observation, for COALESCE
+    private final Map<Observation, Event> pendingNotifications = new IdentityHashMap<>();
+    private boolean scheduled = false;
+
+    // metrics, guarded by lock
+    private long delivered;
+    private long dropped;
+    private long coalesced;
+    private int maxQueueSize;
+
+    private final Runnable drainer = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param delegate the listener to deliver the events to
+     * @param capacity the maximum number of queued notifications
+     * @param policy what to do with new notifications when the queue is full
+     * @param executor the worker pool delivering the events
+     */
+    public QueuedObservationRegistryListener(ObservationRegistryListener delegate, int capacity,
+            OverflowPolicy policy, Executor executor) {
+        Validate.notNull(delegate);
+        Validate.isTrue(capacity > 0, "capacity must be positive");
+        Validate.notNull(policy);
+        Validate.notNull(executor);
+
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.executor = executor;
+    }
+
+    @Override
+    public void newObservation(Observation observation) {
+        enqueue(new Event(Event.NEW_OBSERVATION, observation, null));
+    }
+
+    @Override
+    public void cancelled(Observation observation) {
+        enqueue(new Event(Event.CANCELLED, observation, null));
+    }
+
+    @Override
+    public void newValue(Observation observation, LwM2mNode value) {
+        enqueueNotification(observation, value, null);
+    }
+
+    @Override
+    public void newNotification(Observation observation, Notification notification) {
+        enqueueNotification(observation, null, notification);
+    }
+
+    private void enqueueNotification(Observation observation, LwM2mNode value, Notification notification) {
+        boolean schedule;
+        synchronized (lock) {
+            if (policy == OverflowPolicy.COALESCE) {
+                Event pending = pendingNotifications.get(observation);
+                if (pending != null) {
+                    pending.value = value;
+                    pending.notification = notification;
+                    coalesced++;
+                    return;
+                }
+            }
+
+            if (queue.size() >= capacity) {
+                if (policy == OverflowPolicy.BLOCK) {
+                    try {
+                        while (queue.size() >= capacity) {
+                            lock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped++;
+                        return;
+                    }
+                } else {
+                    dropOldestNotification();
+                }
+            }
+
+            Event event = new Event(Event.NOTIFICATION, observation, value);
+            event.notification = notification;
+            if (policy == OverflowPolicy.COALESCE) {
+                pendingNotifications.put(observation, event);
+            }
+            schedule = add(event);
+        }
+        if (schedule) {
+            schedule();
+        }
+    }
+
+    private void enqueue(Event event) {
+        boolean schedule;
+        synchronized (lock) {
+            schedule = add(event);
+        }
+        if (schedule) {
+            schedule();
+        }
+    }
+
+    // must hold lock, returns true if the drain task must be scheduled
+    private boolean add(Event event) {
+        queue.add(event);
+        maxQueueSize = Math.max(maxQueueSize, queue.size());
+        if (scheduled) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+
+    // must hold lock
+    private void dropOldestNotification() {
+        for (Iterator<Event> it = queue.iterator(); it.hasNext();) {
+            Event event = it.next();
+            if (event.type == Event.NOTIFICATION) {
+                it.remove();
+                pendingNotifications.remove(event.observation);
+                dropped++;
+                return;
+            }
+        }
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(drainer);
+        } catch (RejectedExecutionException e) {
+            synchronized (lock) {
+                scheduled = false;
+            }
+            LOG.warn("Unable to deliver the observation events, the executor rejected the task", e);
+        }
+    }
+
+    private void drain() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Event event;
+            synchronized (lock) {
+                event = queue.poll();
+                if (event == null) {
+                    scheduled = false;
+                    return;
+                }
+                if (event.type == Event.NOTIFICATION && policy == OverflowPolicy.COALESCE) {
+                    pendingNotifications.remove(event.observation);
+                }
+                delivered++;
+                // wake up the blocked producers
+                lock.notifyAll();
+            }
+
+            try {
+                event.deliver(delegate);
+            } catch (InvalidValueException e) {
+                LOG.debug("Unable to decode notification {}", event.notification, e);
+            } catch (RuntimeException e) {
+                LOG.error("Observation listener failed to handle event", e);
+            }
+        }
+        // let other listeners sharing the executor run
+        schedule();
+    }
+
+    /**
+     * @return the number of queued events
+     */
+    public int getQueueSize() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * @return the highest number of queued events
+     */
+    public int getMaxQueueSize() {
+        synchronized (lock) {
+            return maxQueueSize;
+        }
+    }
+
+    /**
+     * @return the number of events delivered to the listener
+     */
+    public long getDeliveredCount() {
+        synchronized (lock) {
+            return delivered;
+        }
+    }
+
+    /**
+     * @return the number of notifications dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * @return the number of notifications merged with a queued notification of the same observation
+     */
+    public long getCoalescedCount() {
+        synchronized (lock) {
+            return coalesced;
+        }
+    }
+
+    private static class Event {
+
+        static final int NEW_OBSERVATION = 0;
+        static final int CANCELLED = 1;
+        static final int NOTIFICATION = 2;
+
+        final int type;
+        final Observation observation;
+        // guarded by lock
+        LwM2mNode value;
+        Notification notification;
+
+        Event(int type, Observation observation, LwM2mNode value) {
+            this.type = type;
+            this.observation = observation;
+            this.value = value;
+        }
+
+        void deliver(ObservationRegistryListener listener) throws InvalidValueException {
+            switch (type) {
+            case NEW_OBSERVATION:
+                listener.newObservation(observation);
+                break;
+            case CANCELLED:
+                listener.cancelled(observation);
+                break;
+            default:
+                if (notification != null) {
+                    notification.deliverTo(listener, observation);
+                } else {
+                    listener.newValue(observation, value);
+                }
+                break;
+            }
+        }
+    }
+}
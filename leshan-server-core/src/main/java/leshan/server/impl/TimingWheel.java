@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import leshan.util.Validate;
+
+/**
+ * A hashed timing wheel: elements are scheduled at a deadline and returned by {@link #advance(long)} once their
+ * deadline is reached.
+ * <p>
+ * Scheduling, rescheduling and cancelling are O(1). Advancing the wheel only visits the slots of the elapsed ticks, so
+ * it only touches the expired elements and the elements scheduled more than one revolution ahead.
+ * </p>
+ * <p>
+ * Elements are compared by identity, not with {@link Object#equals(Object)}.
+ * </p>
+ */
+class TimingWheel<T> {
+
+    private final long tickDuration;
+
+    private final int mask;
+
+    // elements by slot, the slot sets are created lazily
+    private final List<Set<T>> slots;
+
+    // deadline tick by element, elements are compared by identity
+    private final Map<T, Long> deadlines = new IdentityHashMap<>();
+
+    // last processed tick
+    private long currentTick;
+
+    /**
+     * @param tickDuration the duration of a tick in milliseconds
+     * @param size the number of slots, a power of 2
+     * @param now the current time in milliseconds
+     */
+    TimingWheel(long tickDuration, int size, long now) {
+        Validate.isTrue(tickDuration > 0, "tick duration must be positive");
+        Validate.isTrue(size > 0 && Integer.bitCount(size) == 1, "size must be a power of 2");
+
+        this.tickDuration = tickDuration;
+        this.mask = size - 1;
+        this.slots = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            slots.add(null);
+        }
+        this.currentTick = now / tickDuration;
+    }
+
+    /**
+     * Schedules an element, replacing its previous deadline if any.
+     *
+     * @param element the element to schedule
+     * @param deadline the deadline in milliseconds
+     */
+    synchronized void schedule(T element, long deadline) {
+        // round up, and never schedule in an already processed tick
+        long tick = Math.max((deadline + tickDuration - 1) / tickDuration, currentTick + 1);
+
+        Long previous = deadlines.put(element, tick);
+        if (previous != null) {
+            if (slotIndex(previous) == slotIndex(tick)) {
+                return;
+            }
+            slots.get(slotIndex(previous)).remove(element);
+        }
+
+        Set<T> slot = slots.get(slotIndex(tick));
+        if (slot == null) {
+            slot = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+            slots.set(slotIndex(tick), slot);
+        }
+        slot.add(element);
+    }
+
+    /**
+     * Removes an element from the wheel.
+     */
+    synchronized void cancel(T element) {
+        Long tick = deadlines.remove(element);
+        if (tick != null) {
+            slots.get(slotIndex(tick)).remove(element);
+        }
+    }
+
+    /**
+     * Advances the wheel to the given time and removes the elements whose deadline is reached.
+     *
+     * @param now the current time in milliseconds
+     * @return the expired elements
+     */
+    synchronized List<T> advance(long now) {
+        long nowTick = now / tickDuration;
+        List<T> expired = new ArrayList<>();
+
+        // one revolution is enough to visit all the slots
+        for (long tick = Math.max(currentTick + 1, nowTick - mask); tick <= nowTick; tick++) {
+            Set<T> slot = slots.get(slotIndex(tick));
+            if (slot == null) {
+                continue;
+            }
+            for (Iterator<T> it = slot.iterator(); it.hasNext();) {
+                T element = it.next();
+                // elements scheduled more than one revolution ahead stay in the slot
+                if (deadlines.get(element) <= nowTick) {
+                    it.remove();
+                    deadlines.remove(element);
+                    expired.add(element);
+                }
+            }
+            if (slot.isEmpty()) {
+                slots.set(slotIndex(tick), null);
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return expired;
+    }
+
+    /**
+     * @return the number of scheduled elements
+     */
+    synchronized int size() {
+        return deadlines.size();
+    }
+
+    private int slotIndex(long tick) {
+        return (int) (tick & mask);
+    }
+}
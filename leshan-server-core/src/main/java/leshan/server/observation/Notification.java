@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.observation;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.LwM2mPath;
+import leshan.core.node.codec.InvalidValueException;
+import leshan.core.node.codec.LwM2mNodeDecoder;
+import leshan.core.request.ContentFormat;
+import leshan.util.Validate;
+
+/**
+ * A notification of an observed resource, as received from the client. The payload is only decoded the first time
+ * {@link #getContent()} is called, and the result is kept for the following calls.
+ */
+public class Notification {
+
+    private final byte[] payload;
+    private final ContentFormat format;
+    private final LwM2mPath path;
+
+    // decoded content, guarded by this
+    private LwM2mNode content;
+    private InvalidValueException error;
+
+    /**
+     * @param payload the raw payload, it must not be modified afterwards
+     * @param format the content format of the payload (may be <code>null</code>)
+     * @param path the observed path
+     */
+    public Notification(byte[] payload, ContentFormat format, LwM2mPath path) {
+        Validate.notNull(path);
+        this.payload = payload;
+        this.format = format;
+        this.path = path;
+    }
+
+    /**
+     * @return the raw payload, it must not be modified
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public ContentFormat getFormat() {
+        return format;
+    }
+
+    public LwM2mPath getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the decoded content, decoding the payload on the first call.
+     *
+     * @throws InvalidValueException if the payload cannot be decoded
+     */
+    public synchronized LwM2mNode getContent() throws InvalidValueException {
+        if (content == null && error == null) {
+            try {
+                content = LwM2mNodeDecoder.decode(payload, format, path);
+            } catch (InvalidValueException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return content;
+    }
+
+    /**
+     * Delivers the notification to a listener: a {@link NotificationListener} receives the notification as is, the
+     * other listeners receive the decoded content.
+     *
+     * @throws InvalidValueException if the payload cannot be decoded for a listener needing the content
+     */
+    public void deliverTo(ObservationListener listener, Observation observation) throws InvalidValueException {
+        if (listener instanceof NotificationListener) {
+            ((NotificationListener) listener).newNotification(observation, this);
+        } else {
+            listener.newValue(observation, getContent());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Notification [path=%s, format=%s, payload=%d bytes]", path, format,
+                payload == null ? 0 : payload.length);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.request;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import leshan.core.response.ClientResponse;
+import leshan.core.response.ExceptionConsumer;
+import leshan.core.response.ResponseConsumer;
+import leshan.server.LwM2mServer;
+import leshan.server.client.Client;
+import leshan.server.request.BulkRequestSender.Listener;
+import leshan.server.request.BulkRequestSender.RequestFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A request sent to many clients by a {@link BulkRequestSender}, giving access to its progress.
+ */
+public class BulkRequest<T extends ClientResponse> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkRequest.class);
+
+    private final LwM2mServer server;
+    private final List<Client> clients;
+    private final RequestFactory<T> factory;
+    private final Listener<T> listener;
+    private final int window;
+
+    // guarded by this
+    private int next = 0;
+    private int inFlight = 0;
+    private boolean cancelled = false;
+    private boolean completed = false;
+    private final Map<ResponseFuture<T>, Client> pending = new IdentityHashMap<>();
+
+    // number of pending calls to drain(), only one thread at a time sends requests
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicInteger responses = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    BulkRequest(LwM2mServer server, List<Client> clients, RequestFactory<T> factory, Listener<T> listener, int window) {
+        this.server = server;
+        this.clients = clients;
+        this.factory = factory;
+        this.listener = listener;
+        this.window = window;
+    }
+
+    void start() {
+        drain();
+        checkCompletion();
+    }
+
+    /**
+     * Sends requests until the window is full. Re-entrant calls (e.g. from a request failing synchronously) are
+     * handled by the thread already draining.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Client client;
+            while ((client = nextClient()) != null) {
+                send(client);
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private synchronized Client nextClient() {
+        if (cancelled || inFlight >= window || next >= clients.size()) {
+            return null;
+        }
+        inFlight++;
+        return clients.get(next++);
+    }
+
+    private void send(final Client client) {
+        final long start = System.nanoTime();
+        final ResponseFuture<T> future;
+        try {
+            future = server.sendAsync(factory.create(client));
+        } catch (RuntimeException e) {
+            onError(client, e, start);
+            return;
+        }
+
+        boolean cancelNow;
+        synchronized (this) {
+            pending.put(future, client);
+            cancelNow = cancelled;
+        }
+        future.addCallback(new ResponseConsumer<T>() {
+            @Override
+            public void accept(T response) {
+                release(future);
+                long latency = latencySince(start);
+                responses.incrementAndGet();
+                try {
+                    listener.onResponse(client, response, latency);
+                } catch (RuntimeException e) {
+                    LOG.warn("Unexpected error in bulk request listener", e);
+                }
+                requestCompleted();
+            }
+        }, new ExceptionConsumer() {
+            @Override
+            public void accept(Exception e) {
+                release(future);
+                onError(client, e, start);
+            }
+        });
+        if (cancelNow) {
+            future.cancel(false);
+        }
+    }
+
+    private void onError(Client client, Exception e, long start) {
+        long latency = latencySince(start);
+        errors.incrementAndGet();
+        try {
+            listener.onError(client, e, latency);
+        } catch (RuntimeException re) {
+            LOG.warn("Unexpected error in bulk request listener", re);
+        }
+        requestCompleted();
+    }
+
+    private synchronized void release(ResponseFuture<T> future) {
+        pending.remove(future);
+    }
+
+    private long latencySince(long start) {
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        totalLatency.addAndGet(latency);
+        long max;
+        while ((max = maxLatency.get()) < latency && !maxLatency.compareAndSet(max, latency)) {
+        }
+        return latency;
+    }
+
+    private void requestCompleted() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+        checkCompletion();
+    }
+
+    private void checkCompletion() {
+        synchronized (this) {
+            if (completed || inFlight > 0 || (!cancelled && next < clients.size())) {
+                return;
+            }
+            completed = true;
+        }
+        done.countDown();
+        try {
+            listener.onCompletion(this);
+        } catch (RuntimeException e) {
+            LOG.warn("Unexpected error in bulk request listener", e);
+        }
+    }
+
+    /**
+     * Stops sending requests and cancels the ones in flight.
+     */
+    public void cancel() {
+        List<ResponseFuture<T>> toCancel;
+        synchronized (this) {
+            if (cancelled || completed) {
+                return;
+            }
+            cancelled = true;
+            toCancel = new ArrayList<>(pending.keySet());
+        }
+        for (ResponseFuture<T> future : toCancel) {
+            future.cancel(false);
+        }
+        checkCompletion();
+    }
+
+    /**
+     * Waits for all the requests to complete.
+     * 
+     * @return <code>true</code> if the bulk request completed before the timeout
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the number of clients targeted by this bulk request
+     */
+    public int getClientsCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return the number of requests sent so far
+     */
+    public synchronized int getSentCount() {
+        return next;
+    }
+
+    /**
+     * @return the number of requests sent and not completed yet
+     */
+    public synchronized int getInFlightCount() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of requests which received a response
+     */
+    public int getResponseCount() {
+        return responses.get();
+    }
+
+    /**
+     * @return the number of requests which failed (timeout, rejection, cancellation, ...)
+     */
+    public int getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return the mean latency of the completed requests, in milliseconds
+     */
+    public long getMeanLatency() {
+        int count = responses.get() + errors.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    /**
+     * @return the max latency of the completed requests, in milliseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BulkRequest [clients=%d, sent=%d, responses=%d, errors=%d, meanLatency=%dms]",
+                getClientsCount(), getSentCount(), getResponseCount(), getErrorCount(), getMeanLatency());
+    }
+}
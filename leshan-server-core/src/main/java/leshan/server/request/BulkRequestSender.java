@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.request;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import leshan.core.response.ClientResponse;
+import leshan.server.LwM2mServer;
+import leshan.server.client.Client;
+import leshan.util.Validate;
+
+/**
+ * Sends the same kind of LWM2M request to many clients (e.g. a fleet-wide read or a firmware update campaign).
+ * <p>
+ * At most <code>window</code> requests are in flight at the same time for a given bulk request: a new request is sent
+ * each time a previous one completes, so the CoAP stack and the network are never flooded. Results are streamed to a
+ * {@link Listener} as they come and the aggregated progress is available from the returned {@link BulkRequest}.
+ * </p>
+ */
+public class BulkRequestSender {
+
+    /**
+     * Selects the clients targeted by a bulk request.
+     */
+    public interface ClientSelector {
+
+        boolean select(Client client);
+    }
+
+    /**
+     * Creates the request to send to a given client.
+     */
+    public interface RequestFactory<T extends ClientResponse> {
+
+        LwM2mRequest<T> create(Client client);
+    }
+
+    /**
+     * Receives the results of a bulk request, as they complete.
+     * <p>
+     * Callbacks are invoked from the threads completing the requests and must not block.
+     * </p>
+     */
+    public interface Listener<T extends ClientResponse> {
+
+        /**
+         * @param response the response of the client, may be <code>null</code> if the client answered with an
+         *        unexpected response code
+         * @param latency the time elapsed between sending the request and receiving the response, in milliseconds
+         */
+        void onResponse(Client client, T response, long latency);
+
+        /**
+         * @param e the cause of the failure, see {@link ResponseFuture#addCallback}
+         * @param latency the time elapsed between sending the request and its failure, in milliseconds
+         */
+        void onError(Client client, Exception e, long latency);
+
+        /**
+         * Called once all the requests are completed or the bulk request is cancelled.
+         */
+        void onCompletion(BulkRequest<T> bulkRequest);
+    }
+
+    /** Selects all the registered clients */
+    public static final ClientSelector ALL_CLIENTS = new ClientSelector() {
+        @Override
+        public boolean select(Client client) {
+            return true;
+        }
+    };
+
+    private final LwM2mServer server;
+    private final int window;
+
+    /**
+     * @param server the server used to send the requests
+     * @param window the maximum number of requests in flight for each bulk request
+     */
+    public BulkRequestSender(LwM2mServer server, int window) {
+        Validate.notNull(server);
+        Validate.isTrue(window > 0, "window must be positive");
+        this.server = server;
+        this.window = window;
+    }
+
+    /**
+     * Sends a request to all the registered clients matching the given selector.
+     * 
+     * @return the bulk request, giving access to its progress
+     */
+    public <T extends ClientResponse> BulkRequest<T> send(ClientSelector selector, RequestFactory<T> factory,
+            Listener<T> listener) {
+        Validate.notNull(selector);
+        List<Client> clients = new ArrayList<>();
+        for (Client client : server.getClientRegistry().allClients()) {
+            if (selector.select(client)) {
+                clients.add(client);
+            }
+        }
+        return send(clients, factory, listener);
+    }
+
+    /**
+     * Sends a request to each of the given clients.
+     * 
+     * @return the bulk request, giving access to its progress
+     */
+    public <T extends ClientResponse> BulkRequest<T> send(List<Client> clients, RequestFactory<T> factory,
+            Listener<T> listener) {
+        Validate.notNull(clients);
+        Validate.notNull(factory);
+        Validate.notNull(listener);
+        BulkRequest<T> bulkRequest = new BulkRequest<>(server, new ArrayList<>(clients), factory, listener,
+                window);
+        bulkRequest.start();
+        return bulkRequest;
+    }
+}
@@ -77,7 +77,7 @@ public class CreateRequest extends AbstractLwM2mRequest<CreateResponse> {
      * @param values the TLV encoded resource values of the object instance
      */
     public CreateRequest(Client client, String path, LwM2mObjectInstance instance, ContentFormat contentFormat) {
-        this(client, new LwM2mPath(path), instance, contentFormat);
+        this(client, LwM2mPath.valueOf(path), instance, contentFormat);
     }
 
     private CreateRequest(Client client, LwM2mPath target, LwM2mObjectInstance instance, ContentFormat format) {
@@ -47,7 +47,7 @@ public class DeleteRequest extends AbstractLwM2mRequest<ClientResponse> {
     }
 
     public DeleteRequest(final Client client, final String target) {
-        super(client, new LwM2mPath(target));
+        super(client, LwM2mPath.valueOf(target));
     }
 
     private DeleteRequest(final Client client, final LwM2mPath target) {
@@ -76,7 +76,7 @@ public class DiscoverRequest extends AbstractLwM2mRequest<DiscoverResponse> {
      * @param target the target path
      */
     public DiscoverRequest(Client client, String target) {
-        super(client, new LwM2mPath(target));
+        super(client, LwM2mPath.valueOf(target));
     }
 
     private DiscoverRequest(Client client, LwM2mPath target) {
@@ -43,11 +43,11 @@ public class ExecuteRequest extends AbstractLwM2mRequest<ClientResponse> {
     private final ContentFormat contentFormat;
 
     public ExecuteRequest(final Client client, final String path) {
-        this(client, new LwM2mPath(path), null, null);
+        this(client, LwM2mPath.valueOf(path), null, null);
     }
 
     public ExecuteRequest(final Client client, final String path, final byte[] parameters, final ContentFormat format) {
-        this(client, new LwM2mPath(path), parameters, format);
+        this(client, LwM2mPath.valueOf(path), parameters, format);
     }
 
     /**
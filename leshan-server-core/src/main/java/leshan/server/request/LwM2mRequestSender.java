@@ -44,4 +44,11 @@ public interface LwM2mRequestSender {
      */
     <T extends ClientResponse> void send(LwM2mRequest<T> request, ResponseConsumer<T> responseCallback,
             ExceptionConsumer errorCallback);
+
+    /**
+     * Send a Lightweight M2M request asynchronously, without blocking the calling thread.
+     * 
+     * @return the future response; cancelling it cancels the underlying request
+     */
+    <T extends ClientResponse> ResponseFuture<T> sendAsync(LwM2mRequest<T> request);
 }
@@ -36,7 +36,7 @@ import leshan.server.client.Client;
 public class ObserveRequest extends AbstractLwM2mRequest<ValueResponse> {
 
     public ObserveRequest(Client client, String target) {
-        super(client, new LwM2mPath(target));
+        super(client, LwM2mPath.valueOf(target));
     }
 
     /**
@@ -81,7 +81,7 @@ public class ReadRequest extends AbstractLwM2mRequest<ValueResponse> {
      * @param target the target path
      */
     public ReadRequest(Client client, String target) {
-        super(client, new LwM2mPath(target));
+        super(client, LwM2mPath.valueOf(target));
     }
 
     private ReadRequest(Client client, LwM2mPath target) {
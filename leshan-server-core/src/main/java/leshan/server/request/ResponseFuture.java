@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import leshan.core.response.ClientResponse;
+import leshan.core.response.ExceptionConsumer;
+import leshan.core.response.ResponseConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending result of a LWM2M request sent asynchronously.
+ * <p>
+ * Callbacks can be registered at any time using {@link #addCallback(ResponseConsumer, ExceptionConsumer)}: they are
+ * invoked exactly once, either by the thread completing the future or immediately by the registering thread if the
+ * future is already completed. Cancelling the future cancels the underlying request.
+ * </p>
+ */
+public class ResponseFuture<T extends ClientResponse> implements Future<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseFuture.class);
+
+    private final Runnable cancelAction;
+
+    // guarded by this
+    private boolean done = false;
+    private T response;
+    private Exception exception;
+    private List<Callback<T>> callbacks = new ArrayList<>(1);
+
+    /**
+     * @param cancelAction the action cancelling the underlying request, invoked when the future is cancelled (may be
+     *        <code>null</code>)
+     */
+    public ResponseFuture(Runnable cancelAction) {
+        this.cancelAction = cancelAction;
+    }
+
+    /**
+     * Completes the future with the given response.
+     * 
+     * @return <code>false</code> if the future was already completed
+     */
+    public boolean complete(T response) {
+        List<Callback<T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.response = response;
+            toNotify = doComplete();
+        }
+        for (Callback<T> callback : toNotify) {
+            callback.notify(response, null);
+        }
+        return true;
+    }
+
+    /**
+     * Completes the future with the given error.
+     * 
+     * @return <code>false</code> if the future was already completed
+     */
+    public boolean fail(Exception exception) {
+        List<Callback<T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.exception = exception;
+            toNotify = doComplete();
+        }
+        for (Callback<T> callback : toNotify) {
+            callback.notify(null, exception);
+        }
+        return true;
+    }
+
+    private List<Callback<T>> doComplete() {
+        done = true;
+        List<Callback<T>> toNotify = callbacks;
+        callbacks = null;
+        notifyAll();
+        return toNotify;
+    }
+
+    /**
+     * Registers the callbacks to invoke when this future completes.
+     * <p>
+     * The response callback receives the response (which may be <code>null</code> if the client answered with an
+     * unexpected response), the error callback receives the failure cause: a {@link ResourceAccessException}, a
+     * {@link RequestTimeoutException}, a {@link RejectionException} or a {@link CancellationException}.
+     * </p>
+     */
+    public void addCallback(ResponseConsumer<T> responseCallback, ExceptionConsumer errorCallback) {
+        Callback<T> callback = new Callback<>(responseCallback, errorCallback);
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.notify(response, exception);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!fail(new CancellationException())) {
+            return false;
+        }
+        if (cancelAction != null) {
+            cancelAction.run();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return exception instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (!done) {
+                wait();
+            }
+        }
+        return getNow();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return getNow();
+    }
+
+    private synchronized T getNow() throws ExecutionException {
+        if (exception instanceof CancellationException) {
+            throw (CancellationException) exception;
+        }
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return response;
+    }
+
+    private static class Callback<T extends ClientResponse> {
+
+        private final ResponseConsumer<T> responseCallback;
+        private final ExceptionConsumer errorCallback;
+
+        Callback(ResponseConsumer<T> responseCallback, ExceptionConsumer errorCallback) {
+            this.responseCallback = responseCallback;
+            this.errorCallback = errorCallback;
+        }
+
+        void notify(T response, Exception exception) {
+            try {
+                if (exception == null) {
+                    responseCallback.accept(response);
+                } else {
+                    errorCallback.accept(exception);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Unexpected error in response callback", e);
+            }
+        }
+    }
+}
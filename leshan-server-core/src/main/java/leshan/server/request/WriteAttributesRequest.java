@@ -53,7 +53,7 @@ public class WriteAttributesRequest extends AbstractLwM2mRequest<ClientResponse>
     }
 
     public WriteAttributesRequest(final Client client, final String path, final ObserveSpec observeSpec) {
-        this(client, new LwM2mPath(path), observeSpec);
+        this(client, LwM2mPath.valueOf(path), observeSpec);
     }
 
     private WriteAttributesRequest(final Client client, final LwM2mPath path, final ObserveSpec observeSpec) {
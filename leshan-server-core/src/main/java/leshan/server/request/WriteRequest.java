@@ -61,7 +61,7 @@ public class WriteRequest extends AbstractLwM2mRequest<ClientResponse> {
 
     public WriteRequest(final Client client, final String target, final LwM2mNode node,
             final ContentFormat contentFormat, final boolean replaceResources) {
-        this(client, new LwM2mPath(target), node, contentFormat, replaceResources);
+        this(client, LwM2mPath.valueOf(target), node, contentFormat, replaceResources);
     }
 
     private WriteRequest(final Client client, final LwM2mPath target, final LwM2mNode node, ContentFormat format,
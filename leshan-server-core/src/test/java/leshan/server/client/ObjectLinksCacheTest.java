@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.client;
+
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import leshan.LinkObject;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObjectLinksCacheTest {
+
+    @Test
+    public void identical_payloads_share_object_links() throws UnknownHostException {
+        ObjectLinksCache cache = new ObjectLinksCache();
+
+        LinkObject[] links1 = cache.parse("</1/0>,</3/0>,</5/0>".getBytes());
+        LinkObject[] links2 = cache.parse("</1/0>,</3/0>,</5/0>".getBytes());
+        Assert.assertSame(links1, links2);
+        Assert.assertEquals(3, links1.length);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        // clients and updates built from the same payload hold the same links
+        Client client = new Client("reg1", "ep1", Inet4Address.getByName("127.0.0.1"), 5683, null, null, null, null,
+                links1, new InetSocketAddress(5683));
+        ClientUpdate update = new ClientUpdate("reg1", Inet4Address.getByName("127.0.0.1"), 5683, null, null, null,
+                cache.parse("</1/0>,</3/0>,</5/0>".getBytes()));
+        update.apply(client);
+        Assert.assertNotSame(links1, update.getObjectLinks());
+        Assert.assertArrayEquals(links1, update.getObjectLinks());
+
+        // the shared links cannot be altered through an update
+        update.getObjectLinks()[0] = null;
+        Assert.assertEquals("/1/0", links1[0].getUrl());
+        Assert.assertEquals("/3/0", client.getObjectLinks()[1].getUrl());
+    }
+
+    @Test
+    public void different_payloads_are_parsed() {
+        ObjectLinksCache cache = new ObjectLinksCache();
+
+        LinkObject[] links1 = cache.parse("</1/0>,</3/0>".getBytes());
+        LinkObject[] links2 = cache.parse("</1/0>,</3/1>".getBytes());
+        Assert.assertNotSame(links1, links2);
+        Assert.assertEquals("/3/1", links2[1].getUrl());
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void payload_modified_after_parsing_does_not_alter_the_cache() {
+        ObjectLinksCache cache = new ObjectLinksCache();
+
+        byte[] payload = "</1/0>".getBytes();
+        LinkObject[] links = cache.parse(payload);
+        payload[4] = '1';
+
+        Assert.assertSame(links, cache.parse("</1/0>".getBytes()));
+        Assert.assertEquals("/1/1", cache.parse(payload)[0].getUrl());
+    }
+
+    @Test
+    public void least_recently_used_payload_is_evicted() {
+        ObjectLinksCache cache = new ObjectLinksCache(2);
+
+        LinkObject[] links1 = cache.parse("</1/0>".getBytes());
+        cache.parse("</2/0>".getBytes());
+        // use the first payload again, the second one is now the eldest
+        cache.parse("</1/0>".getBytes());
+        cache.parse("</3/0>".getBytes());
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(links1, cache.parse("</1/0>".getBytes()));
+        Assert.assertEquals(3, cache.getMisses());
+        cache.parse("</2/0>".getBytes());
+        Assert.assertEquals(4, cache.getMisses());
+    }
+}
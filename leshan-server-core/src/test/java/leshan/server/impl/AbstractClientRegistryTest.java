@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import leshan.LinkObject;
+import leshan.server.Destroyable;
+import leshan.server.Startable;
+import leshan.server.Stopable;
+import leshan.server.client.BindingMode;
+import leshan.server.client.Client;
+import leshan.server.client.ClientRegistrationException;
+import leshan.server.client.ClientRegistry;
+import leshan.server.client.ClientRegistryListener;
+import leshan.server.client.ClientUpdate;
+import leshan.util.Charsets;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The behavior shared by all the {@link ClientRegistry} implementations. The registries may return copies of the
+ * registered clients, so clients are compared with <code>equals</code>.
+ */
+public abstract class AbstractClientRegistryTest<R extends ClientRegistry> {
+
+    R registry;
+    String ep = "urn:endpoint";
+    InetAddress address;
+    int port = 23452;
+    Long lifetime = 10000L;
+    String sms = "0171-32423545";
+    BindingMode binding = BindingMode.UQS;
+    LinkObject[] objectLinks = LinkObject.parse("</>;rt=\"oma.lwm2m\",</3/0>,</1/0>".getBytes(Charsets.UTF_8));
+    String registrationId = "4711";
+    Client client;
+
+    /**
+     * @return a new empty registry, implementing {@link Startable} and {@link Stopable}
+     */
+    protected abstract R newRegistry() throws Exception;
+
+    @Before
+    public void setUpRegistry() throws Exception {
+        address = InetAddress.getLocalHost();
+        registry = newRegistry();
+    }
+
+    @After
+    public void tearDownRegistry() {
+        if (registry instanceof Destroyable) {
+            ((Destroyable) registry).destroy();
+        }
+    }
+
+    @Test
+    public void registered_client_properties_are_kept() throws Exception {
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+
+        Client registeredClient = registry.get(ep);
+        Assert.assertEquals(client, registeredClient);
+        Assert.assertEquals(registrationId, registeredClient.getRegistrationId());
+        Assert.assertEquals(address, registeredClient.getAddress());
+        Assert.assertEquals(port, registeredClient.getPort());
+        Assert.assertEquals("1.0", registeredClient.getLwM2mVersion());
+        Assert.assertEquals((long) lifetime, registeredClient.getLifeTimeInSec());
+        Assert.assertEquals(sms, registeredClient.getSmsNumber());
+        Assert.assertSame(binding, registeredClient.getBindingMode());
+        Assert.assertArrayEquals(client.getObjectLinks(), registeredClient.getObjectLinks());
+        Assert.assertEquals("/", registeredClient.getRootPath());
+        Assert.assertEquals(client.getRegistrationDate(), registeredClient.getRegistrationDate());
+        Assert.assertEquals(client.getLastUpdate(), registeredClient.getLastUpdate());
+        Assert.assertEquals(client.getRegistrationEndpointAddress(), registeredClient.getRegistrationEndpointAddress());
+
+        Client ipv6Client = new Client("4712", "ipv6", InetAddress.getByName("::1"), port, null, lifetime, null,
+                null, null, null, InetSocketAddress.createUnresolved("localhost", 5683));
+        registry.registerClient(ipv6Client);
+        Assert.assertEquals(InetAddress.getByName("::1"), registry.get("ipv6").getAddress());
+        Assert.assertNull(registry.get("ipv6").getObjectLinks());
+        Assert.assertEquals(2, registry.allClients().size());
+    }
+
+    @Test
+    public void update_registration_keeps_properties_unchanged() throws Exception {
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+
+        ClientUpdate clientUpdate = new ClientUpdate(registrationId, address, port);
+        registry.updateClient(clientUpdate);
+
+        Client registeredClient = registry.get(ep);
+        Assert.assertEquals((long) lifetime, registeredClient.getLifeTimeInSec());
+        Assert.assertSame(binding, registeredClient.getBindingMode());
+        Assert.assertEquals(sms, registeredClient.getSmsNumber());
+        Assert.assertArrayEquals(client.getObjectLinks(), registeredClient.getObjectLinks());
+    }
+
+    @Test
+    public void update_registration_changes_properties() throws Exception {
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+
+        LinkObject[] newLinks = LinkObject.parse("</3/0>".getBytes(Charsets.UTF_8));
+        Client updated = registry.updateClient(new ClientUpdate(registrationId, InetAddress.getByName("10.0.0.1"),
+                5684, 20L, "123", BindingMode.U, newLinks));
+
+        Client registeredClient = registry.get(ep);
+        Assert.assertEquals(InetAddress.getByName("10.0.0.1"), registeredClient.getAddress());
+        Assert.assertEquals(5684, registeredClient.getPort());
+        Assert.assertEquals(20L, registeredClient.getLifeTimeInSec());
+        Assert.assertEquals("123", registeredClient.getSmsNumber());
+        Assert.assertSame(BindingMode.U, registeredClient.getBindingMode());
+        Assert.assertArrayEquals(newLinks, registeredClient.getObjectLinks());
+        Assert.assertEquals(updated.getLastUpdate(), registeredClient.getLastUpdate());
+    }
+
+    @Test
+    public void update_registration_to_extend_time_to_live() throws Exception {
+        givenASimpleClient(0L);
+        registry.registerClient(client);
+        Assert.assertFalse(registry.get(ep).isAlive());
+
+        ClientUpdate clientUpdate = new ClientUpdate(registrationId, address, port, lifetime, null, null, null);
+        Assert.assertTrue(registry.updateClient(clientUpdate).isAlive());
+        Assert.assertTrue(registry.get(ep).isAlive());
+    }
+
+    @Test
+    public void update_and_deregister_by_registration_id() throws Exception {
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+
+        Assert.assertEquals(client, registry.updateClient(new ClientUpdate(registrationId, address, port)));
+        Assert.assertNull(registry.updateClient(new ClientUpdate("unknown", address, port)));
+        Assert.assertNull(registry.deregisterClient("unknown"));
+
+        Assert.assertEquals(client, registry.deregisterClient(registrationId));
+        Assert.assertNull(registry.get(ep));
+        Assert.assertNull(registry.updateClient(new ClientUpdate(registrationId, address, port)));
+        Assert.assertTrue(registry.allClients().isEmpty());
+    }
+
+    @Test
+    public void new_registration_replaces_previous_registration_id() throws Exception {
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+
+        registrationId = "4712";
+        givenASimpleClient(lifetime);
+        Assert.assertEquals("4711", registry.registerClient(client).getRegistrationId());
+
+        // the previous registration id is not known anymore and cannot remove the new registration
+        Assert.assertNull(registry.updateClient(new ClientUpdate("4711", address, port)));
+        Assert.assertNull(registry.deregisterClient("4711"));
+        Assert.assertEquals("4712", registry.get(ep).getRegistrationId());
+        Assert.assertEquals("4712", registry.updateClient(new ClientUpdate("4712", address, port))
+                .getRegistrationId());
+        Assert.assertEquals(1, registry.allClients().size());
+    }
+
+    @Test
+    public void listeners_are_notified() throws Exception {
+        final StringBuilder events = new StringBuilder();
+        registry.addListener(new ClientRegistryListener() {
+            @Override
+            public void registered(Client client) {
+                events.append("registered ").append(client.getRegistrationId()).append(";");
+            }
+
+            @Override
+            public void updated(Client clientUpdated) {
+                events.append("updated ").append(clientUpdated.getRegistrationId()).append(";");
+            }
+
+            @Override
+            public void unregistered(Client client) {
+                events.append("unregistered ").append(client.getRegistrationId()).append(";");
+            }
+        });
+
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+        registry.updateClient(new ClientUpdate(registrationId, address, port));
+        registrationId = "4712";
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+        registry.deregisterClient("4712");
+
+        Assert.assertEquals("registered 4711;updated 4711;unregistered 4711;registered 4712;unregistered 4712;",
+                events.toString());
+    }
+
+    @Test
+    public void many_registrations_grow_the_registry() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            registry.registerClient(new Client("reg" + i, "ep" + i, address, i, null, lifetime, null, null,
+                    objectLinks, null, InetSocketAddress.createUnresolved("localhost", 5683)));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            Assert.assertNotNull(registry.deregisterClient("reg" + i));
+        }
+        Assert.assertEquals(2500, registry.allClients().size());
+        for (int i = 0; i < 5000; i++) {
+            Client c = registry.get("ep" + i);
+            if (i % 2 == 0) {
+                Assert.assertNull(c);
+            } else {
+                Assert.assertEquals("reg" + i, c.getRegistrationId());
+                Assert.assertEquals(i, c.getPort());
+            }
+        }
+    }
+
+    @Test
+    public void concurrent_registrations_keep_indexes_consistent() throws Exception {
+        final int threads = 8;
+        final int iterations = 2000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < iterations; i++) {
+                            // a few endpoints shared by all threads
+                            Client c = new Client(thread + "-" + i, "ep" + (i % 10), address, port, null, lifetime,
+                                    null, null, null, null, InetSocketAddress.createUnresolved("localhost", 5683));
+                            registry.registerClient(c);
+                            registry.updateClient(new ClientUpdate(c.getRegistrationId(), address, port));
+                            if (i % 3 == 0) {
+                                registry.deregisterClient(c.getRegistrationId());
+                            }
+                        }
+                    } catch (ClientRegistrationException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(0, failures.get());
+
+        // each registered client can be found by its registration id, and only those
+        for (Client c : registry.allClients()) {
+            Client updated = registry.updateClient(new ClientUpdate(c.getRegistrationId(), address, port));
+            Assert.assertEquals(c, updated);
+            Assert.assertEquals(c.getRegistrationId(), updated.getRegistrationId());
+        }
+        int found = 0;
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < iterations; i++) {
+                if (registry.updateClient(new ClientUpdate(t + "-" + i, address, port)) != null) {
+                    found++;
+                }
+            }
+        }
+        Assert.assertEquals(registry.allClients().size(), found);
+    }
+
+    @Test
+    public void remove_client_not_answering() throws Exception {
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+        ((Startable) registry).start();
+        try {
+            registry.get(ep).markLastRequestTimedout();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (registry.get(ep) != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertNull(registry.get(ep));
+        } finally {
+            ((Stopable) registry).stop();
+        }
+    }
+
+    @Test
+    public void remove_expired_client() throws Exception {
+        client = new Client(registrationId, ep, address, port, null, 1L, sms, binding, objectLinks, null, new Date(
+                System.currentTimeMillis() - 2000), InetSocketAddress.createUnresolved("localhost", 5683));
+        registry.registerClient(client);
+        ((Startable) registry).start();
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (registry.get(ep) != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertNull(registry.get(ep));
+        } finally {
+            ((Stopable) registry).stop();
+        }
+    }
+
+    void givenASimpleClient(Long lifetime) {
+        client = new Client(registrationId, ep, address, port, null, lifetime, sms, binding, objectLinks, null,
+                InetSocketAddress.createUnresolved("localhost", 5683));
+    }
+}
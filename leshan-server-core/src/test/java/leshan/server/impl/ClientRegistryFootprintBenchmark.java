@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import leshan.LinkObject;
+import leshan.server.client.Client;
+import leshan.server.client.ClientRegistry;
+import leshan.util.Charsets;
+
+/**
+ * Measures the heap used per registration by {@link ClientRegistryImpl} and {@link CompactClientRegistry}, and the
+ * duration of a full garbage collection once the registry is filled.
+ * <p>
+ * Not run by the build, launch it with the test classpath and a large heap:
+ * <code>java -Xmx4g leshan.server.impl.ClientRegistryFootprintBenchmark [clients]</code>
+ * </p>
+ */
+public class ClientRegistryFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        // a homogeneous fleet: every device sends the same objects
+        LinkObject[] objectLinks = LinkObject.parse("</>;rt=\"oma.lwm2m\",</1/0>,</3/0>,</5/0>"
+                .getBytes(Charsets.UTF_8));
+
+        measure(new ClientRegistryImpl(), clients, objectLinks);
+        measure(new CompactClientRegistry(), clients, objectLinks);
+    }
+
+    private static void measure(ClientRegistry registry, int clients, LinkObject[] objectLinks) throws Exception {
+        InetSocketAddress registrationEndpoint = InetSocketAddress.createUnresolved("localhost", 5683);
+        long before = usedMemory();
+
+        for (int i = 0; i < clients; i++) {
+            InetAddress address = InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+            // parsed per client, as the links of the registration requests
+            registry.registerClient(new Client("reg" + i, "urn:imei:" + (350000000000000L + i), address, 5683, null,
+                    86400L, null, null, objectLinks.clone(), null, registrationEndpoint));
+        }
+
+        long after = usedMemory();
+        long start = System.nanoTime();
+        System.gc();
+        long gcDuration = System.nanoTime() - start;
+
+        System.out.println(String.format("%s: %d clients, %d bytes/client, full GC %d ms", registry.getClass()
+                .getSimpleName(), clients, (after - before) / clients, gcDuration / 1000000));
+        if (registry.get("urn:imei:350000000000000") == null) {
+            throw new IllegalStateException("client not found");
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
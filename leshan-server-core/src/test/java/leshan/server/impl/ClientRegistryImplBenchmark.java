@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import leshan.server.client.Client;
+import leshan.server.client.ClientUpdate;
+
+/**
+ * Measures the registration update latency of {@link ClientRegistryImpl} for growing registry sizes. The latency
+ * should stay flat as the registry grows.
+ * <p>
+ * Not run by the build, launch it with the test classpath: <code>java leshan.server.impl.ClientRegistryImplBenchmark
+ * </code>
+ * </p>
+ */
+public class ClientRegistryImplBenchmark {
+
+    private static final int UPDATES = 1000000;
+
+    public static void main(String[] args) throws UnknownHostException {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        InetSocketAddress registrationEndpoint = InetSocketAddress.createUnresolved("localhost", 5683);
+
+        for (int size : new int[] { 1000, 10000, 100000, 1000000 }) {
+            ClientRegistryImpl registry = new ClientRegistryImpl();
+            for (int i = 0; i < size; i++) {
+                registry.registerClient(new Client("reg" + i, "ep" + i, address, 5683, null, 300L, null, null, null,
+                        null, registrationEndpoint));
+            }
+
+            // warm up, then measure
+            runUpdates(registry, size, UPDATES / 10, address);
+            long start = System.nanoTime();
+            runUpdates(registry, size, UPDATES, address);
+            long duration = System.nanoTime() - start;
+
+            System.out.println(String.format("%8d clients: %6d ns/update", size, duration / UPDATES));
+        }
+    }
+
+    private static void runUpdates(ClientRegistryImpl registry, int size, int updates, InetAddress address) {
+        for (int i = 0; i < updates; i++) {
+            if (registry.updateClient(new ClientUpdate("reg" + (i % size), address, 5683)) == null) {
+                throw new IllegalStateException("client not found");
+            }
+        }
+    }
+}
@@ -29,49 +29,17 @@
  */
 package leshan.server.impl;
 
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-
-import leshan.LinkObject;
-import leshan.server.client.BindingMode;
 import leshan.server.client.Client;
 import leshan.server.client.ClientUpdate;
 
 import org.junit.Assert;
-import org.junit.Before;
 import org.junit.Test;
 
-public class ClientRegistryImplTest {
-
-    ClientRegistryImpl registry;
-    String ep = "urn:endpoint";
-    InetAddress address;
-    int port = 23452;
-    Long lifetime = 10000L;
-    String sms = "0171-32423545";
-    BindingMode binding = BindingMode.UQS;
-    LinkObject[] objectLinks = LinkObject.parse("</3>".getBytes(leshan.util.Charsets.UTF_8));
-    String registrationId = "4711";
-    Client client;
+public class ClientRegistryImplTest extends AbstractClientRegistryTest<ClientRegistryImpl> {
 
-    @Before
-    public void setUp() throws Exception {
-        address = InetAddress.getLocalHost();
-        registry = new ClientRegistryImpl();
-    }
-
-    @Test
-    public void update_registration_keeps_properties_unchanged() {
-        givenASimpleClient(lifetime);
-        registry.registerClient(client);
-
-        ClientUpdate clientUpdate = new ClientUpdate(registrationId, address, port);
-        registry.updateClient(clientUpdate);
-
-        Client registeredClient = registry.get(ep);
-        Assert.assertEquals((long) lifetime, registeredClient.getLifeTimeInSec());
-        Assert.assertSame(binding, registeredClient.getBindingMode());
-        Assert.assertEquals(sms, registeredClient.getSmsNumber());
+    @Override
+    protected ClientRegistryImpl newRegistry() {
+        return new ClientRegistryImpl();
     }
 
     @Test
@@ -81,6 +49,7 @@ public class ClientRegistryImplTest {
         Assert.assertTrue(client.isAlive());
     }
 
+    @Override
     @Test
     public void update_registration_to_extend_time_to_live() {
         givenASimpleClient(0L);
@@ -92,8 +61,17 @@ public class ClientRegistryImplTest {
         Assert.assertTrue(client.isAlive());
     }
 
-    private void givenASimpleClient(Long lifetime) {
-        client = new Client(registrationId, ep, address, port, null, lifetime, sms, binding, objectLinks, null,
-                InetSocketAddress.createUnresolved("localhost", 5683));
+    @Test
+    public void registered_instances_are_returned() {
+        givenASimpleClient(lifetime);
+        registry.registerClient(client);
+        Client previous = client;
+
+        registrationId = "4712";
+        givenASimpleClient(lifetime);
+        Assert.assertSame(previous, registry.registerClient(client));
+        Assert.assertSame(client, registry.get(ep));
+        Assert.assertSame(client, registry.updateClient(new ClientUpdate("4712", address, port)));
+        Assert.assertSame(client, registry.deregisterClient("4712"));
     }
 }
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.LwM2mPath;
+import leshan.core.node.LwM2mResource;
+import leshan.core.node.Value;
+import leshan.server.client.Client;
+import leshan.server.observation.Observation;
+import leshan.server.observation.ObservationListener;
+import leshan.server.observation.ObservationRegistryListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CoalescingObservationRegistryListenerTest extends BasicTestSupport {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private ScheduledExecutorService scheduler;
+    private RecordingListener delegate = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        givenASimpleClient();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void deliver_latest_value_at_end_of_window() throws Exception {
+        CoalescingObservationRegistryListener listener = new CoalescingObservationRegistryListener(delegate, 200, 0,
+                scheduler);
+        Observation observation = new ObservationStub(client, new LwM2mPath(3, 0, 1));
+
+        for (int i = 0; i < 5; i++) {
+            listener.newValue(observation, value(i));
+        }
+        // the first value is delivered at once
+        assertEquals(Arrays.asList("/3/0/1 0"), delegate.values());
+
+        waitForDeliveries(2);
+        assertEquals(Arrays.asList("/3/0/1 0", "/3/0/1 4"), delegate.values());
+        assertEquals(3, listener.getMergedCount());
+        assertEquals(2, listener.getDeliveredCount());
+    }
+
+    @Test
+    public void window_by_path() throws Exception {
+        CoalescingObservationRegistryListener listener = new CoalescingObservationRegistryListener(delegate, 60000, 0,
+                scheduler);
+        listener.setWindow("/3/0/1", 0);
+        Observation noWindow = new ObservationStub(client, new LwM2mPath(3, 0, 1));
+        Observation defaultWindow = new ObservationStub(client, new LwM2mPath(3, 0, 2));
+
+        for (int i = 0; i < 3; i++) {
+            listener.newValue(noWindow, value(i));
+            listener.newValue(defaultWindow, value(i));
+        }
+
+        assertEquals(Arrays.asList("/3/0/1 0", "/3/0/2 0", "/3/0/1 1", "/3/0/1 2"), delegate.values());
+        assertEquals(1, listener.getMergedCount());
+
+        // pending value dropped on cancellation
+        listener.cancelled(defaultWindow);
+        assertEquals(1, listener.getDroppedCount());
+    }
+
+    @Test
+    public void limit_rate_per_client() throws Exception {
+        CoalescingObservationRegistryListener listener = new CoalescingObservationRegistryListener(delegate, 0, 5,
+                scheduler);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 8; i++) {
+            listener.newValue(new ObservationStub(client, new LwM2mPath(3, 0, i)), value(i));
+        }
+        // burst of 5 notifications
+        assertEquals(5, delegate.values().size());
+
+        waitForDeliveries(8);
+        // then 5 notifications per second
+        assertTrue(System.currentTimeMillis() - start >= 500);
+    }
+
+    @Test
+    public void no_limit_across_clients() throws Exception {
+        CoalescingObservationRegistryListener listener = new CoalescingObservationRegistryListener(delegate, 0, 1,
+                scheduler);
+
+        for (int i = 0; i < 3; i++) {
+            Client c = new Client("reg" + i, "ep" + i, InetAddress.getLoopbackAddress(), 5683, null, null, null, null,
+                    null, null, InetSocketAddress.createUnresolved("localhost", 5683));
+            listener.newValue(new ObservationStub(c, new LwM2mPath(3, 0, 1)), value(i));
+        }
+        assertEquals(3, delegate.values().size());
+    }
+
+    @Test
+    public void deliver_outside_of_client_lock() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingListener blocking = new RecordingListener() {
+            @Override
+            public void newValue(Observation observation, LwM2mNode value) {
+                super.newValue(observation, value);
+                if (observation.getPath().getResourceId() == 1) {
+                    try {
+                        release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        final CoalescingObservationRegistryListener listener = new CoalescingObservationRegistryListener(blocking, 0,
+                0, scheduler);
+        final Observation slow = new ObservationStub(client, new LwM2mPath(3, 0, 1));
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                listener.newValue(slow, value(1));
+            }
+        });
+        thread.start();
+        try {
+            while (blocking.values().isEmpty()) {
+                Thread.sleep(10);
+            }
+            // another observation of the same client is not blocked by the slow delivery
+            listener.newValue(new ObservationStub(client, new LwM2mPath(3, 0, 2)), value(2));
+            assertTrue(thread.isAlive());
+            assertEquals(Arrays.asList("/3/0/1 1", "/3/0/2 2"), blocking.values());
+        } finally {
+            release.countDown();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void deliver_the_values_of_an_observation_in_order() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        final RecordingListener blocking = new RecordingListener() {
+            @Override
+            public void newValue(Observation observation, LwM2mNode value) {
+                super.newValue(observation, value);
+                if (first.getAndSet(false)) {
+                    try {
+                        release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        final CoalescingObservationRegistryListener listener = new CoalescingObservationRegistryListener(blocking, 0,
+                0, scheduler);
+        final Observation observation = new ObservationStub(client, new LwM2mPath(3, 0, 1));
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                listener.newValue(observation, value(1));
+            }
+        });
+        thread.start();
+        try {
+            while (blocking.values().isEmpty()) {
+                Thread.sleep(10);
+            }
+            // the newer values wait for the slow delivery, only the latest one is kept
+            listener.newValue(observation, value(2));
+            listener.newValue(observation, value(3));
+            assertEquals(Arrays.asList("/3/0/1 1"), blocking.values());
+        } finally {
+            release.countDown();
+            thread.join();
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (blocking.values().size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("/3/0/1 1", "/3/0/1 3"), blocking.values());
+    }
+
+    private void waitForDeliveries(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (delegate.values().size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("notifications not delivered: " + delegate.values());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static LwM2mNode value(int v) {
+        return new LwM2mResource(1, Value.newIntegerValue(v));
+    }
+
+    private static class RecordingListener implements ObservationRegistryListener {
+
+        private final List<String> values = Collections.synchronizedList(new ArrayList<String>());
+
+        List<String> values() {
+            synchronized (values) {
+                return new ArrayList<>(values);
+            }
+        }
+
+        @Override
+        public void cancelled(Observation observation) {
+        }
+
+        @Override
+        public void newValue(Observation observation, LwM2mNode value) {
+            values.add(observation.getPath() + " " + ((LwM2mResource) value).getValue().value);
+        }
+
+        @Override
+        public void newObservation(Observation observation) {
+        }
+    }
+
+    private static class ObservationStub implements Observation {
+
+        private final Client client;
+        private final LwM2mPath path;
+
+        ObservationStub(Client client, LwM2mPath path) {
+            this.client = client;
+            this.path = path;
+        }
+
+        @Override
+        public Client getClient() {
+            return client;
+        }
+
+        @Override
+        public LwM2mPath getPath() {
+            return path;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void addListener(ObservationListener listener) {
+        }
+
+        @Override
+        public void removeListener(ObservationListener listener) {
+        }
+    }
+}
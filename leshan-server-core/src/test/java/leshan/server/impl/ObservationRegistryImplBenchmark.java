@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+import leshan.core.node.LwM2mPath;
+import leshan.server.client.Client;
+import leshan.server.observation.Observation;
+import leshan.server.observation.ObservationListener;
+
+/**
+ * Measures the throughput of {@link ObservationRegistryImpl} when many threads add and cancel observations of
+ * different clients concurrently, compared to a registry serializing all the modifications on one monitor (the
+ * previous implementation).
+ * <p>
+ * Not run by the build, launch it with the test classpath:
+ * <code>java leshan.server.impl.ObservationRegistryImplBenchmark</code>
+ * </p>
+ * <p>
+ * The striping only pays off when the threads really run in parallel: on a single CPU both registries give the same
+ * throughput, so the gain has to be measured on a multi-core host.
+ * </p>
+ */
+public class ObservationRegistryImplBenchmark {
+
+    private static final int OPERATIONS_PER_THREAD = 200000;
+
+    private static final LwM2mPath[] PATHS = new LwM2mPath[16];
+    static {
+        for (int i = 0; i < PATHS.length; i++) {
+            PATHS[i] = new LwM2mPath(3, 0, i);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        System.out.println(cpus + " CPU(s)");
+        if (cpus == 1) {
+            System.out.println("WARNING: a single CPU does not show any contention, results are not significant");
+        }
+        for (int threads : new int[] { 1, 8, 64 }) {
+            // warm up, then measure
+            run(new ObservationRegistryImpl(), threads);
+            run(new SynchronizedObservationRegistry(), threads);
+
+            long striped = run(new ObservationRegistryImpl(), threads);
+            long synchronizedOps = run(new SynchronizedObservationRegistry(), threads);
+            System.out.println(String.format("%2d threads: striped %,12d ops/s, synchronized %,12d ops/s", threads,
+                    striped, synchronizedOps));
+        }
+    }
+
+    private static long run(final ObservationRegistryImpl registry, int threads) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final InetAddress address = InetAddress.getLoopbackAddress();
+        final InetSocketAddress registrationEndpoint = InetSocketAddress.createUnresolved("localhost", 5683);
+
+        for (int t = 0; t < threads; t++) {
+            final Client client = new Client("reg" + t, "ep" + t, address, 5683, null, 300L, null, null, null, null,
+                    registrationEndpoint);
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                            LwM2mPath path = PATHS[i % PATHS.length];
+                            if (i % 4 == 3) {
+                                registry.cancelObservation(client, path.toString());
+                            } else {
+                                registry.addObservation(new NoopObservation(client, path));
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long duration = System.nanoTime() - begin;
+        return (long) threads * OPERATIONS_PER_THREAD * 1000000000L / duration;
+    }
+
+    /**
+     * Serializes all the modifications on the registry monitor, as the registry used to do.
+     */
+    private static class SynchronizedObservationRegistry extends ObservationRegistryImpl {
+
+        @Override
+        public synchronized void addObservation(Observation observation) {
+            super.addObservation(observation);
+        }
+
+        @Override
+        public synchronized int cancelObservations(Client client) {
+            return super.cancelObservations(client);
+        }
+
+        @Override
+        public synchronized void cancelObservation(Client client, String resourcepath) {
+            super.cancelObservation(client, resourcepath);
+        }
+    }
+
+    private static class NoopObservation implements Observation {
+
+        private final Client client;
+        private final LwM2mPath path;
+
+        NoopObservation(Client client, LwM2mPath path) {
+            this.client = client;
+            this.path = path;
+        }
+
+        @Override
+        public Client getClient() {
+            return client;
+        }
+
+        @Override
+        public LwM2mPath getPath() {
+            return path;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void addListener(ObservationListener listener) {
+        }
+
+        @Override
+        public void removeListener(ObservationListener listener) {
+        }
+    }
+}
@@ -30,6 +30,11 @@
 package leshan.server.impl;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import leshan.core.node.LwM2mPath;
 import leshan.server.client.Client;
@@ -63,10 +68,86 @@ public class ObservationRegistryImplTest extends BasicTestSupport {
         Assert.assertSame(1, registry.cancelObservations(client));
     }
 
+    @Test
+    public void cancel_observation_releases_client_entry() throws IOException {
+        givenASimpleClient();
+
+        registry.addObservation(new ObservationImpl(client, new LwM2mPath(3, 0, 15)));
+        registry.cancelObservation(client, "/3/0/15");
+
+        Assert.assertEquals(0, registry.getObservedClientsCount());
+    }
+
+    @Test
+    public void observation_cancelled_by_client_is_removed() throws IOException {
+        givenASimpleClient();
+
+        Observation obs = new ObservationImpl(client, new LwM2mPath(3, 0, 15));
+        registry.addObservation(obs);
+        obs.cancel();
+
+        Assert.assertTrue(registry.getObservations(client).isEmpty());
+        Assert.assertEquals(0, registry.getObservedClientsCount());
+    }
+
+    @Test
+    public void replaced_observation_cancellation_keeps_new_one() throws IOException {
+        givenASimpleClient();
+
+        Observation obs = new ObservationImpl(client, new LwM2mPath(3, 0, 15));
+        registry.addObservation(obs);
+        Observation newObs = new ObservationImpl(client, new LwM2mPath(3, 0, 15));
+        registry.addObservation(newObs);
+
+        Assert.assertEquals(Collections.singleton(newObs), registry.getObservations(client));
+    }
+
+    /**
+     * Soak test: churn 100k registrations and check that the registry does not keep any entry of the gone clients.
+     */
+    @Test
+    public void registrations_churn_leaves_no_entries() throws Exception {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        InetSocketAddress registrationAddress = InetSocketAddress.createUnresolved("localhost", 5683);
+
+        for (int i = 0; i < 100000; i++) {
+            // endpoints re-register with a new registration id
+            Client c = new Client("reg" + i, "ep" + (i % 1000), address, 5683, null, 300L, null, null, null, null,
+                    registrationAddress);
+            for (int resource = 0; resource < 3; resource++) {
+                registry.addObservation(new ObservationImpl(c, new LwM2mPath(3, 0, resource)));
+            }
+            Assert.assertEquals(1, registry.getObservedClientsCount());
+            Assert.assertEquals(3, registry.getObservationsCount());
+
+            // tear down in the different ways
+            switch (i % 3) {
+            case 0:
+                registry.cancelObservations(c);
+                break;
+            case 1:
+                for (Observation obs : registry.getObservations(c)) {
+                    registry.cancelObservation(c, obs.getPath().toString());
+                }
+                break;
+            default:
+                for (Observation obs : registry.getObservations(c)) {
+                    obs.cancel();
+                }
+                break;
+            }
+
+            // the previous implementation kept an empty map by registration
+            Assert.assertEquals(0, registry.getObservedClientsCount());
+            Assert.assertEquals(0, registry.getObservationsCount());
+        }
+    }
+
     private class ObservationImpl implements Observation {
 
         private Client client;
         private LwM2mPath path;
+        private List<ObservationListener> listeners = new ArrayList<>();
 
         public ObservationImpl(Client client, LwM2mPath path) {
             this.client = client;
@@ -85,10 +166,14 @@ public class ObservationRegistryImplTest extends BasicTestSupport {
 
         @Override
         public void cancel() {
+            for (ObservationListener listener : listeners) {
+                listener.cancelled(this);
+            }
         }
 
         @Override
         public void addListener(ObservationListener listener) {
+            listeners.add(listener);
         }
 
         @Override
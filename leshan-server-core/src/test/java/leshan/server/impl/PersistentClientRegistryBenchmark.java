@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import leshan.LinkObject;
+import leshan.server.client.Client;
+import leshan.server.client.ClientRegistry;
+import leshan.util.Charsets;
+
+/**
+ * Measures the registration latency of {@link PersistentClientRegistry} compared to {@link ClientRegistryImpl}, and
+ * the time needed to restore the registrations from the log.
+ * <p>
+ * Not run by the build, launch it with the test classpath:
+ * <code>java -Xmx2g leshan.server.impl.PersistentClientRegistryBenchmark [clients]</code>
+ * </p>
+ */
+public class PersistentClientRegistryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        File logFile = File.createTempFile("registrations", ".log");
+        logFile.delete();
+
+        try {
+            // warm up
+            register(new ClientRegistryImpl(), clients / 10);
+
+            long duration = register(new ClientRegistryImpl(), clients);
+            System.out.println(String.format("in memory:  %6d ns/registration", duration / clients));
+
+            PersistentClientRegistry registry = new PersistentClientRegistry(new ClientRegistryImpl(),
+                    logFile.getPath());
+            registry.start();
+            duration = register(registry, clients);
+            registry.stop();
+            registry.destroy();
+            System.out.println(String.format("persistent: %6d ns/registration", duration / clients));
+
+            long start = System.nanoTime();
+            registry = new PersistentClientRegistry(new ClientRegistryImpl(), logFile.getPath());
+            duration = System.nanoTime() - start;
+            System.out.println(String.format("restart:    %6d ms for %d clients (%d bytes log)", duration / 1000000,
+                    registry.allClients().size(), logFile.length()));
+            registry.destroy();
+        } finally {
+            logFile.delete();
+        }
+    }
+
+    private static long register(ClientRegistry registry, int clients) throws Exception {
+        InetSocketAddress registrationEndpoint = new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 5683);
+        LinkObject[] objectLinks = LinkObject.parse("</>;rt=\"oma.lwm2m\",</1/0>,</3/0>,</5/0>"
+                .getBytes(Charsets.UTF_8));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            InetAddress address = InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+            registry.registerClient(new Client("reg" + i, "urn:imei:" + (350000000000000L + i), address, 5683, null,
+                    86400L, null, null, objectLinks, null, registrationEndpoint));
+        }
+        return System.nanoTime() - start;
+    }
+}
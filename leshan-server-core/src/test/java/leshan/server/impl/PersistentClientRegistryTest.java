@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import leshan.LinkObject;
+import leshan.server.client.BindingMode;
+import leshan.server.client.Client;
+import leshan.server.client.ClientRegistrationException;
+import leshan.server.client.ClientRegistry;
+import leshan.server.client.ClientRegistryListener;
+import leshan.server.client.ClientUpdate;
+import leshan.util.Charsets;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentClientRegistryTest extends AbstractClientRegistryTest<PersistentClientRegistry> {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String logFile;
+    InetSocketAddress registrationEndpoint;
+
+    @Override
+    protected PersistentClientRegistry newRegistry() {
+        logFile = new File(folder.getRoot(), "registrations.log").getPath();
+        return new PersistentClientRegistry(new ClientRegistryImpl(), logFile);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        address = InetAddress.getByName("10.0.0.1");
+        registrationEndpoint = new InetSocketAddress(InetAddress.getByName("0.0.0.0"), 5683);
+        objectLinks = LinkObject.parse("</>;rt=\"oma.lwm2m\";ct=100,</1/0>,</3/0>;obs".getBytes(Charsets.UTF_8));
+    }
+
+    @Test
+    public void registrations_are_restored_after_restart() throws Exception {
+        Client client = newClient("reg1", "ep1", 3600L);
+        registry.registerClient(client);
+        registry.registerClient(newClient("reg2", "ep2", 3600L));
+        registry.updateClient(new ClientUpdate("reg1", InetAddress.getByName("10.0.0.2"), 5684, 7200L, "123",
+                BindingMode.UQ, null));
+        registry.deregisterClient("reg2");
+
+        restart(new ClientRegistryImpl());
+
+        Assert.assertNull(registry.get("ep2"));
+        Assert.assertEquals(1, registry.allClients().size());
+        Client restored = registry.get("ep1");
+        Assert.assertEquals("reg1", restored.getRegistrationId());
+        Assert.assertEquals(InetAddress.getByName("10.0.0.2"), restored.getAddress());
+        Assert.assertEquals(5684, restored.getPort());
+        Assert.assertEquals(7200L, restored.getLifeTimeInSec());
+        Assert.assertEquals("123", restored.getSmsNumber());
+        Assert.assertSame(BindingMode.UQ, restored.getBindingMode());
+        Assert.assertEquals(client.getLwM2mVersion(), restored.getLwM2mVersion());
+        Assert.assertEquals(client.getRegistrationDate(), restored.getRegistrationDate());
+        Assert.assertEquals(registrationEndpoint, restored.getRegistrationEndpointAddress());
+        Assert.assertArrayEquals(client.getObjectLinks(), restored.getObjectLinks());
+        Assert.assertEquals("/", restored.getRootPath());
+
+        // the restored registration can be updated and de-registered
+        Assert.assertNotNull(registry.updateClient(new ClientUpdate("reg1", address, 5683)));
+        Assert.assertNotNull(registry.deregisterClient("reg1"));
+        restart(new ClientRegistryImpl());
+        Assert.assertTrue(registry.allClients().isEmpty());
+    }
+
+    @Test
+    public void partially_written_record_is_ignored() throws Exception {
+        registry.registerClient(newClient("reg1", "ep1", 3600L));
+        registry.destroy();
+
+        // a record interrupted by a crash after its header
+        long end;
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            end = 8;
+            file.seek(end);
+            int length;
+            while ((length = file.readInt()) != 0) {
+                end += 8 + length;
+                file.seek(end);
+            }
+            file.seek(end);
+            file.writeInt(100);
+            file.writeInt(0xcafe);
+            file.writeByte(1);
+        }
+
+        restart(new ClientRegistryImpl());
+        Assert.assertNotNull(registry.get("ep1"));
+
+        // new records are appended after the last valid one
+        registry.registerClient(newClient("reg2", "ep2", 3600L));
+        restart(new ClientRegistryImpl());
+        Assert.assertNotNull(registry.get("ep1"));
+        Assert.assertNotNull(registry.get("ep2"));
+    }
+
+    @Test
+    public void invalid_record_followed_by_valid_records_is_skipped() throws Exception {
+        registry.registerClient(newClient("reg1", "ep1", 3600L));
+        registry.registerClient(newClient("reg2", "ep2", 3600L));
+        registry.registerClient(newClient("reg3", "ep3", 3600L));
+        registry.destroy();
+
+        // corrupt the last byte of the second record
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "rw")) {
+            file.seek(8);
+            int length = file.readInt();
+            file.seek(8 + 8 + length);
+            length = file.readInt();
+            long last = 8 + 8 + length + 8 + length - 1;
+            file.seek(last);
+            byte b = file.readByte();
+            file.seek(last);
+            file.writeByte(b ^ 0xff);
+        }
+
+        restart(new ClientRegistryImpl());
+        Assert.assertNotNull(registry.get("ep1"));
+        Assert.assertNull(registry.get("ep2"));
+        Assert.assertNotNull(registry.get("ep3"));
+
+        // the records after the invalid one are kept
+        registry.registerClient(newClient("reg4", "ep4", 3600L));
+        restart(new ClientRegistryImpl());
+        Assert.assertNotNull(registry.get("ep1"));
+        Assert.assertNotNull(registry.get("ep3"));
+        Assert.assertNotNull(registry.get("ep4"));
+    }
+
+    @Test
+    public void concurrent_changes_are_logged_in_order() throws Exception {
+        restart(new SlowListenersRegistry());
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            final String registrationId = "reg" + i;
+            final AtomicBoolean deregistered = new AtomicBoolean();
+            Thread deregistering = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (registry.deregisterClient(registrationId) == null) {
+                            Thread.yield();
+                        }
+                    } catch (ClientRegistrationException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        deregistered.set(true);
+                    }
+                }
+            };
+            Thread updating = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10000 && !deregistered.get(); j++) {
+                            registry.updateClient(new ClientUpdate(registrationId, address, 5683, 60L, null, null,
+                                    null));
+                            Thread.yield();
+                        }
+                    } catch (ClientRegistrationException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            deregistering.start();
+            updating.start();
+            registry.registerClient(newClient(registrationId, "ep" + i, 3600L));
+            deregistering.join();
+            updating.join();
+        }
+        Assert.assertEquals(0, failures.get());
+        Assert.assertTrue(registry.allClients().isEmpty());
+
+        // no registration is restored by a record logged after its de-registration
+        restart(new ClientRegistryImpl());
+        Assert.assertTrue(registry.allClients().isEmpty());
+    }
+
+    @Test
+    public void compaction_keeps_the_latest_registrations() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            registry.registerClient(newClient("reg" + i, "ep" + i, 3600L));
+        }
+        for (int i = 0; i < 1000; i++) {
+            registry.updateClient(new ClientUpdate("reg" + (i % 100), address, 5683, (long) i, null, null, null));
+        }
+        for (int i = 50; i < 100; i++) {
+            registry.deregisterClient("reg" + i);
+        }
+        Assert.assertEquals(1150, registry.getRecordsCount());
+
+        registry.compact();
+        Assert.assertEquals(50, registry.getRecordsCount());
+        registry.registerClient(newClient("reg100", "ep100", 3600L));
+
+        restart(new ClientRegistryImpl());
+        Assert.assertEquals(51, registry.allClients().size());
+        Assert.assertNull(registry.get("ep51"));
+        Assert.assertEquals(949L, registry.get("ep49").getLifeTimeInSec());
+        Assert.assertNotNull(registry.get("ep100"));
+    }
+
+    @Test
+    public void events_appended_during_compaction_are_kept() throws Exception {
+        SnapshotHookRegistry delegate = new SnapshotHookRegistry();
+        restart(delegate);
+        registry.registerClient(newClient("reg1", "ep1", 3600L));
+        registry.registerClient(newClient("reg2", "ep2", 3600L));
+
+        // changes made while the snapshot is written
+        delegate.onSnapshot = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    registry.registerClient(newClient("reg3", "ep3", 3600L));
+                    registry.updateClient(new ClientUpdate("reg1", address, 5683, 60L, null, null, null));
+                    registry.deregisterClient("reg2");
+                } catch (ClientRegistrationException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        registry.compact();
+        Assert.assertNull(delegate.onSnapshot);
+        Assert.assertEquals(5, registry.getRecordsCount());
+
+        restart(new ClientRegistryImpl());
+        Assert.assertEquals(2, registry.allClients().size());
+        Assert.assertEquals(60L, registry.get("ep1").getLifeTimeInSec());
+        Assert.assertNull(registry.get("ep2"));
+        Assert.assertNotNull(registry.get("ep3"));
+    }
+
+    @Test
+    public void compaction_releases_the_previous_log() throws Exception {
+        File maps = new File("/proc/self/maps");
+        Assume.assumeTrue(maps.canRead());
+
+        registry.registerClient(newClient("reg1", "ep1", 3600L));
+        registry.compact();
+        registry.sync();
+
+        // the replaced log file is deleted, but stays until it is not mapped anymore
+        String mappings = new String(Files.readAllBytes(maps.toPath()), Charsets.UTF_8);
+        Assert.assertFalse(mappings.contains(new File(logFile).getAbsolutePath() + " (deleted)"));
+    }
+
+    @Test
+    public void registrations_expired_during_restart_are_removed() throws Exception {
+        registry.registerClient(new Client("reg1", "ep1", address, 5683, null, 1L, null, null, objectLinks, null,
+                new Date(System.currentTimeMillis() - 2000), registrationEndpoint));
+        registry.registerClient(newClient("reg2", "ep2", 3600L));
+
+        restart(new ClientRegistryImpl());
+        registry.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (registry.get("ep1") != null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertNull(registry.get("ep1"));
+        } finally {
+            registry.stop();
+        }
+
+        restart(new ClientRegistryImpl());
+        Assert.assertNull(registry.get("ep1"));
+        Assert.assertNotNull(registry.get("ep2"));
+    }
+
+    @Test
+    public void compact_client_registry_can_be_persisted() throws Exception {
+        restart(new CompactClientRegistry());
+        registry.registerClient(newClient("reg1", "ep1", 3600L));
+        registry.updateClient(new ClientUpdate("reg1", address, 5683, 60L, null, null, null));
+
+        restart(new CompactClientRegistry());
+        Assert.assertEquals(60L, registry.get("ep1").getLifeTimeInSec());
+    }
+
+    private void restart(ClientRegistry delegate) {
+        registry.destroy();
+        registry = new PersistentClientRegistry(delegate, logFile);
+    }
+
+    /**
+     * An in memory registry slow to notify its listeners, widening the window between a change and its record.
+     */
+    private static class SlowListenersRegistry extends ClientRegistryImpl {
+
+        @Override
+        public void addListener(final ClientRegistryListener listener) {
+            super.addListener(new ClientRegistryListener() {
+
+                @Override
+                public void registered(Client client) {
+                    pause();
+                    listener.registered(client);
+                }
+
+                @Override
+                public void updated(Client clientUpdated) {
+                    pause();
+                    listener.updated(clientUpdated);
+                }
+
+                @Override
+                public void unregistered(Client client) {
+                    pause();
+                    listener.unregistered(client);
+                }
+            });
+        }
+
+        private static void pause() {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * An in memory registry running a task once, when the clients are listed for a compaction snapshot.
+     */
+    private static class SnapshotHookRegistry extends ClientRegistryImpl {
+
+        volatile Runnable onSnapshot;
+
+        @Override
+        public Collection<Client> allClients() {
+            // the snapshot does not see the changes made by the task
+            Collection<Client> clients = new ArrayList<>(super.allClients());
+            Runnable hook = onSnapshot;
+            if (hook != null) {
+                onSnapshot = null;
+                hook.run();
+            }
+            return clients;
+        }
+    }
+
+    private Client newClient(String registrationId, String endpoint, long lifetime) {
+        return new Client(registrationId, endpoint, address, 5683, null, lifetime, null, null, objectLinks, null,
+                registrationEndpoint);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.LwM2mPath;
+import leshan.core.node.LwM2mResource;
+import leshan.core.node.Value;
+import leshan.server.client.Client;
+import leshan.server.impl.QueuedObservationRegistryListener.OverflowPolicy;
+import leshan.server.observation.Observation;
+import leshan.server.observation.ObservationListener;
+import leshan.server.observation.ObservationRegistryListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueuedObservationRegistryListenerTest extends BasicTestSupport {
+
+    private ManualExecutor executor = new ManualExecutor();
+    private RecordingListener delegate = new RecordingListener();
+    private Observation observation1;
+    private Observation observation2;
+
+    @Before
+    public void setUp() throws Exception {
+        givenASimpleClient();
+        observation1 = new ObservationStub(client, new LwM2mPath(3, 0, 1));
+        observation2 = new ObservationStub(client, new LwM2mPath(3, 0, 2));
+    }
+
+    @Test
+    public void deliver_events_in_order() {
+        QueuedObservationRegistryListener listener = new QueuedObservationRegistryListener(delegate, 10,
+                OverflowPolicy.DROP_OLDEST, executor);
+
+        listener.newObservation(observation1);
+        listener.newValue(observation1, value(1));
+        listener.newValue(observation1, value(2));
+        listener.cancelled(observation1);
+        assertEquals(4, listener.getQueueSize());
+        assertTrue(delegate.events.isEmpty());
+
+        executor.runAll();
+        assertEquals(Arrays.asList("new /3/0/1", "value /3/0/1 1", "value /3/0/1 2", "cancelled /3/0/1"),
+                delegate.events);
+        assertEquals(0, listener.getQueueSize());
+        assertEquals(4, listener.getDeliveredCount());
+    }
+
+    @Test
+    public void drop_oldest_notification() {
+        QueuedObservationRegistryListener listener = new QueuedObservationRegistryListener(delegate, 2,
+                OverflowPolicy.DROP_OLDEST, executor);
+
+        listener.newValue(observation1, value(1));
+        listener.newValue(observation2, value(2));
+        listener.newValue(observation1, value(3));
+
+        executor.runAll();
+        assertEquals(Arrays.asList("value /3/0/2 2", "value /3/0/1 3"), delegate.events);
+        assertEquals(1, listener.getDroppedCount());
+    }
+
+    @Test
+    public void lifecycle_events_are_not_dropped() {
+        QueuedObservationRegistryListener listener = new QueuedObservationRegistryListener(delegate, 1,
+                OverflowPolicy.DROP_OLDEST, executor);
+
+        listener.newValue(observation1, value(1));
+        listener.cancelled(observation1);
+        listener.newValue(observation2, value(2));
+
+        executor.runAll();
+        assertEquals(Arrays.asList("cancelled /3/0/1", "value /3/0/2 2"), delegate.events);
+    }
+
+    @Test
+    public void coalesce_notifications_of_same_observation() {
+        QueuedObservationRegistryListener listener = new QueuedObservationRegistryListener(delegate, 10,
+                OverflowPolicy.COALESCE, executor);
+
+        listener.newValue(observation1, value(1));
+        listener.newValue(observation2, value(2));
+        listener.newValue(observation1, value(3));
+        listener.newValue(observation1, value(4));
+
+        executor.runAll();
+        assertEquals(Arrays.asList("value /3/0/1 4", "value /3/0/2 2"), delegate.events);
+        assertEquals(2, listener.getCoalescedCount());
+
+        // once delivered, a new value is queued again
+        listener.newValue(observation1, value(5));
+        executor.runAll();
+        assertEquals("value /3/0/1 5", delegate.events.get(2));
+    }
+
+    @Test
+    public void block_when_full() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingListener slowDelegate = new RecordingListener() {
+            @Override
+            public void newValue(Observation observation, LwM2mNode value) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.newValue(observation, value);
+            }
+        };
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            final QueuedObservationRegistryListener listener = new QueuedObservationRegistryListener(slowDelegate,
+                    1, OverflowPolicy.BLOCK, workers);
+
+            final CountDownLatch producerDone = new CountDownLatch(1);
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 3; i++) {
+                        listener.newValue(observation1, value(i));
+                    }
+                    producerDone.countDown();
+                }
+            };
+            producer.start();
+
+            // the producer is blocked by the slow listener
+            assertTrue(!producerDone.await(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertTrue(producerDone.await(5, TimeUnit.SECONDS));
+            workers.shutdown();
+            assertTrue(workers.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("value /3/0/1 0", "value /3/0/1 1", "value /3/0/1 2"), slowDelegate.events);
+            assertEquals(0, listener.getDroppedCount());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static LwM2mNode value(int v) {
+        return new LwM2mResource(1, Value.newIntegerValue(v));
+    }
+
+    private static class ManualExecutor implements Executor {
+
+        private final LinkedList<Runnable> tasks = new LinkedList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.removeFirst().run();
+            }
+        }
+    }
+
+    private static class RecordingListener implements ObservationRegistryListener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void cancelled(Observation observation) {
+            events.add("cancelled " + observation.getPath());
+        }
+
+        @Override
+        public void newValue(Observation observation, LwM2mNode value) {
+            events.add("value " + observation.getPath() + " " + ((LwM2mResource) value).getValue().value);
+        }
+
+        @Override
+        public void newObservation(Observation observation) {
+            events.add("new " + observation.getPath());
+        }
+    }
+
+    private static class ObservationStub implements Observation {
+
+        private final Client client;
+        private final LwM2mPath path;
+
+        ObservationStub(Client client, LwM2mPath path) {
+            this.client = client;
+            this.path = path;
+        }
+
+        @Override
+        public Client getClient() {
+            return client;
+        }
+
+        @Override
+        public LwM2mPath getPath() {
+            return path;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void addListener(ObservationListener listener) {
+        }
+
+        @Override
+        public void removeListener(ObservationListener listener) {
+        }
+    }
+}
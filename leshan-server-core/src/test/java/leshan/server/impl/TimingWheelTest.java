@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TimingWheel}
+ */
+public class TimingWheelTest {
+
+    private static final long START = 1000000;
+
+    private final TimingWheel<String> wheel = new TimingWheel<>(1000, 16, START);
+
+    @Test
+    public void expire_at_deadline() {
+        wheel.schedule("a", START + 1500);
+        wheel.schedule("b", START + 3000);
+
+        assertTrue(wheel.advance(START + 1000).isEmpty());
+        assertEquals(Arrays.asList("a"), wheel.advance(START + 2000));
+        assertTrue(wheel.advance(START + 2999).isEmpty());
+        assertEquals(Arrays.asList("b"), wheel.advance(START + 3000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void reschedule_and_cancel() {
+        wheel.schedule("a", START + 1000);
+        wheel.schedule("b", START + 1000);
+        wheel.schedule("a", START + 5000);
+        wheel.cancel("b");
+
+        assertTrue(wheel.advance(START + 4000).isEmpty());
+        assertEquals(Arrays.asList("a"), wheel.advance(START + 5000));
+    }
+
+    @Test
+    public void past_deadline_expires_at_next_tick() {
+        wheel.advance(START + 2000);
+        wheel.schedule("a", 0);
+
+        assertEquals(Arrays.asList("a"), wheel.advance(START + 3000));
+    }
+
+    @Test
+    public void deadline_beyond_one_revolution() {
+        // 16 slots of 1 second
+        wheel.schedule("a", START + 20000);
+
+        assertTrue(wheel.advance(START + 4000).isEmpty());
+        assertTrue(wheel.advance(START + 19000).isEmpty());
+        assertEquals(Collections.singletonList("a"), wheel.advance(START + 20000));
+    }
+
+    @Test
+    public void compare_elements_by_identity() {
+        String a1 = new String("a");
+        String a2 = new String("a");
+        wheel.schedule(a1, START + 1000);
+        wheel.schedule(a2, START + 2000);
+        wheel.cancel(a1);
+
+        assertTrue(wheel.advance(START + 1000).isEmpty());
+        assertSame(a2, wheel.advance(START + 2000).get(0));
+    }
+
+    @Test
+    public void advance_after_a_long_pause() {
+        wheel.schedule("a", START + 3000);
+        wheel.schedule("b", START + 12000);
+
+        assertEquals(2, wheel.advance(START + 100000).size());
+    }
+}
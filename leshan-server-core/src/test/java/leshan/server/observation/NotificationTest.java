@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.observation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import leshan.core.node.LwM2mNode;
+import leshan.core.node.LwM2mPath;
+import leshan.core.node.LwM2mResource;
+import leshan.core.node.codec.InvalidValueException;
+import leshan.core.request.ContentFormat;
+import leshan.util.Charsets;
+
+import org.junit.Test;
+
+public class NotificationTest {
+
+    private final LwM2mPath path = new LwM2mPath(3, 0, 15);
+
+    @Test
+    public void decode_content_once() throws InvalidValueException {
+        Notification notification = new Notification("Europe/Paris".getBytes(Charsets.UTF_8), ContentFormat.TEXT,
+                path);
+
+        LwM2mNode content = notification.getContent();
+        assertEquals("Europe/Paris", ((LwM2mResource) content).getValue().value);
+        assertSame(content, notification.getContent());
+    }
+
+    @Test
+    public void raw_listener_does_not_decode() throws InvalidValueException {
+        // JSON is not supported by the decoder
+        Notification notification = new Notification(new byte[] { 1, 2, 3 }, ContentFormat.JSON, path);
+        final List<Notification> received = new ArrayList<>();
+
+        notification.deliverTo(new NotificationListener() {
+
+            @Override
+            public void newValue(Observation observation, LwM2mNode value) {
+                throw new AssertionError("should not be called");
+            }
+
+            @Override
+            public void cancelled(Observation observation) {
+            }
+
+            @Override
+            public void newNotification(Observation observation, Notification notification) {
+                received.add(notification);
+            }
+        }, null);
+
+        assertEquals(1, received.size());
+        assertEquals(3, received.get(0).getPayload().length);
+    }
+
+    @Test(expected = InvalidValueException.class)
+    public void value_listener_gets_decoding_error() throws InvalidValueException {
+        Notification notification = new Notification(new byte[] { 1, 2, 3 }, ContentFormat.JSON, path);
+
+        notification.deliverTo(new ObservationListener() {
+
+            @Override
+            public void newValue(Observation observation, LwM2mNode value) {
+                throw new AssertionError("should not be called");
+            }
+
+            @Override
+            public void cancelled(Observation observation) {
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import leshan.ResponseCode;
+import leshan.core.response.ClientResponse;
+import leshan.core.response.ExceptionConsumer;
+import leshan.core.response.ResponseConsumer;
+import leshan.core.response.ValueResponse;
+import leshan.server.LwM2mServer;
+import leshan.server.client.Client;
+import leshan.server.client.ClientRegistry;
+import leshan.server.impl.ClientRegistryImpl;
+import leshan.server.observation.ObservationRegistry;
+import leshan.server.request.BulkRequestSender.ClientSelector;
+import leshan.server.request.BulkRequestSender.Listener;
+import leshan.server.request.BulkRequestSender.RequestFactory;
+import leshan.server.security.SecurityRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkRequestSenderTest {
+
+    private FakeServer server = new FakeServer();
+    private RecordingListener listener = new RecordingListener();
+
+    private final RequestFactory<ValueResponse> readDevice = new RequestFactory<ValueResponse>() {
+        @Override
+        public LwM2mRequest<ValueResponse> create(Client client) {
+            return new ReadRequest(client, 3, 0);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            server.getClientRegistry().registerClient(
+                    new Client("reg" + i, "ep" + i, InetAddress.getLoopbackAddress(), 5683 + i, "1.0", 10000L, null,
+                            null, null, new Date(), InetSocketAddress.createUnresolved("localhost", 5683)));
+        }
+    }
+
+    @Test
+    public void limit_requests_in_flight() throws Exception {
+        BulkRequest<ValueResponse> bulk = new BulkRequestSender(server, 3).send(BulkRequestSender.ALL_CLIENTS,
+                readDevice, listener);
+
+        assertEquals(10, bulk.getClientsCount());
+        assertEquals(3, server.pending.size());
+        assertEquals(3, bulk.getInFlightCount());
+
+        // each response triggers a new request
+        server.respond(0);
+        assertEquals(3, server.pending.size());
+        assertEquals(4, bulk.getSentCount());
+
+        while (!server.pending.isEmpty()) {
+            server.respond(0);
+        }
+
+        assertTrue(bulk.await(1, TimeUnit.SECONDS));
+        assertEquals(10, bulk.getResponseCount());
+        assertEquals(0, bulk.getErrorCount());
+        assertEquals(10, listener.responses.size());
+        assertEquals(1, listener.completions);
+    }
+
+    @Test
+    public void select_clients() throws Exception {
+        BulkRequest<ValueResponse> bulk = new BulkRequestSender(server, 100).send(new ClientSelector() {
+            @Override
+            public boolean select(Client client) {
+                return client.getEndpoint().equals("ep2") || client.getEndpoint().equals("ep5");
+            }
+        }, readDevice, listener);
+
+        assertEquals(2, bulk.getClientsCount());
+        assertEquals(2, server.pending.size());
+    }
+
+    @Test
+    public void report_errors() throws Exception {
+        server.failOnSend = true;
+
+        BulkRequest<ValueResponse> bulk = new BulkRequestSender(server, 3).send(BulkRequestSender.ALL_CLIENTS,
+                readDevice, listener);
+
+        // synchronous failures do not stop the bulk request
+        assertTrue(bulk.isDone());
+        assertEquals(10, bulk.getErrorCount());
+        assertEquals(10, listener.errors.size());
+        assertEquals(1, listener.completions);
+    }
+
+    @Test
+    public void cancel_pending_requests() throws Exception {
+        BulkRequest<ValueResponse> bulk = new BulkRequestSender(server, 3).send(BulkRequestSender.ALL_CLIENTS,
+                readDevice, listener);
+        server.respond(0);
+
+        bulk.cancel();
+
+        assertTrue(bulk.isDone());
+        assertTrue(bulk.isCancelled());
+        assertEquals(4, bulk.getSentCount());
+        assertEquals(1, bulk.getResponseCount());
+        assertEquals(3, bulk.getErrorCount());
+        assertEquals(1, listener.completions);
+    }
+
+    @Test
+    public void complete_empty_bulk_request() throws Exception {
+        BulkRequest<ValueResponse> bulk = new BulkRequestSender(server, 3).send(new ArrayList<Client>(), readDevice,
+                listener);
+
+        assertTrue(bulk.isDone());
+        assertFalse(bulk.isCancelled());
+        assertEquals(1, listener.completions);
+    }
+
+    private static class RecordingListener implements Listener<ValueResponse> {
+
+        List<Client> responses = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        int completions = 0;
+
+        @Override
+        public void onResponse(Client client, ValueResponse response, long latency) {
+            responses.add(client);
+        }
+
+        @Override
+        public void onError(Client client, Exception e, long latency) {
+            errors.add(e);
+        }
+
+        @Override
+        public void onCompletion(BulkRequest<ValueResponse> bulkRequest) {
+            completions++;
+        }
+    }
+
+    private static class FakeServer implements LwM2mServer {
+
+        final ClientRegistry clientRegistry = new ClientRegistryImpl();
+        final List<ResponseFuture<ValueResponse>> pending = new ArrayList<>();
+        boolean failOnSend = false;
+
+        void respond(int index) {
+            pending.remove(index).complete(new ValueResponse(ResponseCode.NOT_FOUND));
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public <T extends ClientResponse> ResponseFuture<T> sendAsync(LwM2mRequest<T> request) {
+            if (failOnSend) {
+                throw new IllegalStateException("can't find the client endpoint");
+            }
+            final ResponseFuture<ValueResponse> future = new ResponseFuture<>(null);
+            future.addCallback(new ResponseConsumer<ValueResponse>() {
+                @Override
+                public void accept(ValueResponse response) {
+                }
+            }, new ExceptionConsumer() {
+                @Override
+                public void accept(Exception e) {
+                    pending.remove(future);
+                }
+            });
+            pending.add(future);
+            return (ResponseFuture<T>) future;
+        }
+
+        @Override
+        public ClientRegistry getClientRegistry() {
+            return clientRegistry;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public <T extends ClientResponse> T send(LwM2mRequest<T> request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T extends ClientResponse> void send(LwM2mRequest<T> request, ResponseConsumer<T> responseCallback,
+                ExceptionConsumer errorCallback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ObservationRegistry getObservationRegistry() {
+            return null;
+        }
+
+        @Override
+        public SecurityRegistry getSecurityRegistry() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014, Sierra Wireless
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright notice,
+ *       this list of conditions and the following disclaimer in the documentation
+ *       and/or other materials provided with the distribution.
+ *     * Neither the name of {{ project }} nor the names of its contributors
+ *       may be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package leshan.server.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import leshan.ResponseCode;
+import leshan.core.response.ClientResponse;
+import leshan.core.response.ExceptionConsumer;
+import leshan.core.response.ResponseConsumer;
+
+import org.junit.Test;
+
+public class ResponseFutureTest {
+
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private final ResponseFuture<ClientResponse> future = new ResponseFuture<>(new Runnable() {
+        @Override
+        public void run() {
+            cancelled.incrementAndGet();
+        }
+    });
+    private final AtomicReference<ClientResponse> response = new AtomicReference<>();
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+
+    @Test
+    public void callback_registered_before_completion() throws Exception {
+        addCallback();
+        ClientResponse r = new ClientResponse(ResponseCode.CHANGED);
+
+        assertTrue(future.complete(r));
+
+        assertSame(r, response.get());
+        assertSame(r, future.get());
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void callback_registered_after_completion() throws Exception {
+        ClientResponse r = new ClientResponse(ResponseCode.CHANGED);
+        future.complete(r);
+
+        addCallback();
+
+        assertSame(r, response.get());
+    }
+
+    @Test
+    public void complete_only_once() throws Exception {
+        addCallback();
+        ClientResponse r = new ClientResponse(ResponseCode.CHANGED);
+        future.complete(r);
+
+        assertFalse(future.complete(new ClientResponse(ResponseCode.DELETED)));
+        assertFalse(future.fail(new RejectionException()));
+        assertFalse(future.cancel(false));
+
+        assertSame(r, future.get());
+        assertEquals(null, error.get());
+        assertEquals(0, cancelled.get());
+    }
+
+    @Test
+    public void failure() throws Exception {
+        addCallback();
+        RequestTimeoutException e = new RequestTimeoutException("/3/0", 10);
+
+        future.fail(e);
+
+        assertSame(e, error.get());
+        try {
+            future.get();
+        } catch (ExecutionException ee) {
+            assertSame(e, ee.getCause());
+            return;
+        }
+        throw new AssertionError("ExecutionException expected");
+    }
+
+    @Test
+    public void cancel_request() throws Exception {
+        addCallback();
+
+        assertTrue(future.cancel(false));
+
+        assertEquals(1, cancelled.get());
+        assertTrue(future.isCancelled());
+        assertTrue(error.get() instanceof CancellationException);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void get_with_timeout() throws Exception {
+        future.get(10, TimeUnit.MILLISECONDS);
+    }
+
+    private void addCallback() {
+        future.addCallback(new ResponseConsumer<ClientResponse>() {
+            @Override
+            public void accept(ClientResponse r) {
+                response.set(r);
+            }
+        }, new ExceptionConsumer() {
+            @Override
+            public void accept(Exception e) {
+                error.set(e);
+            }
+        });
+    }
+}
@@ -29,6 +29,8 @@
  */
 package leshan.standalone;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.AlgorithmParameters;
 import java.security.KeyFactory;
@@ -46,8 +48,11 @@ import java.security.spec.KeySpec;
 
 import javax.xml.bind.DatatypeConverter;
 
+import leshan.core.objectspec.ModelsFolderWatcher;
+import leshan.core.objectspec.Resources;
 import leshan.server.LwM2mServer;
 import leshan.server.californium.LeshanServerBuilder;
+import leshan.server.impl.PersistentClientRegistry;
 import leshan.server.impl.SecurityRegistryImpl;
 import leshan.standalone.servlet.ClientServlet;
 import leshan.standalone.servlet.EventServlet;
@@ -66,6 +71,7 @@ public class LeshanStandalone {
 
     private Server server;
     private LwM2mServer lwServer;
+    private ModelsFolderWatcher modelsWatcher;
 
     public void start() {
         // Use those ENV variables for specifying the interface to be bound for coap and coaps
@@ -83,6 +89,9 @@ public class LeshanStandalone {
             builder.setLocalAddressSecure(adds[0], Integer.parseInt(adds[1]));
         }
 
+        // Keep the registrations across restarts
+        builder.setClientRegistry(new PersistentClientRegistry());
+
         // Get public and private server key
         PrivateKey privateKey = null;
         PublicKey publicKey = null;
@@ -114,9 +123,25 @@ public class LeshanStandalone {
             LOG.warn("Unable to load RPK.", e);
         }
 
+        // Avoid parsing the objects definitions at each startup
+        File dataFolder = new File("data");
+        if (dataFolder.isDirectory() || dataFolder.mkdirs()) {
+            Resources.setCacheFile(new File(dataFolder, "objectspec.cache"));
+        }
+
         lwServer = builder.build();
         lwServer.start();
 
+        // Reload the objects definitions when the models folder changes
+        modelsWatcher = ModelsFolderWatcher.forModelsFolder();
+        if (modelsWatcher != null) {
+            try {
+                modelsWatcher.start();
+            } catch (IOException e) {
+                LOG.warn("Unable to watch the models folder.", e);
+            }
+        }
+
         // Now prepare and start jetty
         String webPort = System.getenv("PORT");
         if (webPort == null || webPort.isEmpty()) {
@@ -138,6 +163,7 @@ public class LeshanStandalone {
         root.addServlet(eventServletHolder, "/event/*");
 
         ServletHolder clientServletHolder = new ServletHolder(new ClientServlet(lwServer));
+        clientServletHolder.setAsyncSupported(true);
         root.addServlet(clientServletHolder, "/api/clients/*");
 
         ServletHolder securityServletHolder = new ServletHolder(new SecurityServlet(lwServer.getSecurityRegistry()));
@@ -155,6 +181,9 @@ public class LeshanStandalone {
     }
 
     public void stop() {
+        if (modelsWatcher != null) {
+            modelsWatcher.stop();
+        }
         try {
             lwServer.destroy();
             server.stop();
@@ -35,6 +35,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -46,15 +47,18 @@ import leshan.core.node.LwM2mResource;
 import leshan.core.node.Value;
 import leshan.core.request.ContentFormat;
 import leshan.core.response.ClientResponse;
-import leshan.core.response.ValueResponse;
+import leshan.core.response.ExceptionConsumer;
+import leshan.core.response.ResponseConsumer;
 import leshan.server.LwM2mServer;
 import leshan.server.client.Client;
 import leshan.server.request.CreateRequest;
 import leshan.server.request.DeleteRequest;
 import leshan.server.request.ExecuteRequest;
+import leshan.server.request.LwM2mRequest;
 import leshan.server.request.ObserveRequest;
 import leshan.server.request.ReadRequest;
 import leshan.server.request.ResourceAccessException;
+import leshan.server.request.ResponseFuture;
 import leshan.server.request.WriteRequest;
 import leshan.standalone.servlet.json.ClientSerializer;
 import leshan.standalone.servlet.json.LwM2mNodeDeserializer;
@@ -140,8 +144,7 @@ public class ClientServlet extends HttpServlet {
             Client client = server.getClientRegistry().get(clientEndpoint);
             if (client != null) {
                 ReadRequest request = new ReadRequest(client, target);
-                ValueResponse cResponse = server.send(request);
-                processDeviceResponse(resp, cResponse);
+                sendAsync(req, request);
             } else {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 resp.getWriter().format("No registered client with id '%s'", clientEndpoint).flush();
@@ -175,8 +178,7 @@ public class ClientServlet extends HttpServlet {
             String target = StringUtils.removeStart(req.getPathInfo(), "/" + clientEndpoint);
             Client client = server.getClientRegistry().get(clientEndpoint);
             if (client != null) {
-                ClientResponse cResponse = this.writeRequest(client, target, req, resp);
-                processDeviceResponse(resp, cResponse);
+                sendAsync(req, this.writeRequest(client, target, req));
             } else {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 resp.getWriter().format("No registered client with id '%s'", clientEndpoint).flush();
@@ -207,8 +209,7 @@ public class ClientServlet extends HttpServlet {
                 Client client = server.getClientRegistry().get(clientEndpoint);
                 if (client != null) {
                     ObserveRequest request = new ObserveRequest(client, target);
-                    ClientResponse cResponse = server.send(request);
-                    processDeviceResponse(resp, cResponse);
+                    sendAsync(req, request);
                 } else {
                     resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                     resp.getWriter().format("no registered client with id '%s'", clientEndpoint).flush();
@@ -233,8 +234,7 @@ public class ClientServlet extends HttpServlet {
                 Client client = server.getClientRegistry().get(clientEndpoint);
                 if (client != null) {
                     ExecuteRequest request = new ExecuteRequest(client, target);
-                    ClientResponse cResponse = server.send(request);
-                    processDeviceResponse(resp, cResponse);
+                    sendAsync(req, request);
                 } else {
                     resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                     resp.getWriter().format("no registered client with id '%s'", clientEndpoint).flush();
@@ -256,8 +256,7 @@ public class ClientServlet extends HttpServlet {
             try {
                 Client client = server.getClientRegistry().get(clientEndpoint);
                 if (client != null) {
-                    ClientResponse cResponse = this.createRequest(client, target, req, resp);
-                    processDeviceResponse(resp, cResponse);
+                    sendAsync(req, this.createRequest(client, target, req));
                 } else {
                     resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                     resp.getWriter().format("no registered client with id '%s'", clientEndpoint).flush();
@@ -310,8 +309,7 @@ public class ClientServlet extends HttpServlet {
             Client client = server.getClientRegistry().get(clientEndpoint);
             if (client != null) {
                 DeleteRequest request = new DeleteRequest(client, target);
-                ClientResponse cResponse = server.send(request);
-                processDeviceResponse(resp, cResponse);
+                sendAsync(req, request);
             } else {
                 resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 resp.getWriter().format("no registered client with id '%s'", clientEndpoint).flush();
@@ -327,6 +325,52 @@ public class ClientServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Sends the LWM2M request without holding the HTTP thread: the HTTP response is written once the LWM2M client
+     * answers.
+     */
+    private <T extends ClientResponse> void sendAsync(HttpServletRequest req, LwM2mRequest<T> request) {
+        // sent before going asynchronous: a request rejected right away is answered by the caller
+        ResponseFuture<T> future = server.sendAsync(request);
+
+        final AsyncContext async = req.startAsync();
+        // the LWM2M request has its own timeout
+        async.setTimeout(0);
+        final String resource = req.getServletPath() + req.getPathInfo();
+
+        future.addCallback(new ResponseConsumer<T>() {
+            @Override
+            public void accept(T response) {
+                try {
+                    processDeviceResponse((HttpServletResponse) async.getResponse(), response);
+                } catch (IOException e) {
+                    LOG.warn("Unable to write response", e);
+                } finally {
+                    async.complete();
+                }
+            }
+        }, new ExceptionConsumer() {
+            @Override
+            public void accept(Exception e) {
+                HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+                try {
+                    if (e instanceof ResourceAccessException) {
+                        LOG.warn(String.format("Error accessing resource %s.", resource), e);
+                        resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        resp.getWriter().append(e.getMessage()).flush();
+                    } else {
+                        // rejected or cancelled request
+                        processDeviceResponse(resp, null);
+                    }
+                } catch (IOException ioe) {
+                    LOG.warn("Unable to write response", ioe);
+                } finally {
+                    async.complete();
+                }
+            }
+        });
+    }
+
     private void processDeviceResponse(HttpServletResponse resp, ClientResponse cResponse) throws IOException {
         String response = null;
         if (cResponse == null) {
@@ -340,16 +384,15 @@ public class ClientServlet extends HttpServlet {
     }
 
     // TODO refactor the code to remove this method.
-    private ClientResponse writeRequest(Client client, String target, HttpServletRequest req, HttpServletResponse resp)
-            throws IOException {
+    private WriteRequest writeRequest(Client client, String target, HttpServletRequest req) throws IOException {
         Map<String, String> parameters = new HashMap<String, String>();
         String contentType = HttpFields.valueParameters(req.getContentType(), parameters);
 
         if ("text/plain".equals(contentType)) {
             String content = IOUtils.toString(req.getInputStream(), parameters.get("charset"));
             int rscId = Integer.valueOf(target.substring(target.lastIndexOf("/") + 1));
-            return server.send(new WriteRequest(client, target,
-                    new LwM2mResource(rscId, Value.newStringValue(content)), ContentFormat.TEXT, true));
+            return new WriteRequest(client, target, new LwM2mResource(rscId, Value.newStringValue(content)),
+                    ContentFormat.TEXT, true);
 
         } else if ("application/json".equals(contentType)) {
             String content = IOUtils.toString(req.getInputStream(), parameters.get("charset"));
@@ -359,7 +402,7 @@ public class ClientServlet extends HttpServlet {
             } catch (JsonSyntaxException e) {
                 throw new IllegalArgumentException("unable to parse json to tlv:" + e.getMessage(), e);
             }
-            return server.send(new WriteRequest(client, target, node, null, true));
+            return new WriteRequest(client, target, node, null, true);
 
         } else {
             throw new IllegalArgumentException("content type " + req.getContentType()
@@ -368,8 +411,7 @@ public class ClientServlet extends HttpServlet {
     }
 
     // TODO refactor the code to remove this method.
-    private ClientResponse createRequest(Client client, String target, HttpServletRequest req, HttpServletResponse resp)
-            throws IOException {
+    private CreateRequest createRequest(Client client, String target, HttpServletRequest req) throws IOException {
         Map<String, String> parameters = new HashMap<String, String>();
         String contentType = HttpFields.valueParameters(req.getContentType(), parameters);
         if ("application/json".equals(contentType)) {
@@ -384,7 +426,7 @@ public class ClientServlet extends HttpServlet {
                 throw new IllegalArgumentException("payload must contain an object instance");
             }
 
-            return server.send(new CreateRequest(client, target, (LwM2mObjectInstance) node, ContentFormat.TLV));
+            return new CreateRequest(client, target, (LwM2mObjectInstance) node, ContentFormat.TLV);
         } else {
             throw new IllegalArgumentException("content type " + req.getContentType()
                     + " not supported for write requests");
@@ -34,6 +34,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -44,6 +47,8 @@ import leshan.core.node.LwM2mNode;
 import leshan.server.LwM2mServer;
 import leshan.server.client.Client;
 import leshan.server.client.ClientRegistryListener;
+import leshan.server.impl.QueuedObservationRegistryListener;
+import leshan.server.impl.QueuedObservationRegistryListener.OverflowPolicy;
 import leshan.server.observation.Observation;
 import leshan.server.observation.ObservationRegistryListener;
 import leshan.standalone.servlet.json.ClientSerializer;
@@ -85,8 +90,24 @@ public class EventServlet extends HttpServlet {
 
     private static final byte[] TERMINATION = new byte[] { '\r', '\n' };
 
+    private static final int NOTIFICATION_QUEUE_CAPACITY = 1000;
+
     private final Set<Continuation> continuations = new ConcurrentHashSet<>();
 
+    // serializes and writes the notifications to the SSE clients out of the CoAP threads
+    private final ExecutorService notificationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "EventServlet notifications");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final LwM2mServer server;
+
+    private final QueuedObservationRegistryListener queuedObservationRegistryListener;
+
     private final ClientRegistryListener clientRegistryListener = new ClientRegistryListener() {
 
         @Override
@@ -133,8 +154,13 @@ public class EventServlet extends HttpServlet {
     };
 
     public EventServlet(LwM2mServer server) {
+        this.server = server;
         server.getClientRegistry().addListener(this.clientRegistryListener);
-        server.getObservationRegistry().addListener(this.observationRegistryListener);
+
+        // a slow SSE client must not stall the notifications processing: keep only the latest values
+        queuedObservationRegistryListener = new QueuedObservationRegistryListener(this.observationRegistryListener,
+                NOTIFICATION_QUEUE_CAPACITY, OverflowPolicy.COALESCE, notificationExecutor);
+        server.getObservationRegistry().addListener(queuedObservationRegistryListener);
 
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeHierarchyAdapter(Client.class, new ClientSerializer());
@@ -143,6 +169,14 @@ public class EventServlet extends HttpServlet {
         this.gson = gsonBuilder.create();
     }
 
+    @Override
+    public void destroy() {
+        server.getClientRegistry().removeListener(clientRegistryListener);
+        server.getObservationRegistry().removeListener(queuedObservationRegistryListener);
+        notificationExecutor.shutdown();
+        super.destroy();
+    }
+
     private synchronized void sendEvent(String event, String data, String endpoint) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Dispatching {} event from endpoint {}", event, endpoint);